@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.List;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * 实例列表从 {@link ServiceInstanceCache} 读取的 ReactiveDiscoveryClient。
+ * 缓存中没有的服务通过 delegate 异步加载后放入缓存，不会阻塞调用线程。
+ * <p>
+ * 不要注册成 ReactiveDiscoveryClient 类型的 Bean，否则会被 ReactiveCompositeDiscoveryClient 收集进去。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CachingReactiveDiscoveryClient implements ReactiveDiscoveryClient {
+
+    private final ReactiveDiscoveryClient delegate;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    public CachingReactiveDiscoveryClient(ReactiveDiscoveryClient delegate,
+                                          ServiceInstanceCache serviceInstanceCache) {
+        this.delegate = delegate;
+        this.serviceInstanceCache = serviceInstanceCache;
+    }
+
+    @Override
+    public String description() {
+        return "Caching " + delegate.description();
+    }
+
+    @Override
+    public Flux<ServiceInstance> getInstances(String serviceId) {
+        return getInstanceList(serviceId).flatMapIterable(instances -> instances);
+    }
+
+    /**
+     * 以 List 的形式返回实例列表，缓存命中时直接返回快照，避免逐个元素发射再收集。
+     */
+    public Mono<List<ServiceInstance>> getInstanceList(String serviceId) {
+        List<ServiceInstance> instances = serviceInstanceCache.getIfPresent(serviceId);
+        if (instances != null) {
+            return Mono.just(instances);
+        }
+        return delegate.getInstances(serviceId).collectList()
+            .doOnNext(list -> serviceInstanceCache.put(serviceId, list));
+    }
+
+    @Override
+    public Flux<String> getServices() {
+        return delegate.getServices();
+    }
+
+    @Override
+    public int getOrder() {
+        return delegate.getOrder();
+    }
+
+}
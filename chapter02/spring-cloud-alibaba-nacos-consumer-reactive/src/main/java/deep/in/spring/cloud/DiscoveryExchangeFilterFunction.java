@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Mono;
+
+/**
+ * 把 http://serviceName/path 形式的请求替换成随机选出的服务实例地址。
+ * 实例列表通过 {@link CachingReactiveDiscoveryClient} 获取，整个过程不会阻塞。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class DiscoveryExchangeFilterFunction implements ExchangeFilterFunction {
+
+    private final CachingReactiveDiscoveryClient discoveryClient;
+
+    public DiscoveryExchangeFilterFunction(CachingReactiveDiscoveryClient discoveryClient) {
+        this.discoveryClient = discoveryClient;
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        URI url = request.url();
+        String serviceId = url.getHost();
+        return discoveryClient.getInstanceList(serviceId).flatMap(instances -> {
+            if (instances.isEmpty()) {
+                return Mono.error(new IllegalStateException("no " + serviceId + " instance available"));
+            }
+            ServiceInstance instance = choose(instances);
+            URI instanceUrl = UriComponentsBuilder.fromUri(url)
+                .host(instance.getHost()).port(instance.getPort()).build(true).toUri();
+            return next.exchange(ClientRequest.from(request).url(instanceUrl).build());
+        });
+    }
+
+    private static ServiceInstance choose(List<ServiceInstance> instances) {
+        if (instances.size() == 1) {
+            return instances.get(0);
+        }
+        return instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
+    }
+
+}
@@ -16,29 +16,66 @@
 
 package deep.in.spring.cloud;
 
-import java.util.List;
-
+import io.netty.channel.ChannelOption;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @SpringBootApplication
 @EnableDiscoveryClient(autoRegister = false)
+@EnableConfigurationProperties(WebClientPoolProperties.class)
 public class NacosReactiveConsumer {
 
     public static void main(String[] args) {
         SpringApplication.run(NacosReactiveConsumer.class, args);
     }
 
+    @Bean
+    public ServiceInstanceCache serviceInstanceCache(ReactiveDiscoveryClient reactiveDiscoveryClient) {
+        // 刷新在 ServiceInstanceCache 的后台线程执行，可以 block
+        return new ServiceInstanceCache(
+            serviceId -> reactiveDiscoveryClient.getInstances(serviceId).collectList().block());
+    }
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider webClientConnectionProvider(WebClientPoolProperties properties) {
+        return ConnectionProvider.fixed("nacos-consumer", properties.getMaxConnections(),
+            properties.getAcquireTimeout());
+    }
+
+    // 所有请求共用一个 WebClient 和连接池，通过 DiscoveryExchangeFilterFunction 把服务名替换成实例地址
+    @Bean
+    public WebClient loadBalancedWebClient(WebClient.Builder builder, WebClientPoolProperties properties,
+                                           ConnectionProvider webClientConnectionProvider,
+                                           ReactiveDiscoveryClient reactiveDiscoveryClient,
+                                           ServiceInstanceCache serviceInstanceCache) {
+        HttpClient httpClient = HttpClient.create(webClientConnectionProvider)
+            .keepAlive(properties.isKeepAlive())
+            .tcpConfiguration(tcpClient ->
+                tcpClient.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, properties.getConnectTimeout()));
+        if (properties.isHttp2()) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+        return builder
+            .clientConnector(new ReactorClientHttpConnector(httpClient))
+            .filter(new DiscoveryExchangeFilterFunction(
+                new CachingReactiveDiscoveryClient(reactiveDiscoveryClient, serviceInstanceCache)))
+            .build();
+    }
+
     @RestController
     class HelloController {
 
@@ -46,7 +83,7 @@ public class NacosReactiveConsumer {
         private ReactiveDiscoveryClient reactiveDiscoveryClient;
 
         @Autowired
-        private DiscoveryClient discoveryClient;
+        private WebClient loadBalancedWebClient;
 
         private String serviceName = "my-provider";
 
@@ -65,13 +102,8 @@ public class NacosReactiveConsumer {
 
         @GetMapping("/hello")
         public Mono<String> hello() {
-            List<ServiceInstance> serviceInstances = discoveryClient.getInstances(serviceName);
-            ServiceInstance serviceInstance = serviceInstances.stream()
-                .findAny().orElseThrow(() ->
-                    new IllegalStateException("no " + serviceName + " instance available"));
-            return WebClient.create("http://" +
-                serviceInstance.getHost() + ":" + serviceInstance.getPort())
-                .get().uri("/echo?name=nacos").retrieve().bodyToMono(String.class);
+            return loadBalancedWebClient.get().uri("http://" + serviceName + "/echo?name=nacos")
+                .retrieve().bodyToMono(String.class);
         }
 
     }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 负载均衡 WebClient 的连接池配置。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@ConfigurationProperties(prefix = "webclient.pool")
+public class WebClientPoolProperties {
+
+    /**
+     * 连接池最大连接数 (所有实例共享)。
+     */
+    private int maxConnections = 500;
+
+    /**
+     * 连接池满时获取连接的最长等待时间 (毫秒)。
+     */
+    private long acquireTimeout = 45000;
+
+    private int connectTimeout = 2000;
+
+    private boolean keepAlive = true;
+
+    /**
+     * 是否尝试使用 HTTP/2 (h2c 升级，服务端不支持时使用 HTTP/1.1)。
+     */
+    private boolean http2 = false;
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * 使用本地的 stub provider 对比每次请求创建 WebClient、每次请求新建连接以及共用连接池的 WebClient 的吞吐。
+ * 耗时较长，默认跳过，使用 mvn test -Dtest=WebClientBenchmarkTest -Dbenchmark=true 运行。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class WebClientBenchmarkTest {
+
+    private static final int REQUESTS = 5000;
+
+    private static final int CONCURRENCY = 32;
+
+    private DisposableServer server;
+
+    private ServiceInstanceCache serviceInstanceCache;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Before
+    public void setUp() {
+        server = HttpServer.create().host("127.0.0.1").port(0)
+            .route(routes -> routes.get("/echo", (request, response) -> response.sendString(Mono.just("hello"))))
+            .bindNow();
+        serviceInstanceCache = new ServiceInstanceCache(serviceId -> Collections.singletonList(instance()));
+    }
+
+    @After
+    public void tearDown() {
+        serviceInstanceCache.destroy();
+        server.disposeNow();
+    }
+
+    @Test
+    public void benchmark() {
+        String address = "http://127.0.0.1:" + server.port();
+        // 预热
+        run("warm up", i -> WebClient.create(address).get().uri("/echo").retrieve().bodyToMono(String.class));
+
+        run("WebClient.create per request",
+            i -> WebClient.create(address).get().uri("/echo").retrieve().bodyToMono(String.class));
+
+        WebClient noPool = WebClient.builder()
+            .clientConnector(new ReactorClientHttpConnector(HttpClient.create(ConnectionProvider.newConnection())))
+            .build();
+        run("new connection per request",
+            i -> noPool.get().uri(address + "/echo").retrieve().bodyToMono(String.class));
+
+        ConnectionProvider provider = ConnectionProvider.fixed("benchmark", CONCURRENCY);
+        try {
+            WebClient pooled = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider).keepAlive(true)))
+                .filter(new DiscoveryExchangeFilterFunction(
+                    new CachingReactiveDiscoveryClient(new StubReactiveDiscoveryClient(), serviceInstanceCache)))
+                .build();
+            run("pooled load-balanced WebClient",
+                i -> pooled.get().uri("http://my-provider/echo").retrieve().bodyToMono(String.class));
+        } finally {
+            provider.dispose();
+        }
+    }
+
+    private static void run(String name, Function<Integer, Mono<String>> call) {
+        long start = System.nanoTime();
+        Long ok = Flux.range(0, REQUESTS)
+            .flatMap(call, CONCURRENCY)
+            .filter("hello"::equals)
+            .count()
+            .block();
+        long elapsed = System.nanoTime() - start;
+        Assert.assertEquals(REQUESTS, ok.longValue());
+        System.out.println(String.format("%-32s %8.0f req/s", name, REQUESTS * 1e9 / elapsed));
+    }
+
+    private ServiceInstance instance() {
+        return new DefaultServiceInstance("my-provider-1", "my-provider", "127.0.0.1", server.port(), false);
+    }
+
+    private class StubReactiveDiscoveryClient implements ReactiveDiscoveryClient {
+
+        @Override
+        public String description() {
+            return "stub";
+        }
+
+        @Override
+        public Flux<ServiceInstance> getInstances(String serviceId) {
+            return Flux.just(instance());
+        }
+
+        @Override
+        public Flux<String> getServices() {
+            return Flux.just("my-provider");
+        }
+
+    }
+
+}
@@ -46,6 +46,11 @@ public class EurekaNacosConsumer {
         return new RestTemplate();
     }
 
+    @Bean
+    public ServiceInstanceCache serviceInstanceCache(DiscoveryClient discoveryClient) {
+        return new ServiceInstanceCache(discoveryClient::getInstances);
+    }
+
     @RestController
     class HelloController {
 
@@ -55,11 +60,14 @@ public class EurekaNacosConsumer {
         @Autowired
         private RestTemplate restTemplate;
 
+        @Autowired
+        private ServiceInstanceCache serviceInstanceCache;
+
         private String serviceName = "my-provider";
 
         @GetMapping("/info")
         public String info() {
-            List<ServiceInstance> serviceInstances = discoveryClient.getInstances(serviceName);
+            List<ServiceInstance> serviceInstances = serviceInstanceCache.getInstances(serviceName);
             StringBuilder sb = new StringBuilder();
             sb.append("All services: " + discoveryClient.getServices() + "<br/>");
             sb.append("my-provider instance list: <br/>");
@@ -74,7 +82,7 @@ public class EurekaNacosConsumer {
 
         @GetMapping("/hello")
         public String hello() {
-            List<ServiceInstance> serviceInstances = discoveryClient.getInstances(serviceName);
+            List<ServiceInstance> serviceInstances = serviceInstanceCache.getInstances(serviceName);
             ServiceInstance serviceInstance = serviceInstances.stream()
                 .findAny().orElseThrow(() ->
                     new IllegalStateException("no " + serviceName + " instance available"));
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+
+/**
+ * 使用 stub loader 验证快照读取、HeartbeatEvent 合并刷新、刷新失败保留旧快照、定时轮询以及空闲快照的删除。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ServiceInstanceCacheTest {
+
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    private final StubLoader loader = new StubLoader();
+
+    private ServiceInstanceCache cache;
+
+    @After
+    public void destroy() {
+        if (cache != null) {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    public void testSnapshotOnHit() {
+        cache = new ServiceInstanceCache(loader, NEVER);
+        List<ServiceInstance> instances = cache.getInstances("nacos-provider");
+        Assert.assertEquals(1, instances.size());
+        Assert.assertEquals(1, loader.calls("nacos-provider"));
+
+        // 命中时直接返回快照，不再调用 loader
+        for (int i = 0; i < 100; i++) {
+            Assert.assertSame(instances, cache.getInstances("nacos-provider"));
+        }
+        Assert.assertEquals(1, loader.calls("nacos-provider"));
+        Assert.assertNull(cache.getIfPresent("other"));
+        Assert.assertEquals(0, loader.calls("other"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotImmutable() {
+        cache = new ServiceInstanceCache(loader, NEVER);
+        cache.getInstances("nacos-provider").clear();
+    }
+
+    @Test
+    public void testHeartbeatCoalesced() throws InterruptedException {
+        cache = new ServiceInstanceCache(loader, NEVER);
+        cache.getInstances("nacos-provider");
+        cache.getInstances("other");
+
+        CountDownLatch blocked = loader.block();
+        cache.onApplicationEvent(new HeartbeatEvent(this, 1));
+        Assert.assertTrue(loader.awaitBlocked());
+        // 刷新还没结束时收到的事件不会再触发刷新
+        for (int i = 0; i < 10; i++) {
+            cache.onApplicationEvent(new HeartbeatEvent(this, i));
+        }
+        blocked.countDown();
+
+        awaitCalls("nacos-provider", 2);
+        awaitCalls("other", 2);
+        Thread.sleep(100L);
+        Assert.assertEquals(2, loader.calls("nacos-provider"));
+        Assert.assertEquals(2, loader.calls("other"));
+
+        // 刷新结束后的事件会再次刷新
+        cache.onApplicationEvent(new HeartbeatEvent(this, 11));
+        awaitCalls("nacos-provider", 3);
+    }
+
+    @Test
+    public void testHeartbeatRefreshesSnapshot() throws InterruptedException {
+        cache = new ServiceInstanceCache(loader, NEVER);
+        List<ServiceInstance> old = cache.getInstances("nacos-provider");
+
+        loader.size = 2;
+        cache.onApplicationEvent(new HeartbeatEvent(this, 1));
+        awaitCalls("nacos-provider", 2);
+        awaitSize("nacos-provider", 2);
+        Assert.assertEquals(1, old.size());
+    }
+
+    @Test
+    public void testKeepSnapshotOnFailure() {
+        cache = new ServiceInstanceCache(loader, NEVER);
+        List<ServiceInstance> instances = cache.getInstances("nacos-provider");
+
+        loader.failing = true;
+        cache.refresh("nacos-provider");
+        cache.refreshAll();
+        Assert.assertEquals(3, loader.calls("nacos-provider"));
+        Assert.assertSame(instances, cache.getInstances("nacos-provider"));
+    }
+
+    @Test
+    public void testPolling() throws InterruptedException {
+        Assert.assertEquals(30000, ServiceInstanceCache.DEFAULT_REFRESH_INTERVAL);
+        cache = new ServiceInstanceCache(loader, 50, NEVER);
+        cache.getInstances("nacos-provider");
+
+        loader.size = 3;
+        awaitCalls("nacos-provider", 3);
+        awaitSize("nacos-provider", 3);
+    }
+
+    @Test
+    public void testExpireAfterAccess() throws InterruptedException {
+        cache = new ServiceInstanceCache(loader, 20, 200);
+        cache.getInstances("hot");
+        cache.getInstances("cold");
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(600);
+        while (System.nanoTime() < deadline) {
+            Assert.assertNotNull(cache.getIfPresent("hot"));
+            Thread.sleep(10L);
+        }
+        // 只刷新被读取过的服务，没有被读取的不会一直刷新
+        Assert.assertNull(cache.getIfPresent("cold"));
+        int calls = loader.calls("cold");
+        Thread.sleep(100L);
+        Assert.assertEquals(calls, loader.calls("cold"));
+        Assert.assertNotNull(cache.getIfPresent("hot"));
+
+        // 删除后再次读取会重新加载
+        Assert.assertEquals(1, cache.getInstances("cold").size());
+        Assert.assertEquals(calls + 1, loader.calls("cold"));
+    }
+
+    private void awaitCalls(String serviceId, int calls) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loader.calls(serviceId) < calls) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private void awaitSize(String serviceId, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getIfPresent(serviceId).size() != size) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static class StubLoader implements Function<String, List<ServiceInstance>> {
+
+        private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+        volatile int size = 1;
+
+        volatile boolean failing;
+
+        private volatile CountDownLatch blocked;
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        @Override
+        public List<ServiceInstance> apply(String serviceId) {
+            calls.computeIfAbsent(serviceId, key -> new AtomicInteger()).incrementAndGet();
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                entered.countDown();
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("registry unavailable");
+            }
+            List<ServiceInstance> instances = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                instances.add(new DefaultServiceInstance(serviceId + "-" + i, serviceId, "192.168.0." + i, 8080,
+                    false));
+            }
+            return instances;
+        }
+
+        CountDownLatch block() {
+            blocked = new CountDownLatch(1);
+            return blocked;
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return entered.await(5, TimeUnit.SECONDS);
+        }
+
+        int calls(String serviceId) {
+            AtomicInteger count = calls.get(serviceId);
+            return count == null ? 0 : count.get();
+        }
+
+    }
+
+}
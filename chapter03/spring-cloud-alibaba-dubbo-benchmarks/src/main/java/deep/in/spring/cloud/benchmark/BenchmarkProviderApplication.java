@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.openfeign.EnableFeignClients;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * 进程内启动的订单服务提供者，同时暴露 Dubbo 服务和 HTTP 接口，Feign 客户端也注册在这个应用中。
+ * 没有注册中心，Dubbo 和 Feign 都直连本机端口。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@SpringBootApplication
+@EnableFeignClients
+public class BenchmarkProviderApplication {
+
+    public static ConfigurableApplicationContext start(int httpPort, int dubboPort, int orders) {
+        return new SpringApplicationBuilder(BenchmarkProviderApplication.class)
+            .properties(
+                "server.port=" + httpPort,
+                "dubbo.protocol.port=" + dubboPort,
+                "benchmark.orders=" + orders,
+                "benchmark.provider-url=http://127.0.0.1:" + httpPort)
+            .run();
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.List;
+
+import deep.in.spring.cloud.Order;
+import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * 与 UserApplication.FeignOrderService 相同的 Feign 客户端，通过 url 直连进程内的提供者。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@FeignClient(name = "sc-dubbo-provider", url = "${benchmark.provider-url}")
+public interface FeignOrderService {
+
+    @GetMapping("/allOrders")
+    List<Order> getAllOrders(@RequestParam("userId") final String userId);
+
+    @GetMapping("/findOrder")
+    Order findOrder(@RequestParam("orderId") String orderId);
+
+}
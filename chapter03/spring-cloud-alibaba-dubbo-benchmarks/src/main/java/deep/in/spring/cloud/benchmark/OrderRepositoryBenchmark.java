@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import deep.in.spring.cloud.Order;
+import deep.in.spring.cloud.OrderRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 100 万订单下按 id、按 userId 查询的开销，对比原来 OrderServiceImpl 在 ArrayList 上 stream().filter() 遍历的方式和 {@link OrderRepository} 的索引查询。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class OrderRepositoryBenchmark {
+
+    @Param({"1000000"})
+    private int orders;
+
+    // 平均每个用户 10 个订单
+    @Param({"100000"})
+    private int users;
+
+    private List<Order> orderList;
+
+    private OrderRepository orderRepository;
+
+    private String[] orderIds;
+
+    @Setup
+    public void setUp() {
+        orderList = new ArrayList<>(orders);
+        orderRepository = new OrderRepository();
+        orderIds = new String[orders];
+        for (int i = 0; i < orders; i++) {
+            Order order = Order.generate("user-" + (i % users));
+            orderList.add(order);
+            orderRepository.save(order);
+            orderIds[i] = order.getId();
+        }
+    }
+
+    @Benchmark
+    public Order scanFindOrder() {
+        String orderId = randomOrderId();
+        return orderList.stream().filter(
+            order -> order.getId().equals(orderId)
+        ).findFirst().orElseGet(Order::error);
+    }
+
+    @Benchmark
+    public List<Order> scanGetAllOrders() {
+        String userId = randomUserId();
+        return orderList.stream().filter(
+            order -> order.getUserId().equals(userId)
+        ).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public Order indexedFindOrder() {
+        return orderRepository.findById(randomOrderId());
+    }
+
+    @Benchmark
+    public List<Order> indexedGetAllOrders() {
+        return orderRepository.findByUserId(randomUserId());
+    }
+
+    @Benchmark
+    public Order indexedUpdateOrder() {
+        return orderRepository.updateUserId(randomOrderId(), randomUserId());
+    }
+
+    private String randomOrderId() {
+        return orderIds[ThreadLocalRandom.current().nextInt(orders)];
+    }
+
+    private String randomUserId() {
+        return "user-" + ThreadLocalRandom.current().nextInt(users);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.List;
+
+import deep.in.spring.cloud.Order;
+import deep.in.spring.cloud.OrderRepository;
+import deep.in.spring.cloud.OrderService;
+import org.apache.dubbo.config.annotation.Service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 与 OrderServiceImpl 相同的 Dubbo 服务和 HTTP 接口，用户 {@link RpcBenchmark#USER_ID} 有 benchmark.orders 个订单，用来控制响应大小。
+ * 订单提前生成好，压测结果中不包含生成订单的开销。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@Service(version = "1.0.0")
+@RestController
+public class PayloadOrderService implements OrderService {
+
+    private final OrderRepository orderRepository = new OrderRepository();
+
+    public PayloadOrderService(@Value("${benchmark.orders}") int orders) {
+        for (int i = 0; i < orders; i++) {
+            orderRepository.save(Order.generate(RpcBenchmark.USER_ID));
+        }
+    }
+
+    @GetMapping("/allOrders")
+    @Override
+    public List<Order> getAllOrders(@RequestParam("userId") final String userId) {
+        return orderRepository.findByUserId(userId);
+    }
+
+    @GetMapping("/findOrder")
+    @Override
+    public Order findOrder(@RequestParam("orderId") String orderId) {
+        Order order = orderRepository.findById(orderId);
+        return order != null ? order : Order.error();
+    }
+
+    @PostMapping("/createOrder")
+    @Override
+    public Order createOrder(@RequestParam("userId") String userId) {
+        return orderRepository.save(Order.generate(userId));
+    }
+
+    @PostMapping("/updateOrder")
+    @Override
+    public Order updateOrder(@RequestBody Order order) {
+        Order updated = orderRepository.updateUserId(order.getId(), order.getUserId());
+        return updated != null ? updated : Order.error();
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import deep.in.spring.cloud.Order;
+import deep.in.spring.cloud.OrderService;
+import org.apache.dubbo.config.ReferenceConfig;
+import org.apache.dubbo.rpc.service.GenericService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.SocketUtils;
+
+/**
+ * 对应 UserApplication 中 /rawDubbo、/feignDubbo、/rawFeign 三种调用方式，调用同一个 OrderService.getAllOrders。
+ * <p>
+ * rawDubbo: Dubbo 接口代理，与 @Reference 相同。
+ * feignDubbo: @DubboTransported 的 Feign 接口最终由 DubboInvocationHandler 转换为 {@link GenericService#$invoke} 泛化调用，
+ * 这里直接使用泛化调用，不包含 Feign 方法到 Dubbo 方法的元数据解析。
+ * rawFeign: Spring Cloud OpenFeign，HTTP + JSON。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RpcBenchmark {
+
+    static final String USER_ID = "jim";
+
+    private static final String[] PARAMETER_TYPES = {String.class.getName()};
+
+    // 每次调用返回的订单数，即响应的大小
+    @Param({"1", "10", "100"})
+    private int orders;
+
+    private ConfigurableApplicationContext context;
+
+    private ReferenceConfig<OrderService> orderServiceReference;
+
+    private ReferenceConfig<GenericService> genericServiceReference;
+
+    private OrderService orderService;
+
+    private GenericService genericService;
+
+    private FeignOrderService feignOrderService;
+
+    @Setup
+    public void setUp() {
+        int httpPort = SocketUtils.findAvailableTcpPort();
+        int dubboPort = SocketUtils.findAvailableTcpPort();
+        context = BenchmarkProviderApplication.start(httpPort, dubboPort, orders);
+
+        String url = "dubbo://127.0.0.1:" + dubboPort;
+        orderServiceReference = new ReferenceConfig<>();
+        orderServiceReference.setInterface(OrderService.class);
+        orderServiceReference.setVersion("1.0.0");
+        orderServiceReference.setUrl(url);
+        orderService = orderServiceReference.get();
+
+        genericServiceReference = new ReferenceConfig<>();
+        genericServiceReference.setInterface(OrderService.class.getName());
+        genericServiceReference.setVersion("1.0.0");
+        genericServiceReference.setGeneric("true");
+        genericServiceReference.setUrl(url);
+        genericService = genericServiceReference.get();
+
+        feignOrderService = context.getBean(FeignOrderService.class);
+
+        // 三种方式返回的订单数不一致时压测结果没有意义
+        check(rawDubbo().size(), "rawDubbo");
+        check(((List<?>) feignDubbo()).size(), "feignDubbo");
+        check(rawFeign().size(), "rawFeign");
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (orderServiceReference != null) {
+            orderServiceReference.destroy();
+        }
+        if (genericServiceReference != null) {
+            genericServiceReference.destroy();
+        }
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Benchmark
+    public List<Order> rawDubbo() {
+        return orderService.getAllOrders(USER_ID);
+    }
+
+    @Benchmark
+    public Object feignDubbo() {
+        return genericService.$invoke("getAllOrders", PARAMETER_TYPES, new Object[] {USER_ID});
+    }
+
+    @Benchmark
+    public List<Order> rawFeign() {
+        return feignOrderService.getAllOrders(USER_ID);
+    }
+
+    private void check(int size, String name) {
+        if (size != orders) {
+            throw new IllegalStateException(name + " returned " + size + " orders, expected " + orders);
+        }
+    }
+
+}
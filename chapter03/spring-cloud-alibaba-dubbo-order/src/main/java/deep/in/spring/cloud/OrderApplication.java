@@ -18,6 +18,7 @@ package deep.in.spring.cloud;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
@@ -29,4 +30,14 @@ public class OrderApplication {
         SpringApplication.run(OrderApplication.class, args);
     }
 
+    // Dubbo @Service 和 @RestController 可能会创建两个 OrderServiceImpl 实例，订单存储需要是同一个
+    @Bean
+    public OrderRepository orderRepository() {
+        OrderRepository orderRepository = new OrderRepository();
+        orderRepository.save(Order.generate("jim"));
+        orderRepository.save(Order.generate("jim"));
+        orderRepository.save(Order.generate("test"));
+        return orderRepository;
+    }
+
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存中的订单存储，按订单 id 和 userId 建立索引，查询不再需要遍历所有订单。
+ * <p>
+ * byId 使用 ConcurrentHashMap，同一个订单的更新在 {@link ConcurrentHashMap#compute} 中串行执行，并在其中同步更新 userId 索引。
+ * userId 索引中每个用户的订单是一个只读数组，更新时复制一份新数组替换 (copy-on-write)，读操作不加锁。
+ * <p>
+ * 保存时复制订单，调用方之后修改传入的对象不会影响索引；查询返回的是存储中的对象，不要修改。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class OrderRepository {
+
+    private final ConcurrentHashMap<String, Order> byId = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Order[]> byUserId = new ConcurrentHashMap<>();
+
+    public Order findById(String orderId) {
+        return orderId == null ? null : byId.get(orderId);
+    }
+
+    public List<Order> findByUserId(String userId) {
+        Order[] orders = userId == null ? null : byUserId.get(userId);
+        if (orders == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(orders));
+    }
+
+    /**
+     * 新增或覆盖订单，返回保存后的订单
+     */
+    public Order save(Order order) {
+        Order copy = copy(order);
+        byId.compute(copy.getId(), (id, old) -> {
+            if (old != null && !old.getUserId().equals(copy.getUserId())) {
+                removeFromUser(old);
+            }
+            putToUser(copy);
+            return copy;
+        });
+        return copy;
+    }
+
+    /**
+     * 修改已存在订单的 userId，订单不存在或者参数为 null 时返回 null
+     */
+    public Order updateUserId(String orderId, String userId) {
+        // 先校验参数，避免在 compute 中已经从旧用户的索引中移除之后才失败
+        if (orderId == null || userId == null) {
+            return null;
+        }
+        return byId.computeIfPresent(orderId, (id, old) -> {
+            Order updated = copy(old);
+            updated.setUserId(userId);
+            if (!old.getUserId().equals(userId)) {
+                removeFromUser(old);
+            }
+            putToUser(updated);
+            return updated;
+        });
+    }
+
+    public Order remove(String orderId) {
+        if (orderId == null) {
+            return null;
+        }
+        Order[] removed = new Order[1];
+        byId.computeIfPresent(orderId, (id, old) -> {
+            removeFromUser(old);
+            removed[0] = old;
+            return null;
+        });
+        return removed[0];
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    // 以下两个方法只在 byId 对应订单的 compute 中调用，同一个订单不会并发修改 userId 索引
+    private void putToUser(Order order) {
+        byUserId.compute(order.getUserId(), (userId, orders) -> {
+            if (orders == null) {
+                return new Order[] {order};
+            }
+            int index = indexOf(orders, order.getId());
+            if (index >= 0) {
+                Order[] replaced = orders.clone();
+                replaced[index] = order;
+                return replaced;
+            }
+            Order[] added = Arrays.copyOf(orders, orders.length + 1);
+            added[orders.length] = order;
+            return added;
+        });
+    }
+
+    private void removeFromUser(Order order) {
+        byUserId.computeIfPresent(order.getUserId(), (userId, orders) -> {
+            int index = indexOf(orders, order.getId());
+            if (index < 0) {
+                return orders;
+            }
+            if (orders.length == 1) {
+                return null;
+            }
+            Order[] remaining = new Order[orders.length - 1];
+            System.arraycopy(orders, 0, remaining, 0, index);
+            System.arraycopy(orders, index + 1, remaining, index, orders.length - index - 1);
+            return remaining;
+        });
+    }
+
+    private static int indexOf(Order[] orders, String orderId) {
+        for (int i = 0; i < orders.length; i++) {
+            if (orders[i].getId().equals(orderId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static Order copy(Order order) {
+        if (order.getId() == null || order.getUserId() == null) {
+            throw new IllegalArgumentException("order id and userId must not be null");
+        }
+        Order copy = new Order();
+        copy.setId(order.getId());
+        copy.setUserId(order.getUserId());
+        copy.setCreatedTime(order.getCreatedTime());
+        return copy;
+    }
+
+}
@@ -16,12 +16,12 @@
 
 package deep.in.spring.cloud;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import org.apache.dubbo.config.annotation.Service;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -32,28 +32,36 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 public class OrderServiceImpl implements OrderService {
 
-    private static List<Order> orderList = new ArrayList<>();
+    private final OrderRepository orderRepository;
 
-    static {
-        orderList.add(Order.generate("jim"));
-        orderList.add(Order.generate("jim"));
-        orderList.add(Order.generate("test"));
+    public OrderServiceImpl(OrderRepository orderRepository) {
+        this.orderRepository = orderRepository;
     }
 
     @GetMapping("/allOrders")
     @Override
     public List<Order> getAllOrders(@RequestParam("userId") final String userId) {
-        return orderList.stream().filter(
-            order -> order.getUserId().equals(userId)
-        ).collect(Collectors.toList());
+        return orderRepository.findByUserId(userId);
     }
 
     @GetMapping("/findOrder")
     @Override
     public Order findOrder(@RequestParam("orderId") String orderId) {
-        return orderList.stream().filter(
-            order -> order.getId().equals(orderId)
-        ).findFirst().orElseGet(Order::error);
+        Order order = orderRepository.findById(orderId);
+        return order != null ? order : Order.error();
+    }
+
+    @PostMapping("/createOrder")
+    @Override
+    public Order createOrder(@RequestParam("userId") String userId) {
+        return orderRepository.save(Order.generate(userId));
+    }
+
+    @PostMapping("/updateOrder")
+    @Override
+    public Order updateOrder(@RequestBody Order order) {
+        Order updated = orderRepository.updateUserId(order.getId(), order.getUserId());
+        return updated != null ? updated : Order.error();
     }
 
 }
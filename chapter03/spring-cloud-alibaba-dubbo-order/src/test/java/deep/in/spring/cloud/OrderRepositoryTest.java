@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 保存、修改、删除订单之后，按 id 和按 userId 两个索引保持一致。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class OrderRepositoryTest {
+
+    private final OrderRepository repository = new OrderRepository();
+
+    @Test
+    public void testSave() {
+        Order order1 = repository.save(Order.generate("jim"));
+        Order order2 = repository.save(Order.generate("jim"));
+        Order order3 = repository.save(Order.generate("test"));
+
+        Assert.assertEquals(3, repository.size());
+        Assert.assertSame(order1, repository.findById(order1.getId()));
+        assertUserOrders("jim", order1, order2);
+        assertUserOrders("test", order3);
+    }
+
+    @Test
+    public void testSaveCopies() {
+        Order order = Order.generate("jim");
+        repository.save(order);
+        // 保存之后修改传入的对象不影响存储
+        order.setUserId("test");
+
+        Assert.assertEquals("jim", repository.findById(order.getId()).getUserId());
+        assertUserOrders("test");
+    }
+
+    @Test
+    public void testSaveOverwrite() {
+        Order order = repository.save(Order.generate("jim"));
+        Order moved = Order.generate("test");
+        moved.setId(order.getId());
+        repository.save(moved);
+
+        Assert.assertEquals(1, repository.size());
+        Assert.assertEquals("test", repository.findById(order.getId()).getUserId());
+        assertUserOrders("jim");
+        assertUserOrders("test", repository.findById(order.getId()));
+    }
+
+    @Test
+    public void testUpdateUserId() {
+        Order order1 = repository.save(Order.generate("jim"));
+        Order order2 = repository.save(Order.generate("jim"));
+
+        Order updated = repository.updateUserId(order1.getId(), "test");
+        Assert.assertEquals("test", updated.getUserId());
+        Assert.assertSame(updated, repository.findById(order1.getId()));
+        assertUserOrders("jim", order2);
+        assertUserOrders("test", updated);
+
+        // userId 不变时只替换索引中的订单
+        Order same = repository.updateUserId(order1.getId(), "test");
+        assertUserOrders("test", same);
+    }
+
+    @Test
+    public void testUpdateInvalid() {
+        Order order = repository.save(Order.generate("jim"));
+
+        Assert.assertNull(repository.updateUserId("not-exist", "test"));
+        Assert.assertNull(repository.updateUserId(null, "test"));
+        // 缺少 userId 时不修改，订单仍然在原来用户的索引中
+        Assert.assertNull(repository.updateUserId(order.getId(), null));
+        Assert.assertSame(order, repository.findById(order.getId()));
+        assertUserOrders("jim", order);
+    }
+
+    @Test
+    public void testRemove() {
+        Order order1 = repository.save(Order.generate("jim"));
+        Order order2 = repository.save(Order.generate("jim"));
+
+        Assert.assertSame(order1, repository.remove(order1.getId()));
+        Assert.assertNull(repository.findById(order1.getId()));
+        assertUserOrders("jim", order2);
+
+        Assert.assertSame(order2, repository.remove(order2.getId()));
+        assertUserOrders("jim");
+        Assert.assertEquals(0, repository.size());
+
+        Assert.assertNull(repository.remove(order2.getId()));
+        Assert.assertNull(repository.remove(null));
+    }
+
+    @Test
+    public void testIndexesConsistent() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ids.add(repository.save(Order.generate("user-" + i % 3)).getId());
+        }
+        for (int i = 0; i < 30; i += 2) {
+            repository.updateUserId(ids.get(i), "user-" + (i + 1) % 4);
+        }
+        for (int i = 0; i < 30; i += 5) {
+            repository.remove(ids.get(i));
+        }
+
+        // 每个订单都只出现在它当前 userId 的索引中
+        int indexed = 0;
+        for (int u = 0; u < 4; u++) {
+            String userId = "user-" + u;
+            for (Order order : repository.findByUserId(userId)) {
+                Assert.assertEquals(userId, order.getUserId());
+                Assert.assertSame(order, repository.findById(order.getId()));
+                indexed++;
+            }
+        }
+        Assert.assertEquals(repository.size(), indexed);
+        Assert.assertEquals(24, indexed);
+    }
+
+    private void assertUserOrders(String userId, Order... orders) {
+        Set<Order> expected = new HashSet<>(Arrays.asList(orders));
+        List<Order> actual = repository.findByUserId(userId);
+        Assert.assertEquals(orders.length, actual.size());
+        Assert.assertEquals(expected, new HashSet<>(actual));
+        for (Order order : actual) {
+            Assert.assertEquals(userId, order.getUserId());
+        }
+    }
+
+}
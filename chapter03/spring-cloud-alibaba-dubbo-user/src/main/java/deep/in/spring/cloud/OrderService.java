@@ -27,4 +27,11 @@ public interface OrderService {
 
     Order findOrder(String orderId);
 
+    Order createOrder(String userId);
+
+    /**
+     * 修改订单所属的用户，订单不存在时返回 {@link Order#error()}
+     */
+    Order updateOrder(Order order);
+
 }
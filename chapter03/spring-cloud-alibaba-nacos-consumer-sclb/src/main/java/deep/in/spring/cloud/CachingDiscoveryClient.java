@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.List;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+/**
+ * 实例列表从 {@link ServiceInstanceCache} 读取的 DiscoveryClient，其他方法交给 delegate。
+ * <p>
+ * 不要注册成 DiscoveryClient 类型的 Bean，否则会被 CompositeDiscoveryClient 收集进去，形成循环依赖。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CachingDiscoveryClient implements DiscoveryClient {
+
+    private final DiscoveryClient delegate;
+
+    private final ServiceInstanceCache serviceInstanceCache;
+
+    public CachingDiscoveryClient(DiscoveryClient delegate, ServiceInstanceCache serviceInstanceCache) {
+        this.delegate = delegate;
+        this.serviceInstanceCache = serviceInstanceCache;
+    }
+
+    @Override
+    public String description() {
+        return "Caching " + delegate.description();
+    }
+
+    @Override
+    public List<ServiceInstance> getInstances(String serviceId) {
+        return serviceInstanceCache.getInstances(serviceId);
+    }
+
+    @Override
+    public List<String> getServices() {
+        return delegate.getServices();
+    }
+
+    @Override
+    public int getOrder() {
+        return delegate.getOrder();
+    }
+
+}
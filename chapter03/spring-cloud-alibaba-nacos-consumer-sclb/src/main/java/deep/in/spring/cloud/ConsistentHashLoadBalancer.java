@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.reactive.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.reactive.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.reactive.Request;
+import org.springframework.cloud.client.loadbalancer.reactive.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+/**
+ * 一致性哈希负载均衡 (虚拟节点 + 有界负载)。
+ * <p>
+ * key 取自 {@link HashKeyHolder}，由 {@link HashKeyInterceptor} 根据 X-Hash-Key 请求头设置。
+ * 顺时针找到的实例处理中的请求数超过 loadFactor * 平均值 时继续往后找，避免热点 key 把一个实例压垮。
+ * 实例列表变化时只对新增实例计算虚拟节点，下线实例的虚拟节点直接过滤掉，不重新计算整个哈希环。
+ * 实例列表按内容 (host:port) 比较，每次返回新 List 但内容不变时不会重建哈希环。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ConsistentHashLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    static final double DEFAULT_LOAD_FACTOR = 1.25;
+
+    private ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+
+    private final String serviceId;
+
+    private final LoadBalancerStats loadBalancerStats;
+
+    private final int virtualNodes;
+
+    private final double loadFactor;
+
+    private volatile HashRing ring = HashRing.EMPTY;
+
+    public ConsistentHashLoadBalancer(
+        ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider, String serviceId,
+        LoadBalancerStats loadBalancerStats) {
+        this(serviceInstanceListSupplierProvider, serviceId, loadBalancerStats, DEFAULT_VIRTUAL_NODES,
+            DEFAULT_LOAD_FACTOR);
+    }
+
+    public ConsistentHashLoadBalancer(
+        ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider, String serviceId,
+        LoadBalancerStats loadBalancerStats, int virtualNodes, double loadFactor) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        if (loadFactor < 1) {
+            throw new IllegalArgumentException("loadFactor must be >= 1");
+        }
+        this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+        this.serviceId = serviceId;
+        this.loadBalancerStats = loadBalancerStats;
+        this.virtualNodes = virtualNodes;
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        // 在调用线程取 key，实例列表可能在其他线程返回
+        String key = HashKeyHolder.get();
+        ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider
+            .getIfAvailable(NoopServiceInstanceListSupplier::new);
+        return supplier.get().next().map(instances -> getInstanceResponse(instances, key));
+    }
+
+    private Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String key) {
+        ServiceInstance instance = choose(instances, key);
+        if (instance == null) {
+            return new EmptyResponse();
+        }
+        return new DefaultResponse(instance);
+    }
+
+    ServiceInstance choose(List<ServiceInstance> instances, String key) {
+        HashRing current = refresh(instances);
+        int size = current.instances.length;
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return current.instances[0];
+        }
+        if (key == null) {
+            return current.instances[ThreadLocalRandom.current().nextInt(size)];
+        }
+
+        long total = 0;
+        for (LoadBalancerStats.InstanceStats stats : current.stats) {
+            total += stats.getInFlight();
+        }
+        // 有界负载: 每个实例最多承担 ceil(loadFactor * (总请求数 + 1) / 实例数) 个请求
+        long capacity = (long) Math.ceil(loadFactor * (total + 1) / size);
+
+        long[] hashes = current.hashes;
+        int pos = Arrays.binarySearch(hashes, hash(key));
+        if (pos < 0) {
+            pos = -(pos + 1);
+        }
+        if (pos == hashes.length) {
+            pos = 0;
+        }
+        int first = current.owners[pos];
+        for (int i = 0; i < hashes.length; i++) {
+            int owner = current.owners[pos];
+            if (current.stats[owner].getInFlight() < capacity) {
+                return current.instances[owner];
+            }
+            if (++pos == hashes.length) {
+                pos = 0;
+            }
+        }
+        return current.instances[first];
+    }
+
+    HashRing ring() {
+        return ring;
+    }
+
+    private HashRing refresh(List<ServiceInstance> instances) {
+        HashRing current = ring;
+        if (instances == current.source) {
+            return current;
+        }
+        HashRing updated = sameOrder(current, instances);
+        if (updated == null) {
+            updated = diff(current, instances);
+        }
+        ring = updated;
+        return updated;
+    }
+
+    /**
+     * 常见情况: 新的 List 和哈希环中的实例 host:port 顺序一致，只比较不分配对象。
+     * 实例对象不同时 (元数据可能变化) 只替换实例数组，哈希环复用；顺序或内容不一致时返回 null。
+     */
+    private HashRing sameOrder(HashRing current, List<ServiceInstance> instances) {
+        if (instances.size() != current.instances.length) {
+            return null;
+        }
+        boolean replaced = false;
+        int i = 0;
+        for (ServiceInstance instance : instances) {
+            ServiceInstance existing = current.instances[i++];
+            if (instance != existing) {
+                if (instance.getPort() != existing.getPort() || !instance.getHost().equals(existing.getHost())) {
+                    return null;
+                }
+                replaced = true;
+            }
+        }
+        ServiceInstance[] newInstances = replaced ? instances.toArray(new ServiceInstance[0]) : current.instances;
+        return new HashRing(instances, current.ids, newInstances, current.stats, current.hashes, current.owners,
+            current.index);
+    }
+
+    private HashRing diff(HashRing current, List<ServiceInstance> instances) {
+        Map<String, ServiceInstance> byId = new LinkedHashMap<>(instances.size() * 2);
+        for (ServiceInstance instance : instances) {
+            byId.put(instance.getHost() + ":" + instance.getPort(), instance);
+        }
+        if (byId.size() == current.ids.length && current.index.keySet().containsAll(byId.keySet())) {
+            // 实例集合没有变化，只是顺序不同: 按哈希环中的下标放置实例，复用哈希环
+            ServiceInstance[] newInstances = new ServiceInstance[current.ids.length];
+            for (Map.Entry<String, ServiceInstance> entry : byId.entrySet()) {
+                newInstances[current.index.get(entry.getKey())] = entry.getValue();
+            }
+            return new HashRing(instances, current.ids, newInstances, current.stats, current.hashes,
+                current.owners, current.index);
+        }
+        return rebuild(current, instances, byId.keySet().toArray(new String[0]),
+            byId.values().toArray(new ServiceInstance[0]));
+    }
+
+    private HashRing rebuild(HashRing current, List<ServiceInstance> source, String[] ids,
+                             ServiceInstance[] instances) {
+        Map<String, Integer> newIndex = new LinkedHashMap<>(ids.length * 2);
+        LoadBalancerStats.InstanceStats[] stats = new LoadBalancerStats.InstanceStats[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            newIndex.put(ids[i], i);
+            stats[i] = loadBalancerStats.getInstanceStats(instances[i].getHost(), instances[i].getPort());
+        }
+
+        // 保留仍然在线的实例的虚拟节点 (已经有序)，owner 映射到新的下标
+        int[] remap = new int[current.ids.length];
+        boolean[] existing = new boolean[ids.length];
+        for (int i = 0; i < current.ids.length; i++) {
+            Integer index = newIndex.get(current.ids[i]);
+            remap[i] = index == null ? -1 : index;
+            if (index != null) {
+                existing[index] = true;
+            }
+        }
+        long[] keptHashes = new long[current.hashes.length];
+        int[] keptOwners = new int[current.owners.length];
+        int kept = 0;
+        for (int i = 0; i < current.hashes.length; i++) {
+            int owner = remap[current.owners[i]];
+            if (owner >= 0) {
+                keptHashes[kept] = current.hashes[i];
+                keptOwners[kept] = owner;
+                kept++;
+            }
+        }
+
+        // 只为新增的实例计算虚拟节点
+        int addedInstances = 0;
+        for (boolean e : existing) {
+            if (!e) {
+                addedInstances++;
+            }
+        }
+        long[] addedHashes = new long[addedInstances * virtualNodes];
+        int[] addedOwners = new int[addedHashes.length];
+        int added = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (!existing[i]) {
+                for (int v = 0; v < virtualNodes; v++) {
+                    addedHashes[added] = hash(ids[i] + "#" + v);
+                    addedOwners[added] = i;
+                    added++;
+                }
+            }
+        }
+        sort(addedHashes, addedOwners);
+
+        // 合并两个有序数组
+        long[] hashes = new long[kept + added];
+        int[] owners = new int[hashes.length];
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (b >= added || (a < kept && keptHashes[a] <= addedHashes[b])) {
+                hashes[i] = keptHashes[a];
+                owners[i] = keptOwners[a++];
+            } else {
+                hashes[i] = addedHashes[b];
+                owners[i] = addedOwners[b++];
+            }
+        }
+        return new HashRing(source, ids, instances, stats, hashes, owners, newIndex);
+    }
+
+    private static void sort(long[] hashes, int[] owners) {
+        // 只在实例变化时执行
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> Long.compare(hashes[x], hashes[y]));
+        long[] sortedHashes = new long[hashes.length];
+        int[] sortedOwners = new int[owners.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedHashes[i] = hashes[order[i]];
+            sortedOwners[i] = owners[order[i]];
+        }
+        System.arraycopy(sortedHashes, 0, hashes, 0, hashes.length);
+        System.arraycopy(sortedOwners, 0, owners, 0, owners.length);
+    }
+
+    /**
+     * FNV-1a 64 位哈希，再做一次 MurmurHash3 的 fmix64 让分布更均匀。
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 不可变的哈希环快照。hashes 有序，owners[i] 是 hashes[i] 对应实例的下标，index 是 host:port 到下标的映射。
+     */
+    static final class HashRing {
+
+        static final HashRing EMPTY = new HashRing(null, new String[0], new ServiceInstance[0],
+            new LoadBalancerStats.InstanceStats[0], new long[0], new int[0], Collections.emptyMap());
+
+        final List<ServiceInstance> source;
+
+        final String[] ids;
+
+        final ServiceInstance[] instances;
+
+        final LoadBalancerStats.InstanceStats[] stats;
+
+        final long[] hashes;
+
+        final int[] owners;
+
+        final Map<String, Integer> index;
+
+        HashRing(List<ServiceInstance> source, String[] ids, ServiceInstance[] instances,
+                 LoadBalancerStats.InstanceStats[] stats, long[] hashes, int[] owners, Map<String, Integer> index) {
+            this.source = source;
+            this.ids = ids;
+            this.instances = instances;
+            this.stats = stats;
+            this.hashes = hashes;
+            this.owners = owners;
+            this.index = index;
+        }
+
+    }
+
+}
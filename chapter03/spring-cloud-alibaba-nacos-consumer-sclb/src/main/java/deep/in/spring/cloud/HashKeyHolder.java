@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+/**
+ * 保存当前请求用于一致性哈希的 key，由 {@link HashKeyInterceptor} 设置，{@link ConsistentHashLoadBalancer} 读取。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class HashKeyHolder {
+
+    private static ThreadLocal<String> holder = new ThreadLocal<>();
+
+    public static String get() {
+        return holder.get();
+    }
+
+    public static void set(String key) {
+        holder.set(key);
+    }
+
+    public static void clear() {
+        holder.remove();
+    }
+
+}
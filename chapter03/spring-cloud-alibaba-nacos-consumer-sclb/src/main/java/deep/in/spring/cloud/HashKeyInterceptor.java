@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * 从请求的 header、query 参数或者 path 的某一段中提取一致性哈希的 key，按 header -> query -> path 的顺序取第一个不为空的值。
+ * 需要在 LoadBalancerInterceptor 之前执行 (构造 RestTemplate 时添加即可，LoadBalancerInterceptor 是之后追加的)。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class HashKeyInterceptor implements ClientHttpRequestInterceptor {
+
+    private final String header;
+
+    private final String queryParam;
+
+    private final int pathSegment;
+
+    /**
+     * @param header      header 名称，null 表示不从 header 读取
+     * @param queryParam  query 参数名称，null 表示不从 query 读取
+     * @param pathSegment path 的第几段 (从 0 开始)，小于 0 表示不从 path 读取
+     */
+    public HashKeyInterceptor(String header, String queryParam, int pathSegment) {
+        this.header = header;
+        this.queryParam = queryParam;
+        this.pathSegment = pathSegment;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+        throws IOException {
+        String key = extract(request);
+        if (key == null) {
+            return execution.execute(request, body);
+        }
+        HashKeyHolder.set(key);
+        try {
+            return execution.execute(request, body);
+        } finally {
+            HashKeyHolder.clear();
+        }
+    }
+
+    private String extract(HttpRequest request) {
+        if (header != null) {
+            String value = request.getHeaders().getFirst(header);
+            if (StringUtils.hasLength(value)) {
+                return value;
+            }
+        }
+        if (queryParam != null && request.getURI().getRawQuery() != null) {
+            String value = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams()
+                .getFirst(queryParam);
+            if (StringUtils.hasLength(value)) {
+                return value;
+            }
+        }
+        if (pathSegment >= 0) {
+            String path = request.getURI().getRawPath();
+            if (path != null) {
+                String[] segments = StringUtils.tokenizeToStringArray(path, "/");
+                if (pathSegment < segments.length) {
+                    return segments[pathSegment];
+                }
+            }
+        }
+        return null;
+    }
+
+}
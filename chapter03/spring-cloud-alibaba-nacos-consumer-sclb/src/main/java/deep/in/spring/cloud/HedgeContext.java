@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+/**
+ * 一次对冲调用的上下文。主请求发出时记录选中的实例，对冲请求选择实例时排除它。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class HedgeContext {
+
+    private static ThreadLocal<HedgeContext> holder = new ThreadLocal<>();
+
+    private final boolean hedge;
+
+    private final HedgeContext primary;
+
+    private volatile String instance;
+
+    private HedgeContext(boolean hedge, HedgeContext primary) {
+        this.hedge = hedge;
+        this.primary = primary;
+    }
+
+    public static HedgeContext primary() {
+        return new HedgeContext(false, null);
+    }
+
+    public HedgeContext hedge() {
+        return new HedgeContext(true, this);
+    }
+
+    public static HedgeContext current() {
+        return holder.get();
+    }
+
+    public static void set(HedgeContext context) {
+        holder.set(context);
+    }
+
+    public static void clear() {
+        holder.remove();
+    }
+
+    /**
+     * 在真正发出请求时调用，记录主请求选中的实例 (host:port)。
+     */
+    public static void recordInstance(String host, int port) {
+        HedgeContext context = holder.get();
+        if (context != null && !context.hedge && context.instance == null) {
+            context.instance = host + ":" + port;
+        }
+    }
+
+    /**
+     * 当前线程是对冲请求时，返回需要排除的主请求实例，否则返回 null。
+     */
+    public static String excludedInstance() {
+        HedgeContext context = holder.get();
+        return context != null && context.hedge ? context.primary.instance : null;
+    }
+
+}
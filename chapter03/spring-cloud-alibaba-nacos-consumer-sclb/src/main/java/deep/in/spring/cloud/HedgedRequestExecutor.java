@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * 对冲请求 (Hedged Request): 主请求在 P95 延迟内没有返回时，向另一个实例再发一次，谁先成功返回就用谁的结果。
+ * 对冲请求受 {@link RetryBudget} 限制，下游整体变慢时不会把流量翻倍。
+ *
+ * 指标:
+ * hedge.requests 总请求数，hedge.sent 发出的对冲请求数，hedge.wins 对冲请求先返回的次数，hedge.budget.exhausted 预算不足放弃对冲的次数。
+ * 对冲率 = hedge.sent / hedge.requests，胜率 = hedge.wins / hedge.sent。
+ *
+ * 只适合幂等请求。输掉的请求不会被中断，会继续执行完，它的延迟仍然会被 LoadBalancerStats 记录。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class HedgedRequestExecutor implements DisposableBean {
+
+    private static final double DEFAULT_PERCENTILE = 0.95;
+
+    private static final long DEFAULT_MIN_DELAY_MILLIS = 5;
+
+    private static final int DEFAULT_MAX_THREADS = 200;
+
+    // 样本太少时分位数没有意义，先不对冲
+    private static final int MIN_SAMPLES = 20;
+
+    private final LatencyHistogram histogram = new LatencyHistogram(TimeUnit.SECONDS.toNanos(30));
+
+    private final double percentile;
+
+    private final long minDelayNanos;
+
+    private final RetryBudget retryBudget;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Counter requests;
+
+    private final Counter hedges;
+
+    private final Counter wins;
+
+    private final Counter budgetExhausted;
+
+    public HedgedRequestExecutor(MeterRegistry meterRegistry) {
+        this(meterRegistry, new RetryBudget(0.1, 10, 100), DEFAULT_PERCENTILE, DEFAULT_MIN_DELAY_MILLIS,
+            DEFAULT_MAX_THREADS);
+    }
+
+    public HedgedRequestExecutor(MeterRegistry meterRegistry, RetryBudget retryBudget, double percentile,
+                                 long minDelayMillis, int maxThreads) {
+        this.retryBudget = retryBudget;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        AtomicInteger index = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "hedged-request-" + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.requests = meterRegistry.counter("hedge.requests");
+        this.hedges = meterRegistry.counter("hedge.sent");
+        this.wins = meterRegistry.counter("hedge.wins");
+        this.budgetExhausted = meterRegistry.counter("hedge.budget.exhausted");
+        meterRegistry.gauge("hedge.budget.balance", retryBudget, RetryBudget::getBalance);
+        meterRegistry.gauge("hedge.delay.millis", this, e -> Math.max(0, e.hedgeDelayNanos()) / 1e6);
+    }
+
+    public <T> T execute(Supplier<T> call) {
+        requests.increment();
+        retryBudget.deposit();
+        HedgeContext context = HedgeContext.primary();
+        long delay = hedgeDelayNanos();
+        CompletableFuture<T> primary;
+        try {
+            primary = submit(call, context, true);
+        } catch (RejectedExecutionException e) {
+            // 线程池已满，不再对冲，直接在调用线程执行
+            return call.get();
+        }
+        if (delay < 0) {
+            return join(primary);
+        }
+        try {
+            return primary.get(delay, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 超过对冲延迟，继续往下走
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+
+        if (!retryBudget.tryWithdraw()) {
+            budgetExhausted.increment();
+            return join(primary);
+        }
+        CompletableFuture<T> hedge;
+        try {
+            hedge = submit(call, context.hedge(), false);
+        } catch (RejectedExecutionException e) {
+            return join(primary);
+        }
+        hedges.increment();
+        return join(firstSuccessful(primary, hedge));
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> call, HedgeContext context, boolean record) {
+        return CompletableFuture.supplyAsync(() -> {
+            HedgeContext.set(context);
+            long start = System.nanoTime();
+            try {
+                T result = call.get();
+                // 只记录主请求的延迟，对冲请求的延迟会把分位数拉低
+                if (record) {
+                    histogram.record(System.nanoTime() - start);
+                }
+                return result;
+            } finally {
+                HedgeContext.clear();
+            }
+        }, executor);
+    }
+
+    private <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> primary, CompletableFuture<T> hedge) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        primary.whenComplete((value, ex) -> {
+            if (ex == null) {
+                done.set(true);
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(ex);
+            }
+        });
+        hedge.whenComplete((value, ex) -> {
+            if (ex == null) {
+                if (done.compareAndSet(false, true)) {
+                    wins.increment();
+                }
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    private static RuntimeException propagate(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex);
+    }
+
+    /**
+     * 样本不足时返回 -1，表示不对冲
+     */
+    long hedgeDelayNanos() {
+        long nanos = histogram.percentile(percentile, MIN_SAMPLES);
+        return nanos < 0 ? -1 : Math.max(minDelayNanos, nanos);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 对数分桶的延迟直方图，每个桶的上界是前一个的 2^(1/4) 倍，误差约 19%，对计算对冲延迟足够。
+     * 两个窗口轮换，统计最近 1~2 个窗口的数据，让对冲延迟能跟上下游延迟的变化。
+     */
+    static class LatencyHistogram {
+
+        // 1 微秒 ~ 约 69 秒
+        private static final int BUCKETS = 105;
+
+        private static final long BASE_NANOS = 1000;
+
+        private static final double LOG_STEP = Math.log(2) / 4;
+
+        private final long windowNanos;
+
+        private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+
+        private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+        private volatile long windowStart = System.nanoTime();
+
+        LatencyHistogram(long windowNanos) {
+            this.windowNanos = windowNanos;
+        }
+
+        void record(long nanos) {
+            rotate();
+            current.incrementAndGet(bucket(nanos));
+        }
+
+        /**
+         * 样本数少于 minSamples 时返回 -1
+         */
+        long percentile(double p, int minSamples) {
+            rotate();
+            AtomicLongArray cur = current;
+            AtomicLongArray prev = previous;
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = cur.get(i) + prev.get(i);
+                total += counts[i];
+            }
+            if (total < Math.max(1, minSamples)) {
+                return -1;
+            }
+            long target = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        private void rotate() {
+            long now = System.nanoTime();
+            if (now - windowStart < windowNanos) {
+                return;
+            }
+            synchronized (this) {
+                if (now - windowStart < windowNanos) {
+                    return;
+                }
+                // 超过两个窗口没有数据时，旧数据已经没有参考意义
+                previous = now - windowStart < 2 * windowNanos ? current : new AtomicLongArray(BUCKETS);
+                current = new AtomicLongArray(BUCKETS);
+                windowStart = now;
+            }
+        }
+
+        static int bucket(long nanos) {
+            if (nanos <= BASE_NANOS) {
+                return 0;
+            }
+            int index = (int) Math.ceil(Math.log((double) nanos / BASE_NANOS) / LOG_STEP);
+            return Math.min(index, BUCKETS - 1);
+        }
+
+        static long upperBound(int bucket) {
+            return (long) (BASE_NANOS * Math.exp(bucket * LOG_STEP));
+        }
+
+    }
+
+}
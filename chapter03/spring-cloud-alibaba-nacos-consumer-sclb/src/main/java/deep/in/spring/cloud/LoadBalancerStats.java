@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 记录每个服务实例 (host:port) 的请求延迟 (Peak EWMA) 和正在处理的请求数，供 {@link PeakEwmaLoadBalancer} 使用。
+ * 数据由 {@link LoadBalancerStatsRequestFactory} 在请求真正发出时采集。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class LoadBalancerStats {
+
+    /**
+     * EWMA 的衰减时间常数，越大对延迟变化越不敏感。
+     */
+    private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * 请求失败时至少按 1 秒的延迟记录，避免快速失败的实例吸走流量。
+     */
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 还没有延迟数据但已经有请求在处理的实例，先不再分配请求。
+     */
+    private static final double PENALTY = Double.MAX_VALUE / 2;
+
+    /**
+     * 离群检测使用的普通 EWMA 的平滑系数，不受单次慢请求的峰值影响。
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final ConcurrentMap<String, InstanceStats> stats = new ConcurrentHashMap<>();
+
+    public InstanceStats getInstanceStats(String host, int port) {
+        String key = host + ":" + port;
+        InstanceStats instanceStats = stats.get(key);
+        if (instanceStats == null) {
+            instanceStats = stats.computeIfAbsent(key, k -> new InstanceStats());
+        }
+        return instanceStats;
+    }
+
+    public static class InstanceStats {
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private volatile double ewma;
+
+        private volatile long stamp = System.nanoTime();
+
+        // 以下用于离群检测: 连续失败次数、平滑后的延迟以及 reset 之后的请求数
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private final AtomicLong samples = new AtomicLong();
+
+        private volatile double smoothedRtt;
+
+        // Nacos 权重，metadata 没有变化时不重复解析
+        private volatile Weight weight = Weight.DEFAULT;
+
+        public long start() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        public void end(long start, boolean success) {
+            long now = System.nanoTime();
+            inFlight.decrementAndGet();
+            long rtt = now - start;
+            observe(now, success ? rtt : Math.max(rtt, FAILURE_PENALTY_NANOS));
+            if (success) {
+                if (consecutiveFailures.get() != 0) {
+                    consecutiveFailures.set(0);
+                }
+            } else {
+                consecutiveFailures.incrementAndGet();
+            }
+            double smoothed = smoothedRtt;
+            smoothedRtt = samples.getAndIncrement() == 0 ? rtt : smoothed + SMOOTHING * (rtt - smoothed);
+        }
+
+        /**
+         * 实例被摘除时清空统计数据，恢复后重新开始观察。
+         */
+        public void reset() {
+            ewma = 0;
+            stamp = System.nanoTime();
+            consecutiveFailures.set(0);
+            samples.set(0);
+            smoothedRtt = 0;
+        }
+
+        // 并发更新时丢失一次采样是可以接受的，不需要加锁
+        private void observe(long now, double rtt) {
+            double current = ewma;
+            if (rtt > current) {
+                // Peak: 延迟变大立即生效，变小时才慢慢衰减
+                ewma = rtt;
+            } else {
+                double w = Math.exp(-(now - stamp) / DECAY_NANOS);
+                ewma = current * w + rtt * (1 - w);
+            }
+            stamp = now;
+        }
+
+        /**
+         * 负载代价: 衰减后的延迟 * (正在处理的请求数 + 1)。长时间没有请求的实例延迟会逐渐衰减到 0，重新获得流量。
+         */
+        public double cost(long now) {
+            int active = inFlight.get();
+            double current = ewma;
+            if (current == 0 && active != 0) {
+                return PENALTY;
+            }
+            double decayed = current * Math.exp(-Math.max(now - stamp, 0) / DECAY_NANOS);
+            return decayed * (active + 1);
+        }
+
+        double weight(String raw) {
+            Weight current = weight;
+            if (!Objects.equals(raw, current.raw)) {
+                current = Weight.parse(raw);
+                weight = current;
+            }
+            return current.value;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures.get();
+        }
+
+        public long getSamples() {
+            return samples.get();
+        }
+
+        public double getSmoothedRtt() {
+            return smoothedRtt;
+        }
+
+        public double getEwmaMillis() {
+            return ewma / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+    }
+
+    private static final class Weight {
+
+        static final Weight DEFAULT = new Weight(null, 1.0);
+
+        final String raw;
+
+        final double value;
+
+        private Weight(String raw, double value) {
+            this.raw = raw;
+            this.value = value;
+        }
+
+        static Weight parse(String raw) {
+            if (raw == null) {
+                return DEFAULT;
+            }
+            try {
+                return new Weight(raw, Double.parseDouble(raw));
+            } catch (NumberFormatException e) {
+                // 权重格式不对按默认权重处理
+                return new Weight(raw, 1.0);
+            }
+        }
+
+    }
+
+}
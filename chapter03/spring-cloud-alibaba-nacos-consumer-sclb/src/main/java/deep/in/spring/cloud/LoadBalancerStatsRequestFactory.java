@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * 包装 RestTemplate 底层的 ClientHttpRequestFactory，记录每个实例的延迟和处理中请求数。
+ * 这里拿到的 URI 已经是负载均衡选出的 host:port，和拦截器的顺序无关。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class LoadBalancerStatsRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+
+    private final LoadBalancerStats loadBalancerStats;
+
+    public LoadBalancerStatsRequestFactory(ClientHttpRequestFactory delegate, LoadBalancerStats loadBalancerStats) {
+        this.delegate = delegate;
+        this.loadBalancerStats = loadBalancerStats;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        // 对冲请求需要知道主请求发往了哪个实例
+        HedgeContext.recordInstance(uri.getHost(), uri.getPort());
+        return new StatsClientHttpRequest(delegate.createRequest(uri, httpMethod),
+            loadBalancerStats.getInstanceStats(uri.getHost(), uri.getPort()));
+    }
+
+    static class StatsClientHttpRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest delegate;
+
+        private final LoadBalancerStats.InstanceStats stats;
+
+        StatsClientHttpRequest(ClientHttpRequest delegate, LoadBalancerStats.InstanceStats stats) {
+            this.delegate = delegate;
+            this.stats = stats;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            long start = stats.start();
+            boolean success = false;
+            try {
+                ClientHttpResponse response = delegate.execute();
+                success = response.getRawStatusCode() < 500;
+                return response;
+            } finally {
+                stats.end(start, success);
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public String getMethodValue() {
+            return delegate.getMethodValue();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+    }
+
+}
@@ -17,6 +17,8 @@
 package deep.in.spring.cloud;
 
 import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.loadbalancer.core.DiscoveryClientServiceInstanceListSupplier;
 import org.springframework.cloud.loadbalancer.core.ReactorLoadBalancer;
 import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
 import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
@@ -31,10 +33,21 @@ public class MyLoadBalancerConfiguration {
     @Bean
     public ReactorLoadBalancer<ServiceInstance> reactorServiceInstanceLoadBalancer(
         Environment environment,
-        LoadBalancerClientFactory loadBalancerClientFactory) {
+        LoadBalancerClientFactory loadBalancerClientFactory,
+        LoadBalancerStats loadBalancerStats) {
         String name = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
-        return new RandomLoadBalancer(loadBalancerClientFactory.getLazyProvider(name,
-            ServiceInstanceListSupplier.class), name);
+        return new PeakEwmaLoadBalancer(loadBalancerClientFactory.getLazyProvider(name,
+            ServiceInstanceListSupplier.class), name, loadBalancerStats);
+    }
+
+    // 先摘除离群实例，再按 zone 过滤 (spring.cloud.loadbalancer.zone 没有配置时不做 zone 过滤)
+    @Bean
+    public ServiceInstanceListSupplier zonePreferenceServiceInstanceListSupplier(
+        DiscoveryClient discoveryClient, Environment environment, LoadBalancerStats loadBalancerStats) {
+        return new ZonePreferenceServiceInstanceListSupplier(
+            new OutlierDetectionServiceInstanceListSupplier(
+                new DiscoveryClientServiceInstanceListSupplier(discoveryClient, environment), loadBalancerStats),
+            environment.getProperty("spring.cloud.loadbalancer.zone"));
     }
 
 }
@@ -16,6 +16,7 @@
 
 package deep.in.spring.cloud;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -26,6 +27,7 @@ import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.cloud.loadbalancer.annotation.LoadBalancerClient;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
@@ -66,8 +68,24 @@ public class NacosConsumer4SCLB {
     // 然后根据 LoadBalancerRequestTransformer 做二次加工。LoadBalancerRequest 接口定义如下：
     @Bean
     @LoadBalanced
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(LoadBalancerStats loadBalancerStats) {
+        RestTemplate restTemplate = new RestTemplate(
+            new LoadBalancerStatsRequestFactory(new SimpleClientHttpRequestFactory(), loadBalancerStats));
+        // 使用 ConsistentHashLoadBalancerConfiguration 的服务按 X-Hash-Key header 做一致性哈希
+        restTemplate.getInterceptors().add(new HashKeyInterceptor("X-Hash-Key", null, -1));
+        return restTemplate;
+    }
+
+    // PeakEwmaLoadBalancer 需要的延迟数据由 LoadBalancerStatsRequestFactory 在请求发出时采集
+    @Bean
+    public LoadBalancerStats loadBalancerStats() {
+        return new LoadBalancerStats();
+    }
+
+    // 对冲请求的指标 (hedge.*) 可以通过 /actuator/metrics 查看
+    @Bean
+    public HedgedRequestExecutor hedgedRequestExecutor(MeterRegistry meterRegistry) {
+        return new HedgedRequestExecutor(meterRegistry);
     }
 
     @Bean
@@ -76,8 +94,14 @@ public class NacosConsumer4SCLB {
     }
 
     @Bean
-    public RandomServiceInstanceChooser randomServiceInstanceChooser(DiscoveryClient discoveryClient) {
-        return new RandomServiceInstanceChooser(discoveryClient);
+    public ServiceInstanceCache serviceInstanceCache(DiscoveryClient discoveryClient) {
+        return new ServiceInstanceCache(discoveryClient::getInstances);
+    }
+
+    @Bean
+    public RandomServiceInstanceChooser randomServiceInstanceChooser(DiscoveryClient discoveryClient,
+                                                                     ServiceInstanceCache serviceInstanceCache) {
+        return new RandomServiceInstanceChooser(new CachingDiscoveryClient(discoveryClient, serviceInstanceCache));
     }
 
     @RestController
@@ -92,11 +116,15 @@ public class NacosConsumer4SCLB {
         @Autowired
         private RandomServiceInstanceChooser randomServiceInstanceChooser;
 
+        @Autowired
+        private HedgedRequestExecutor hedgedRequestExecutor;
+
         private String serviceName = "nacos-provider-lb";
 
         @GetMapping("/echo")
         public String echo() {
-            return restTemplate.getForObject("http://" + serviceName + "/", String.class);
+            return hedgedRequestExecutor.execute(
+                () -> restTemplate.getForObject("http://" + serviceName + "/", String.class));
         }
 
         @GetMapping("/customChooser")
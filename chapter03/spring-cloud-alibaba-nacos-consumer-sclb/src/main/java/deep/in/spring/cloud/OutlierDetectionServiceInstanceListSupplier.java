@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * 参考 Envoy 的离群检测 (Outlier Detection)，根据 {@link LoadBalancerStats} 采集的数据被动摘除异常实例:
+ * <ul>
+ * <li>连续失败 (5xx 或者 IO 异常) 达到 consecutiveErrors 次</li>
+ * <li>平滑后的延迟超过所有实例延迟中位数的 latencyFactor 倍 (至少 3 个实例有足够的请求数时才比较)</li>
+ * </ul>
+ * 摘除时间为 baseEjectionTime * 摘除次数，最长 maxEjectionTime；一段时间没有再被摘除时摘除次数逐渐减少。
+ * 被摘除的实例数最多占 maxEjectionPercent%，所有实例都被摘除时返回原始列表。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class OutlierDetectionServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+    static final int DEFAULT_CONSECUTIVE_ERRORS = 5;
+
+    static final long DEFAULT_BASE_EJECTION_TIME = TimeUnit.SECONDS.toMillis(30);
+
+    static final long DEFAULT_MAX_EJECTION_TIME = TimeUnit.SECONDS.toMillis(300);
+
+    static final int DEFAULT_MAX_EJECTION_PERCENT = 50;
+
+    static final double DEFAULT_LATENCY_FACTOR = 3.0;
+
+    /**
+     * 参与延迟比较的实例至少需要的请求数。
+     */
+    static final long MIN_LATENCY_SAMPLES = 20;
+
+    private final ServiceInstanceListSupplier delegate;
+
+    private final LoadBalancerStats loadBalancerStats;
+
+    private final int consecutiveErrors;
+
+    private final long baseEjectionNanos;
+
+    private final long maxEjectionNanos;
+
+    private final int maxEjectionPercent;
+
+    private final double latencyFactor;
+
+    private final Map<LoadBalancerStats.InstanceStats, Ejection> ejections = new ConcurrentHashMap<>();
+
+    public OutlierDetectionServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                       LoadBalancerStats loadBalancerStats) {
+        this(delegate, loadBalancerStats, DEFAULT_CONSECUTIVE_ERRORS, DEFAULT_BASE_EJECTION_TIME,
+            DEFAULT_MAX_EJECTION_TIME, DEFAULT_MAX_EJECTION_PERCENT, DEFAULT_LATENCY_FACTOR);
+    }
+
+    public OutlierDetectionServiceInstanceListSupplier(ServiceInstanceListSupplier delegate,
+                                                       LoadBalancerStats loadBalancerStats,
+                                                       int consecutiveErrors, long baseEjectionTime,
+                                                       long maxEjectionTime, int maxEjectionPercent,
+                                                       double latencyFactor) {
+        this.delegate = delegate;
+        this.loadBalancerStats = loadBalancerStats;
+        this.consecutiveErrors = consecutiveErrors;
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionTime);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionTime);
+        this.maxEjectionPercent = maxEjectionPercent;
+        this.latencyFactor = latencyFactor;
+    }
+
+    @Override
+    public String getServiceId() {
+        return delegate.getServiceId();
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return delegate.get().map(this::filter);
+    }
+
+    List<ServiceInstance> filter(List<ServiceInstance> instances) {
+        int size = instances.size();
+        if (size == 0) {
+            return instances;
+        }
+        long now = System.nanoTime();
+        LoadBalancerStats.InstanceStats[] stats = new LoadBalancerStats.InstanceStats[size];
+        boolean[] ejected = new boolean[size];
+        int ejectedCount = 0;
+        boolean outlierFound = false;
+        for (int i = 0; i < size; i++) {
+            ServiceInstance instance = instances.get(i);
+            stats[i] = loadBalancerStats.getInstanceStats(instance.getHost(), instance.getPort());
+            Ejection ejection = ejections.get(stats[i]);
+            if (ejection != null && ejection.isEjected(now)) {
+                ejected[i] = true;
+                ejectedCount++;
+            } else if (stats[i].getConsecutiveFailures() >= consecutiveErrors) {
+                outlierFound = true;
+            }
+        }
+        double latencyThreshold = latencyThreshold(stats, ejected);
+        if (!outlierFound && latencyThreshold > 0) {
+            for (int i = 0; i < size; i++) {
+                if (!ejected[i] && isSlow(stats[i], latencyThreshold)) {
+                    outlierFound = true;
+                    break;
+                }
+            }
+        }
+        if (outlierFound) {
+            ejectedCount = eject(stats, ejected, ejectedCount, latencyThreshold, now);
+        }
+        if (ejectedCount == 0 || ejectedCount >= size) {
+            return instances;
+        }
+        List<ServiceInstance> result = new ArrayList<>(size - ejectedCount);
+        for (int i = 0; i < size; i++) {
+            if (!ejected[i]) {
+                result.add(instances.get(i));
+            }
+        }
+        return result;
+    }
+
+    // 摘除的决定需要和摘除数量上限一起判断，加锁避免并发时超过上限
+    private synchronized int eject(LoadBalancerStats.InstanceStats[] stats, boolean[] ejected, int ejectedCount,
+                                   double latencyThreshold, long now) {
+        int maxEjected = stats.length * maxEjectionPercent / 100;
+        for (int i = 0; i < stats.length && ejectedCount < maxEjected; i++) {
+            if (ejected[i]) {
+                continue;
+            }
+            Ejection ejection = ejections.computeIfAbsent(stats[i], s -> new Ejection());
+            if (ejection.isEjected(now)) {
+                // 其他线程刚刚摘除
+                ejected[i] = true;
+                ejectedCount++;
+            } else if (stats[i].getConsecutiveFailures() >= consecutiveErrors
+                || (latencyThreshold > 0 && isSlow(stats[i], latencyThreshold))) {
+                ejection.eject(now);
+                stats[i].reset();
+                ejected[i] = true;
+                ejectedCount++;
+            }
+        }
+        return ejectedCount;
+    }
+
+    private double latencyThreshold(LoadBalancerStats.InstanceStats[] stats, boolean[] ejected) {
+        double[] rtts = new double[stats.length];
+        int count = 0;
+        for (int i = 0; i < stats.length; i++) {
+            if (!ejected[i] && stats[i].getSamples() >= MIN_LATENCY_SAMPLES) {
+                rtts[count++] = stats[i].getSmoothedRtt();
+            }
+        }
+        if (count < 3) {
+            return 0;
+        }
+        Arrays.sort(rtts, 0, count);
+        double median = count % 2 == 1 ? rtts[count / 2] : (rtts[count / 2 - 1] + rtts[count / 2]) / 2;
+        return median * latencyFactor;
+    }
+
+    private static boolean isSlow(LoadBalancerStats.InstanceStats stats, double latencyThreshold) {
+        return stats.getSamples() >= MIN_LATENCY_SAMPLES && stats.getSmoothedRtt() > latencyThreshold;
+    }
+
+    private final class Ejection {
+
+        private volatile long ejectedUntil = Long.MIN_VALUE;
+
+        private int multiplier;
+
+        boolean isEjected(long now) {
+            long until = ejectedUntil;
+            return until != Long.MIN_VALUE && now - until < 0;
+        }
+
+        // 只在 eject 的锁内调用
+        void eject(long now) {
+            if (ejectedUntil != Long.MIN_VALUE) {
+                // 恢复之后每过一个 baseEjectionTime 没有再被摘除，摘除次数减 1
+                long healthyIntervals = (now - ejectedUntil) / baseEjectionNanos;
+                multiplier = (int) Math.max(0, multiplier - healthyIntervals);
+            }
+            multiplier++;
+            long duration = baseEjectionNanos * multiplier;
+            if (duration > maxEjectionNanos || duration < 0) {
+                duration = maxEjectionNanos;
+                multiplier--;
+            }
+            ejectedUntil = now + duration;
+        }
+
+    }
+
+}
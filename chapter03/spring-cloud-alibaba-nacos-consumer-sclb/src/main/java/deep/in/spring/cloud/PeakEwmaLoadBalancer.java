@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.loadbalancer.reactive.DefaultResponse;
+import org.springframework.cloud.client.loadbalancer.reactive.EmptyResponse;
+import org.springframework.cloud.client.loadbalancer.reactive.Request;
+import org.springframework.cloud.client.loadbalancer.reactive.Response;
+import org.springframework.cloud.loadbalancer.core.NoopServiceInstanceListSupplier;
+import org.springframework.cloud.loadbalancer.core.ReactorServiceInstanceLoadBalancer;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Mono;
+
+/**
+ * Power of Two Choices 负载均衡: 随机选两个实例，选择 延迟(Peak EWMA) * (处理中请求数 + 1) / 权重 更小的那个。
+ * 权重读取 Nacos 实例 metadata 中的 nacos.weight (或 weight)，权重 <= 0 的实例只有在没得选时才会被选中。
+ * 对冲请求 (见 {@link HedgedRequestExecutor}) 会避开主请求已经选中的实例。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class PeakEwmaLoadBalancer implements ReactorServiceInstanceLoadBalancer {
+
+    static final String NACOS_WEIGHT = "nacos.weight";
+
+    static final String WEIGHT = "weight";
+
+    private ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider;
+
+    private final String serviceId;
+
+    private final LoadBalancerStats loadBalancerStats;
+
+    public PeakEwmaLoadBalancer(
+        ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider, String serviceId,
+        LoadBalancerStats loadBalancerStats) {
+        this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
+        this.serviceId = serviceId;
+        this.loadBalancerStats = loadBalancerStats;
+    }
+
+    @Override
+    public Mono<Response<ServiceInstance>> choose(Request request) {
+        ServiceInstanceListSupplier supplier = serviceInstanceListSupplierProvider
+            .getIfAvailable(NoopServiceInstanceListSupplier::new);
+        // 在调用线程读取，map 可能运行在其他线程
+        String excluded = HedgeContext.excludedInstance();
+        return supplier.get().next().map(instances -> getInstanceResponse(instances, excluded));
+    }
+
+    private Response<ServiceInstance> getInstanceResponse(List<ServiceInstance> instances, String excluded) {
+        ServiceInstance instance = choose(instances, excluded);
+        if (instance == null) {
+            return new EmptyResponse();
+        }
+        return new DefaultResponse(instance);
+    }
+
+    ServiceInstance choose(List<ServiceInstance> instances) {
+        return choose(instances, null);
+    }
+
+    ServiceInstance choose(List<ServiceInstance> instances, String excluded) {
+        int size = instances.size();
+        if (size == 0) {
+            return null;
+        }
+        if (size == 1) {
+            return instances.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(size);
+        int j = random.nextInt(size - 1);
+        if (j >= i) {
+            j++;
+        }
+        ServiceInstance first = instances.get(i);
+        ServiceInstance second = instances.get(j);
+        if (excluded != null) {
+            if (excluded.equals(first.getHost() + ":" + first.getPort())) {
+                return second;
+            }
+            if (excluded.equals(second.getHost() + ":" + second.getPort())) {
+                return first;
+            }
+        }
+        long now = System.nanoTime();
+        return score(first, now) <= score(second, now) ? first : second;
+    }
+
+    private double score(ServiceInstance instance, long now) {
+        LoadBalancerStats.InstanceStats stats =
+            loadBalancerStats.getInstanceStats(instance.getHost(), instance.getPort());
+        double weight = stats.weight(weightOf(instance));
+        if (weight <= 0) {
+            return Double.MAX_VALUE;
+        }
+        return stats.cost(now) / weight;
+    }
+
+    private static String weightOf(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        if (metadata == null) {
+            return null;
+        }
+        String weight = metadata.get(NACOS_WEIGHT);
+        return weight != null ? weight : metadata.get(WEIGHT);
+    }
+
+}
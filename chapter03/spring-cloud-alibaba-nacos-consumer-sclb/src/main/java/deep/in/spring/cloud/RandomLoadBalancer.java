@@ -17,7 +17,7 @@
 package deep.in.spring.cloud;
 
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.cloud.client.ServiceInstance;
@@ -39,13 +39,10 @@ public class RandomLoadBalancer implements ReactorServiceInstanceLoadBalancer {
 
     private final String serviceId;
 
-    private final Random random;
-
     public RandomLoadBalancer(
         ObjectProvider<ServiceInstanceListSupplier> serviceInstanceListSupplierProvider, String serviceId) {
         this.serviceInstanceListSupplierProvider = serviceInstanceListSupplierProvider;
         this.serviceId = serviceId;
-        this.random = new Random();
     }
 
     @Override
@@ -60,9 +57,7 @@ public class RandomLoadBalancer implements ReactorServiceInstanceLoadBalancer {
         if (instances.isEmpty()) {
             return new EmptyResponse();
         }
-        int randomNum = random.nextInt(instances.size());
-        System.out.println("random: " + randomNum);
-        ServiceInstance instance = instances.get(randomNum);
+        ServiceInstance instance = instances.get(ThreadLocalRandom.current().nextInt(instances.size()));
 
         return new DefaultResponse(instance);
     }
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌桶形式的重试预算: 每个正常请求存入 ratio 个令牌，每秒额外补充 minPerSecond 个令牌，一次重试/对冲请求消耗 1 个令牌。
+ * 下游故障时所有请求都变慢，令牌很快耗尽，对冲请求不会把流量放大。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RetryBudget {
+
+    // 以千分之一令牌为单位，避免浮点数的 CAS
+    private static final long UNIT = 1000;
+
+    private final long depositPerRequest;
+
+    private final long refillPerSecond;
+
+    private final long maxBalance;
+
+    // 从 0 补满所需的时间，超过这个时间没有补充时按这个时间计算，避免乘法溢出
+    private final long fillNanos;
+
+    private final AtomicLong balance;
+
+    private final AtomicLong lastRefill = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param ratio        每个请求存入的令牌数，0.1 表示最多 10% 的请求可以重试
+     * @param minPerSecond 每秒至少可以重试的次数，保证低流量时也能重试
+     * @param maxBalance   令牌上限
+     */
+    public RetryBudget(double ratio, int minPerSecond, int maxBalance) {
+        this.depositPerRequest = (long) (ratio * UNIT);
+        this.refillPerSecond = minPerSecond * UNIT;
+        this.maxBalance = maxBalance * UNIT;
+        this.fillNanos = refillPerSecond == 0 ? 0
+            : (long) Math.ceil((double) this.maxBalance / refillPerSecond * TimeUnit.SECONDS.toNanos(1));
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    public void deposit() {
+        add(depositPerRequest);
+    }
+
+    public boolean tryWithdraw() {
+        return tryWithdraw(System.nanoTime());
+    }
+
+    boolean tryWithdraw(long now) {
+        refill(now);
+        while (true) {
+            long current = balance.get();
+            if (current < UNIT) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    public double getBalance() {
+        return (double) balance.get() / UNIT;
+    }
+
+    private void refill(long now) {
+        if (refillPerSecond == 0) {
+            return;
+        }
+        long last = lastRefill.get();
+        long elapsed = Math.min(now - last, fillNanos);
+        long amount = (long) ((double) elapsed * refillPerSecond / TimeUnit.SECONDS.toNanos(1));
+        // 不足千分之一个令牌时不更新时间，避免频繁调用时永远补充不了
+        if (amount > 0 && lastRefill.compareAndSet(last, now)) {
+            add(amount);
+        }
+    }
+
+    private void add(long amount) {
+        while (true) {
+            long current = balance.get();
+            long next = Math.min(maxBalance, current + amount);
+            if (next == current || balance.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.context.ApplicationListener;
+
+/**
+ * 服务实例列表缓存。每个服务保存一份不可变的实例列表快照，读取时只是一次 ConcurrentHashMap#get，不会访问注册中心客户端。
+ * <p>
+ * 快照的刷新方式:
+ * 1. 注册中心推送: Eureka 客户端刷新本地缓存、NacosWatch 检测到变化时都会发布 HeartbeatEvent，收到后异步刷新所有快照
+ * 2. 定时轮询兜底: 每隔 refreshIntervalMillis 刷新一次
+ * 刷新失败时保留旧的快照。超过 expireAfterAccessMillis (默认 10 个刷新周期) 没有被读取的服务不再刷新，直接删除快照，
+ * 避免曾经查询过一次的服务 (比如 WebClient 请求过的普通域名) 一直被刷新。
+ * <p>
+ * 实例列表通过 loader 加载，可以是 DiscoveryClient#getInstances，也可以是 ReactiveDiscoveryClient (刷新在后台线程执行，可以 block)。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ServiceInstanceCache implements ApplicationListener<HeartbeatEvent>, DisposableBean {
+
+    public static final long DEFAULT_REFRESH_INTERVAL = 30000;
+
+    // 默认多少个刷新周期没有被读取就删除快照
+    private static final int DEFAULT_EXPIRE_AFTER_REFRESHES = 10;
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceInstanceCache.class);
+
+    private final Function<String, List<ServiceInstance>> loader;
+
+    private final ConcurrentMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final long expireAfterAccessNanos;
+
+    // 访问时间的更新粒度，避免每次读取都做 volatile 写
+    private final long accessGranularityNanos;
+
+    private final ScheduledExecutorService scheduler;
+
+    // 短时间内收到多个 HeartbeatEvent 时只刷新一次
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public ServiceInstanceCache(Function<String, List<ServiceInstance>> loader) {
+        this(loader, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    public ServiceInstanceCache(Function<String, List<ServiceInstance>> loader, long refreshIntervalMillis) {
+        this(loader, refreshIntervalMillis, refreshIntervalMillis * DEFAULT_EXPIRE_AFTER_REFRESHES);
+    }
+
+    public ServiceInstanceCache(Function<String, List<ServiceInstance>> loader, long refreshIntervalMillis,
+                                long expireAfterAccessMillis) {
+        this.loader = loader;
+        this.expireAfterAccessNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterAccessMillis);
+        this.accessGranularityNanos = expireAfterAccessNanos / 10;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "service-instance-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::refreshAll, refreshIntervalMillis, refreshIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 读取实例列表快照，第一次访问的服务会同步加载。
+     */
+    public List<ServiceInstance> getInstances(String serviceId) {
+        Snapshot snapshot = access(serviceId);
+        if (snapshot == null) {
+            return load(serviceId, System.nanoTime());
+        }
+        return snapshot.instances;
+    }
+
+    /**
+     * 读取实例列表快照，没有缓存时返回 null，不会触发加载。
+     */
+    public List<ServiceInstance> getIfPresent(String serviceId) {
+        Snapshot snapshot = access(serviceId);
+        return snapshot == null ? null : snapshot.instances;
+    }
+
+    public void put(String serviceId, List<ServiceInstance> instances) {
+        snapshots.put(serviceId, new Snapshot(snapshot(instances), System.nanoTime()));
+    }
+
+    public void evict(String serviceId) {
+        snapshots.remove(serviceId);
+    }
+
+    public void refresh(String serviceId) {
+        Snapshot snapshot = snapshots.get(serviceId);
+        refresh(serviceId, snapshot == null ? System.nanoTime() : snapshot.lastAccessTime);
+    }
+
+    /**
+     * 刷新所有快照，超过 expireAfterAccessMillis 没有被读取的快照直接删除。
+     */
+    public void refreshAll() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Snapshot> e : snapshots.entrySet()) {
+            Snapshot snapshot = e.getValue();
+            if (now - snapshot.lastAccessTime > expireAfterAccessNanos) {
+                // 只删除仍然是当前快照的映射，期间被重新加载的不删除
+                snapshots.remove(e.getKey(), snapshot);
+            } else {
+                refresh(e.getKey(), snapshot.lastAccessTime);
+            }
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(HeartbeatEvent event) {
+        if (refreshing.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                try {
+                    refreshAll();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    private Snapshot access(String serviceId) {
+        Snapshot snapshot = snapshots.get(serviceId);
+        if (snapshot != null) {
+            long now = System.nanoTime();
+            if (now - snapshot.lastAccessTime > accessGranularityNanos) {
+                snapshot.lastAccessTime = now;
+            }
+        }
+        return snapshot;
+    }
+
+    private void refresh(String serviceId, long lastAccessTime) {
+        try {
+            // 刷新不算访问，保留原来的访问时间
+            load(serviceId, lastAccessTime);
+        } catch (RuntimeException e) {
+            logger.warn("refresh instances of " + serviceId + " failed, keep the old snapshot", e);
+        }
+    }
+
+    private List<ServiceInstance> load(String serviceId, long lastAccessTime) {
+        List<ServiceInstance> instances = snapshot(loader.apply(serviceId));
+        // 加载期间旧快照可能被读取过
+        Snapshot previous = snapshots.get(serviceId);
+        if (previous != null && previous.lastAccessTime - lastAccessTime > 0) {
+            lastAccessTime = previous.lastAccessTime;
+        }
+        snapshots.put(serviceId, new Snapshot(instances, lastAccessTime));
+        return instances;
+    }
+
+    private static List<ServiceInstance> snapshot(List<ServiceInstance> instances) {
+        if (instances == null || instances.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<>(instances));
+    }
+
+    private static final class Snapshot {
+
+        final List<ServiceInstance> instances;
+
+        volatile long lastAccessTime;
+
+        Snapshot(List<ServiceInstance> instances, long lastAccessTime) {
+            this.instances = instances;
+            this.lastAccessTime = lastAccessTime;
+        }
+
+    }
+
+}
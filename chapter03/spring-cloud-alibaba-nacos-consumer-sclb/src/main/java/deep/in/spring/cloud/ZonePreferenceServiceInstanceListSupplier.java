@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * 优先返回和调用方同一个 zone 的实例，减少跨可用区的延迟和流量费用。
+ * <p>
+ * 实例的 zone 读取 metadata 中的 zone (Eureka)，没有的话读取 nacos.cluster (Nacos 集群名)。
+ * 本 zone 健康实例数低于 平均每个 zone 健康实例数 (健康实例总数 / zone 总数) * minHealthyRatio 时，认为本 zone 容量不足，返回所有 zone 的健康实例。
+ * metadata 中 nacos.healthy=false 的实例会被过滤掉，所有实例都不健康时返回原始列表。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ZonePreferenceServiceInstanceListSupplier implements ServiceInstanceListSupplier {
+
+    static final String ZONE = "zone";
+
+    static final String NACOS_CLUSTER = "nacos.cluster";
+
+    static final String NACOS_HEALTHY = "nacos.healthy";
+
+    static final double DEFAULT_MIN_HEALTHY_RATIO = 0.7;
+
+    private final ServiceInstanceListSupplier delegate;
+
+    private final String zone;
+
+    private final double minHealthyRatio;
+
+    public ZonePreferenceServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, String zone) {
+        this(delegate, zone, DEFAULT_MIN_HEALTHY_RATIO);
+    }
+
+    public ZonePreferenceServiceInstanceListSupplier(ServiceInstanceListSupplier delegate, String zone,
+                                                     double minHealthyRatio) {
+        this.delegate = delegate;
+        this.zone = zone;
+        this.minHealthyRatio = minHealthyRatio;
+    }
+
+    @Override
+    public String getServiceId() {
+        return delegate.getServiceId();
+    }
+
+    @Override
+    public Flux<List<ServiceInstance>> get() {
+        return delegate.get().map(this::filter);
+    }
+
+    private List<ServiceInstance> filter(List<ServiceInstance> instances) {
+        List<ServiceInstance> healthy = new ArrayList<>(instances.size());
+        List<ServiceInstance> local = new ArrayList<>(instances.size());
+        List<String> zones = new ArrayList<>(4);
+        for (ServiceInstance instance : instances) {
+            // zone 的数量包含没有健康实例的 zone
+            String instanceZone = zoneOf(instance);
+            if (instanceZone != null && !zones.contains(instanceZone)) {
+                zones.add(instanceZone);
+            }
+            if (!isHealthy(instance)) {
+                continue;
+            }
+            healthy.add(instance);
+            if (zone != null && zone.equalsIgnoreCase(instanceZone)) {
+                local.add(instance);
+            }
+        }
+        if (healthy.isEmpty()) {
+            // 没有健康实例时不做过滤，交给负载均衡和熔断处理
+            return instances;
+        }
+        if (local.isEmpty()) {
+            return healthy;
+        }
+        double averagePerZone = (double) healthy.size() / zones.size();
+        if (local.size() < averagePerZone * minHealthyRatio) {
+            // 本 zone 容量不足，溢出到其他 zone
+            return healthy;
+        }
+        return local;
+    }
+
+    private static boolean isHealthy(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        return metadata == null || !"false".equalsIgnoreCase(metadata.get(NACOS_HEALTHY));
+    }
+
+    private static String zoneOf(ServiceInstance instance) {
+        Map<String, String> metadata = instance.getMetadata();
+        if (metadata == null) {
+            return null;
+        }
+        String instanceZone = metadata.get(ZONE);
+        return instanceZone != null ? instanceZone : metadata.get(NACOS_CLUSTER);
+    }
+
+}
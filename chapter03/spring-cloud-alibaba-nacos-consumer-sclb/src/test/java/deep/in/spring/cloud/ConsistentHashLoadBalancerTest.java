@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 一致性哈希环在实例变化时的稳定性以及有界负载的溢出。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ConsistentHashLoadBalancerTest {
+
+    private static final int KEYS = 2000;
+
+    private final LoadBalancerStats stats = new LoadBalancerStats();
+
+    private final ConsistentHashLoadBalancer loadBalancer =
+        new ConsistentHashLoadBalancer(null, "nacos-provider-lb", stats);
+
+    @Test
+    public void testSameKeySameInstance() {
+        List<ServiceInstance> instances = instances(0, 5);
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            Assert.assertSame(loadBalancer.choose(instances, key), loadBalancer.choose(instances, key));
+        }
+    }
+
+    @Test
+    public void testAddInstance() {
+        List<ServiceInstance> instances = instances(0, 5);
+        Map<String, String> before = owners(instances);
+
+        List<ServiceInstance> added = new ArrayList<>(instances);
+        added.add(instance(5));
+        Map<String, String> after = owners(added);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            if (!before.get(key).equals(after.get(key))) {
+                // 只会迁移到新增的实例上
+                Assert.assertEquals(id(instance(5)), after.get(key));
+                moved++;
+            }
+        }
+        // 新实例大约分到 1/6 的 key
+        Assert.assertTrue("moved " + moved, moved > 0 && moved < KEYS / 3);
+    }
+
+    @Test
+    public void testRemoveInstance() {
+        List<ServiceInstance> instances = instances(0, 5);
+        Map<String, String> before = owners(instances);
+
+        List<ServiceInstance> removed = new ArrayList<>(instances);
+        ServiceInstance gone = removed.remove(2);
+        Map<String, String> after = owners(removed);
+
+        for (int i = 0; i < KEYS; i++) {
+            String key = "user-" + i;
+            if (!before.get(key).equals(id(gone))) {
+                Assert.assertEquals(before.get(key), after.get(key));
+            } else {
+                Assert.assertNotEquals(id(gone), after.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedLoadSpillover() {
+        List<ServiceInstance> instances = instances(0, 4);
+        String key = "hot-key";
+        ServiceInstance owner = loadBalancer.choose(instances, key);
+        LoadBalancerStats.InstanceStats ownerStats = stats.getInstanceStats(owner.getHost(), owner.getPort());
+
+        // 每个实例 2 个请求: 容量 ceil(1.25 * 9 / 4) = 3
+        for (ServiceInstance instance : instances) {
+            start(instance, 2);
+        }
+        Assert.assertSame(owner, loadBalancer.choose(instances, key));
+
+        // owner 3 个请求: 容量 ceil(1.25 * 10 / 4) = 4，仍然低于容量
+        ownerStats.start();
+        Assert.assertSame(owner, loadBalancer.choose(instances, key));
+
+        // owner 4 个请求: 容量 ceil(1.25 * 11 / 4) = 4，达到容量后溢出到环上的下一个实例
+        ownerStats.start();
+        ServiceInstance spilled = loadBalancer.choose(instances, key);
+        Assert.assertNotSame(owner, spilled);
+        Assert.assertSame(spilled, loadBalancer.choose(instances, key));
+
+        // 请求结束后回到 owner
+        ownerStats.end(System.nanoTime(), true);
+        ownerStats.end(System.nanoTime(), true);
+        Assert.assertSame(owner, loadBalancer.choose(instances, key));
+    }
+
+    @Test
+    public void testNoKey() {
+        List<ServiceInstance> instances = instances(0, 3);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(instances.contains(loadBalancer.choose(instances, null)));
+        }
+        Assert.assertNull(loadBalancer.choose(new ArrayList<>(), "user-1"));
+    }
+
+    @Test
+    public void testSameContentReusesRing() {
+        List<ServiceInstance> instances = instances(0, 5);
+        Map<String, String> before = owners(instances);
+        ConsistentHashLoadBalancer.HashRing ring = loadBalancer.ring();
+
+        // 新的 List，实例对象相同
+        loadBalancer.choose(new ArrayList<>(instances), "user-1");
+        Assert.assertSame(ring.hashes, loadBalancer.ring().hashes);
+        Assert.assertSame(ring.instances, loadBalancer.ring().instances);
+
+        // 新的实例对象，host:port 相同: 复用哈希环，返回新的实例对象
+        List<ServiceInstance> copies = instances(0, 5);
+        Assert.assertEquals(before, owners(copies));
+        Assert.assertSame(ring.hashes, loadBalancer.ring().hashes);
+        Assert.assertTrue(containsSame(copies, loadBalancer.choose(copies, "user-1")));
+
+        // 顺序不同
+        List<ServiceInstance> reversed = instances(0, 5);
+        Collections.reverse(reversed);
+        Assert.assertEquals(before, owners(reversed));
+        Assert.assertSame(ring.hashes, loadBalancer.ring().hashes);
+        Assert.assertTrue(containsSame(reversed, loadBalancer.choose(reversed, "user-1")));
+
+        // 内容变化时重建
+        List<ServiceInstance> changed = instances(0, 4);
+        changed.add(instance(6));
+        loadBalancer.choose(changed, "user-1");
+        Assert.assertNotSame(ring.hashes, loadBalancer.ring().hashes);
+    }
+
+    private Map<String, String> owners(List<ServiceInstance> instances) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put("user-" + i, id(loadBalancer.choose(instances, "user-" + i)));
+        }
+        return owners;
+    }
+
+    private void start(ServiceInstance instance, int requests) {
+        LoadBalancerStats.InstanceStats instanceStats = stats.getInstanceStats(instance.getHost(), instance.getPort());
+        for (int i = 0; i < requests; i++) {
+            instanceStats.start();
+        }
+    }
+
+    private static boolean containsSame(List<ServiceInstance> instances, ServiceInstance chosen) {
+        for (ServiceInstance instance : instances) {
+            if (instance == chosen) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String id(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    private static List<ServiceInstance> instances(int from, int to) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            instances.add(instance(i));
+        }
+        return instances;
+    }
+
+    private static ServiceInstance instance(int index) {
+        return new DefaultServiceInstance("instance-" + index, "nacos-provider-lb", "192.168.0." + index, 8080,
+            false);
+    }
+
+}
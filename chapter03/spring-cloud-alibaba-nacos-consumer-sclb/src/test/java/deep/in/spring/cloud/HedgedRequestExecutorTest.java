@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 对冲请求的触发时机、结果选择、重试预算以及延迟直方图的分桶计算。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class HedgedRequestExecutorTest {
+
+    // 对冲延迟下限，预热的请求都很快，对冲延迟就是这个值
+    private static final long MIN_DELAY_MILLIS = 50;
+
+    private static final long SLOW_MILLIS = 500;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private HedgedRequestExecutor executor;
+
+    @After
+    public void destroy() {
+        if (executor != null) {
+            executor.destroy();
+        }
+    }
+
+    @Test
+    public void testNoHedgeBeforeMinSamples() {
+        executor = executor(new RetryBudget(0, 0, 100));
+        Assert.assertEquals(-1, executor.hedgeDelayNanos());
+
+        Assert.assertEquals("primary", executor.execute(call(SLOW_MILLIS, "primary", 0, "hedge")));
+        Assert.assertEquals(0, count("hedge.sent"));
+    }
+
+    @Test
+    public void testNoHedgeWithinDelay() {
+        executor = warmedUp(new RetryBudget(0, 0, 100));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(MIN_DELAY_MILLIS), executor.hedgeDelayNanos());
+
+        Assert.assertEquals("primary", executor.execute(call(MIN_DELAY_MILLIS / 5, "primary", 0, "hedge")));
+        Assert.assertEquals(0, count("hedge.sent"));
+    }
+
+    @Test
+    public void testHedgeWinsAfterDelay() {
+        executor = warmedUp(new RetryBudget(0, 0, 100));
+
+        long start = System.nanoTime();
+        Assert.assertEquals("hedge", executor.execute(call(SLOW_MILLIS, "primary", 0, "hedge")));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue("elapsed " + elapsed, elapsed >= MIN_DELAY_MILLIS && elapsed < SLOW_MILLIS);
+        Assert.assertEquals(1, count("hedge.sent"));
+        Assert.assertEquals(1, count("hedge.wins"));
+    }
+
+    @Test
+    public void testPrimaryWinsWhenHedgeFails() {
+        executor = warmedUp(new RetryBudget(0, 0, 100));
+
+        Supplier<String> call = () -> {
+            if (isHedge()) {
+                throw new IllegalStateException("hedge");
+            }
+            sleep(MIN_DELAY_MILLIS * 2);
+            return "primary";
+        };
+        // 对冲请求先失败不会让整个调用失败
+        Assert.assertEquals("primary", executor.execute(call));
+        Assert.assertEquals(1, count("hedge.sent"));
+        Assert.assertEquals(0, count("hedge.wins"));
+    }
+
+    @Test
+    public void testFailsOnlyWhenBothFail() {
+        executor = warmedUp(new RetryBudget(0, 0, 100));
+
+        Supplier<String> call = () -> {
+            if (isHedge()) {
+                throw new IllegalStateException("hedge");
+            }
+            sleep(MIN_DELAY_MILLIS * 2);
+            throw new IllegalStateException("primary");
+        };
+        try {
+            executor.execute(call);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // 两个请求都失败时，以后失败的那个为准
+            Assert.assertEquals("primary", e.getMessage());
+        }
+        Assert.assertEquals(1, count("hedge.sent"));
+    }
+
+    @Test
+    public void testBudgetExhausted() {
+        executor = warmedUp(new RetryBudget(0, 0, 0));
+
+        Assert.assertEquals("primary", executor.execute(call(MIN_DELAY_MILLIS * 2, "primary", 0, "hedge")));
+        Assert.assertEquals(0, count("hedge.sent"));
+        Assert.assertEquals(1, count("hedge.budget.exhausted"));
+    }
+
+    @Test
+    public void testBucket() {
+        Assert.assertEquals(0, HedgedRequestExecutor.LatencyHistogram.bucket(0));
+        Assert.assertEquals(0, HedgedRequestExecutor.LatencyHistogram.bucket(1000));
+        Assert.assertEquals(1, HedgedRequestExecutor.LatencyHistogram.bucket(1001));
+        Assert.assertEquals(104, HedgedRequestExecutor.LatencyHistogram.bucket(Long.MAX_VALUE));
+        // 每 4 个桶翻一倍
+        Assert.assertEquals(4, HedgedRequestExecutor.LatencyHistogram.bucket(2000));
+        Assert.assertEquals(40, HedgedRequestExecutor.LatencyHistogram.bucket(1024000));
+        for (int i = 1; i < 104; i++) {
+            long upper = HedgedRequestExecutor.LatencyHistogram.upperBound(i);
+            Assert.assertTrue(upper > HedgedRequestExecutor.LatencyHistogram.upperBound(i - 1));
+            Assert.assertEquals(i, HedgedRequestExecutor.LatencyHistogram.bucket(upper));
+            Assert.assertEquals(i + 1, HedgedRequestExecutor.LatencyHistogram.bucket(upper + upper / 100));
+        }
+    }
+
+    @Test
+    public void testBucketError() {
+        for (long nanos = 1001; nanos < TimeUnit.SECONDS.toNanos(60); nanos = nanos * 3 / 2) {
+            long upper = HedgedRequestExecutor.LatencyHistogram.upperBound(
+                HedgedRequestExecutor.LatencyHistogram.bucket(nanos));
+            // 上界不小于实际值，误差不超过 2^(1/4)
+            Assert.assertTrue(nanos + " -> " + upper, upper >= nanos && upper <= nanos * 1.19 + 1);
+        }
+    }
+
+    @Test
+    public void testPercentile() {
+        HedgedRequestExecutor.LatencyHistogram histogram =
+            new HedgedRequestExecutor.LatencyHistogram(TimeUnit.HOURS.toNanos(1));
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < 19; i++) {
+            histogram.record(fast);
+        }
+        Assert.assertEquals(-1, histogram.percentile(0.95, 20));
+
+        for (int i = 19; i < 95; i++) {
+            histogram.record(fast);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.record(slow);
+        }
+        long fastUpper = HedgedRequestExecutor.LatencyHistogram.upperBound(
+            HedgedRequestExecutor.LatencyHistogram.bucket(fast));
+        long slowUpper = HedgedRequestExecutor.LatencyHistogram.upperBound(
+            HedgedRequestExecutor.LatencyHistogram.bucket(slow));
+        Assert.assertEquals(fastUpper, histogram.percentile(0.5, 20));
+        Assert.assertEquals(fastUpper, histogram.percentile(0.95, 20));
+        Assert.assertEquals(slowUpper, histogram.percentile(0.96, 20));
+        Assert.assertEquals(slowUpper, histogram.percentile(1.0, 20));
+    }
+
+    private HedgedRequestExecutor executor(RetryBudget retryBudget) {
+        return new HedgedRequestExecutor(registry, retryBudget, 0.95, MIN_DELAY_MILLIS, 10);
+    }
+
+    private HedgedRequestExecutor warmedUp(RetryBudget retryBudget) {
+        HedgedRequestExecutor executor = executor(retryBudget);
+        for (int i = 0; i < 20; i++) {
+            executor.execute(() -> "warm-up");
+        }
+        Assert.assertEquals(0, count("hedge.sent"));
+        return executor;
+    }
+
+    /**
+     * 主请求和对冲请求分别延迟 primaryMillis、hedgeMillis 后返回
+     */
+    private static Supplier<String> call(long primaryMillis, String primary, long hedgeMillis, String hedge) {
+        return () -> {
+            if (isHedge()) {
+                sleep(hedgeMillis);
+                return hedge;
+            }
+            sleep(primaryMillis);
+            return primary;
+        };
+    }
+
+    /**
+     * 主请求记录选中的实例，对冲请求能拿到需要排除的实例
+     */
+    private static boolean isHedge() {
+        HedgeContext.recordInstance("192.168.0.1", 8080);
+        return HedgeContext.excludedInstance() != null;
+    }
+
+    private long count(String name) {
+        return (long) registry.counter(name).count();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
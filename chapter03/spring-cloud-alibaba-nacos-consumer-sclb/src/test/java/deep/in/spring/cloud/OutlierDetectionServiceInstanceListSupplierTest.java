@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * 离群检测的摘除条件、摘除数量上限以及摘除时间的增长、衰减和恢复。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class OutlierDetectionServiceInstanceListSupplierTest {
+
+    private static final long BASE_EJECTION_MILLIS = 100;
+
+    private static final long MAX_EJECTION_MILLIS = 300;
+
+    private final LoadBalancerStats stats = new LoadBalancerStats();
+
+    private final OutlierDetectionServiceInstanceListSupplier supplier =
+        new OutlierDetectionServiceInstanceListSupplier(null, stats,
+            OutlierDetectionServiceInstanceListSupplier.DEFAULT_CONSECUTIVE_ERRORS, BASE_EJECTION_MILLIS,
+            MAX_EJECTION_MILLIS, OutlierDetectionServiceInstanceListSupplier.DEFAULT_MAX_EJECTION_PERCENT,
+            OutlierDetectionServiceInstanceListSupplier.DEFAULT_LATENCY_FACTOR);
+
+    @Test
+    public void testConsecutiveErrors() {
+        List<ServiceInstance> instances = instances(3);
+        fail(instances.get(1), 4);
+        Assert.assertEquals(instances, supplier.filter(instances));
+
+        fail(instances.get(1), 1);
+        List<ServiceInstance> result = supplier.filter(instances);
+        Assert.assertEquals(2, result.size());
+        Assert.assertFalse(result.contains(instances.get(1)));
+        // 摘除后统计数据被清空，恢复后重新开始观察
+        Assert.assertEquals(0, stats(instances.get(1)).getConsecutiveFailures());
+        Assert.assertFalse(supplier.filter(instances).contains(instances.get(1)));
+    }
+
+    @Test
+    public void testSuccessResetsConsecutiveErrors() {
+        List<ServiceInstance> instances = instances(3);
+        fail(instances.get(1), 4);
+        respond(instances.get(1), 1, 10);
+        fail(instances.get(1), 4);
+        Assert.assertEquals(instances, supplier.filter(instances));
+    }
+
+    @Test
+    public void testLatencyOutlier() {
+        List<ServiceInstance> instances = instances(4);
+        for (int i = 0; i < 3; i++) {
+            respond(instances.get(i), 20, 10);
+        }
+        respond(instances.get(3), 20, 100);
+
+        List<ServiceInstance> result = supplier.filter(instances);
+        Assert.assertEquals(3, result.size());
+        Assert.assertFalse(result.contains(instances.get(3)));
+    }
+
+    @Test
+    public void testLatencyNeedsEnoughInstances() {
+        List<ServiceInstance> instances = instances(3);
+        respond(instances.get(0), 20, 10);
+        respond(instances.get(1), 20, 100);
+        // 只有 2 个实例有足够的请求数，不比较延迟
+        respond(instances.get(2), 19, 10);
+        Assert.assertEquals(instances, supplier.filter(instances));
+    }
+
+    @Test
+    public void testMaxEjectionPercent() {
+        List<ServiceInstance> two = instances(2);
+        fail(two.get(0), 5);
+        fail(two.get(1), 5);
+        Assert.assertEquals(1, supplier.filter(two).size());
+        // 另一个实例仍然满足摘除条件，但已经达到上限
+        Assert.assertEquals(1, supplier.filter(two).size());
+
+        List<ServiceInstance> four = instances(2, 4);
+        for (ServiceInstance instance : four) {
+            fail(instance, 5);
+        }
+        Assert.assertEquals(2, supplier.filter(four).size());
+    }
+
+    @Test
+    public void testReadmitted() throws InterruptedException {
+        List<ServiceInstance> instances = instances(3);
+        fail(instances.get(0), 5);
+        Assert.assertFalse(supplier.filter(instances).contains(instances.get(0)));
+
+        Thread.sleep(BASE_EJECTION_MILLIS + 50);
+        Assert.assertEquals(instances, supplier.filter(instances));
+    }
+
+    @Test
+    public void testEjectionTimeGrowsAndDecays() throws InterruptedException {
+        List<ServiceInstance> instances = instances(3);
+        ServiceInstance outlier = instances.get(0);
+
+        assertEjectedFor(instances, outlier, BASE_EJECTION_MILLIS);
+        // 恢复后马上又被摘除，摘除时间按次数增长
+        assertEjectedFor(instances, outlier, BASE_EJECTION_MILLIS * 2);
+        assertEjectedFor(instances, outlier, BASE_EJECTION_MILLIS * 3);
+        // 不超过 maxEjectionTime
+        assertEjectedFor(instances, outlier, MAX_EJECTION_MILLIS);
+
+        // 健康 2 个 baseEjectionTime 后，摘除次数从 3 减到 1，这次摘除是第 2 次
+        Thread.sleep(BASE_EJECTION_MILLIS * 2 + 20);
+        assertEjectedFor(instances, outlier, BASE_EJECTION_MILLIS * 2);
+    }
+
+    private void assertEjectedFor(List<ServiceInstance> instances, ServiceInstance outlier, long millis)
+        throws InterruptedException {
+        fail(outlier, 5);
+        long start = System.nanoTime();
+        Assert.assertFalse(supplier.filter(instances).contains(outlier));
+        while (!supplier.filter(instances).contains(outlier)) {
+            Thread.sleep(2);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("expected " + millis + " but was " + elapsed,
+            elapsed >= millis && elapsed < millis + BASE_EJECTION_MILLIS / 2);
+    }
+
+    private void fail(ServiceInstance instance, int times) {
+        LoadBalancerStats.InstanceStats instanceStats = stats(instance);
+        for (int i = 0; i < times; i++) {
+            instanceStats.end(instanceStats.start(), false);
+        }
+    }
+
+    private void respond(ServiceInstance instance, int times, long millis) {
+        LoadBalancerStats.InstanceStats instanceStats = stats(instance);
+        for (int i = 0; i < times; i++) {
+            long start = instanceStats.start();
+            instanceStats.end(start - TimeUnit.MILLISECONDS.toNanos(millis), true);
+        }
+    }
+
+    private LoadBalancerStats.InstanceStats stats(ServiceInstance instance) {
+        return stats.getInstanceStats(instance.getHost(), instance.getPort());
+    }
+
+    private static List<ServiceInstance> instances(int size) {
+        return instances(0, size);
+    }
+
+    private static List<ServiceInstance> instances(int from, int size) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int i = from; i < from + size; i++) {
+            instances.add(new DefaultServiceInstance("instance-" + i, "nacos-provider-lb",
+                "192.168.0." + i, 8080, false));
+        }
+        return instances;
+    }
+
+}
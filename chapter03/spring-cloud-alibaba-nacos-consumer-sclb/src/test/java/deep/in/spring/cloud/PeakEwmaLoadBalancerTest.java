@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+
+/**
+ * Power of Two Choices 的选择结果以及对冲请求排除主请求实例。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class PeakEwmaLoadBalancerTest {
+
+    private static final int ROUNDS = 1000;
+
+    private final LoadBalancerStats stats = new LoadBalancerStats();
+
+    private final PeakEwmaLoadBalancer loadBalancer = new PeakEwmaLoadBalancer(null, "nacos-provider-lb", stats);
+
+    @Test
+    public void testLowerLatency() {
+        List<ServiceInstance> instances = instances(2);
+        slow(instances.get(0), 100);
+        slow(instances.get(1), 10);
+        for (int i = 0; i < ROUNDS; i++) {
+            Assert.assertSame(instances.get(1), loadBalancer.choose(instances));
+        }
+    }
+
+    @Test
+    public void testInFlight() {
+        List<ServiceInstance> instances = instances(2);
+        slow(instances.get(0), 10);
+        slow(instances.get(1), 10);
+        // 延迟相同时，处理中请求多的实例代价更高
+        stats(instances.get(0)).start();
+        for (int i = 0; i < ROUNDS; i++) {
+            Assert.assertSame(instances.get(1), loadBalancer.choose(instances));
+        }
+    }
+
+    @Test
+    public void testWeight() {
+        List<ServiceInstance> instances = new ArrayList<>();
+        instances.add(instance(0, null));
+        instances.add(instance(1, Collections.singletonMap(PeakEwmaLoadBalancer.NACOS_WEIGHT, "4")));
+        // 延迟是另一个实例的 2 倍，权重是 4 倍，仍然更优
+        slow(instances.get(0), 10);
+        slow(instances.get(1), 20);
+        for (int i = 0; i < ROUNDS; i++) {
+            Assert.assertSame(instances.get(1), loadBalancer.choose(instances));
+        }
+    }
+
+    @Test
+    public void testZeroWeight() {
+        List<ServiceInstance> instances = new ArrayList<>();
+        instances.add(instance(0, Collections.singletonMap(PeakEwmaLoadBalancer.WEIGHT, "0")));
+        instances.add(instance(1, null));
+        slow(instances.get(1), 100);
+        for (int i = 0; i < ROUNDS; i++) {
+            Assert.assertSame(instances.get(1), loadBalancer.choose(instances));
+        }
+        // 没得选时仍然会被选中
+        Assert.assertSame(instances.get(0), loadBalancer.choose(instances.subList(0, 1)));
+    }
+
+    @Test
+    public void testInvalidWeight() {
+        List<ServiceInstance> instances = new ArrayList<>();
+        instances.add(instance(0, Collections.singletonMap(PeakEwmaLoadBalancer.NACOS_WEIGHT, "abc")));
+        instances.add(instance(1, null));
+        // 格式不对按默认权重 1 处理，延迟低的实例胜出
+        slow(instances.get(0), 10);
+        slow(instances.get(1), 20);
+        for (int i = 0; i < ROUNDS; i++) {
+            Assert.assertSame(instances.get(0), loadBalancer.choose(instances));
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        List<ServiceInstance> instances = instances(10);
+        for (int i = 0; i < 9; i++) {
+            slow(instances.get(i), 10);
+        }
+        slow(instances.get(9), 1000);
+        Map<ServiceInstance, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ROUNDS * 10; i++) {
+            counts.merge(loadBalancer.choose(instances), 1, Integer::sum);
+        }
+        // 最慢的实例总会输给另一个随机选中的实例，其余实例都能分到流量
+        Assert.assertNull(counts.get(instances.get(9)));
+        Assert.assertEquals(9, counts.size());
+    }
+
+    @Test
+    public void testExcluded() {
+        for (int size = 2; size <= 5; size++) {
+            List<ServiceInstance> instances = instances(size);
+            ServiceInstance excluded = instances.get(0);
+            // 被排除的实例延迟最低，也不能被选中
+            for (int i = 1; i < size; i++) {
+                slow(instances.get(i), 100);
+            }
+            for (int i = 0; i < ROUNDS; i++) {
+                ServiceInstance chosen = loadBalancer.choose(instances, address(excluded));
+                Assert.assertNotSame(excluded, chosen);
+            }
+        }
+    }
+
+    @Test
+    public void testExcludedSingleInstance() {
+        List<ServiceInstance> instances = instances(1);
+        // 没有其他实例可选时仍然返回它
+        Assert.assertSame(instances.get(0), loadBalancer.choose(instances, address(instances.get(0))));
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertNull(loadBalancer.choose(new ArrayList<>(), null));
+    }
+
+    private void slow(ServiceInstance instance, long millis) {
+        LoadBalancerStats.InstanceStats instanceStats = stats(instance);
+        long start = instanceStats.start();
+        instanceStats.end(start - TimeUnit.MILLISECONDS.toNanos(millis), true);
+    }
+
+    private LoadBalancerStats.InstanceStats stats(ServiceInstance instance) {
+        return stats.getInstanceStats(instance.getHost(), instance.getPort());
+    }
+
+    private static List<ServiceInstance> instances(int size) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            instances.add(instance(i, null));
+        }
+        return instances;
+    }
+
+    private static ServiceInstance instance(int i, Map<String, String> metadata) {
+        return new DefaultServiceInstance("instance-" + i, "nacos-provider-lb", "192.168.0." + i, 8080, false,
+            metadata);
+    }
+
+    private static String address(ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+}
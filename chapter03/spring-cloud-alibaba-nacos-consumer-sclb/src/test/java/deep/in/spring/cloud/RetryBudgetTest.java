@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 重试预算的存入、消耗、上限和按时间补充。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RetryBudgetTest {
+
+    @Test
+    public void testStartsFull() {
+        RetryBudget budget = new RetryBudget(0.1, 0, 2);
+        Assert.assertEquals(2.0, budget.getBalance(), 0);
+        Assert.assertTrue(budget.tryWithdraw());
+        Assert.assertTrue(budget.tryWithdraw());
+        Assert.assertFalse(budget.tryWithdraw());
+        Assert.assertEquals(0.0, budget.getBalance(), 0);
+    }
+
+    @Test
+    public void testDeposit() {
+        RetryBudget budget = new RetryBudget(0.5, 0, 1);
+        Assert.assertTrue(budget.tryWithdraw());
+
+        budget.deposit();
+        Assert.assertEquals(0.5, budget.getBalance(), 0);
+        // 不足一个令牌不能重试
+        Assert.assertFalse(budget.tryWithdraw());
+
+        budget.deposit();
+        Assert.assertTrue(budget.tryWithdraw());
+        Assert.assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testMaxBalance() {
+        RetryBudget budget = new RetryBudget(1, 0, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+        Assert.assertEquals(2.0, budget.getBalance(), 0);
+    }
+
+    @Test
+    public void testZeroBudget() {
+        RetryBudget budget = new RetryBudget(0, 0, 0);
+        budget.deposit();
+        Assert.assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        RetryBudget budget = new RetryBudget(0, 1000, 1);
+        Assert.assertTrue(budget.tryWithdraw());
+
+        Thread.sleep(20);
+        // 每秒补充 1000 个，20ms 足够补满 1 个
+        Assert.assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    public void testRefillAfterLongIdle() {
+        RetryBudget budget = new RetryBudget(0, 10, 100);
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(budget.tryWithdraw(now));
+        }
+        Assert.assertFalse(budget.tryWithdraw(now));
+
+        // 空闲 30 天，(now - last) * refillPerSecond 会超出 long 的范围
+        now += TimeUnit.DAYS.toNanos(30);
+        Assert.assertTrue(budget.tryWithdraw(now));
+        Assert.assertEquals(99.0, budget.getBalance(), 0);
+
+        // 之后仍然按时间补充
+        for (int i = 0; i < 99; i++) {
+            Assert.assertTrue(budget.tryWithdraw(now));
+        }
+        Assert.assertFalse(budget.tryWithdraw(now));
+        Assert.assertTrue(budget.tryWithdraw(now + TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.loadbalancer.core.ServiceInstanceListSupplier;
+import reactor.core.publisher.Flux;
+
+/**
+ * 三个 zone、每个 zone 4 个实例，模拟实例故障时的 zone 选择。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ZonePreferenceServiceInstanceListSupplierTest {
+
+    private static final String[] ZONES = {"zone-a", "zone-b", "zone-c"};
+
+    private static final int INSTANCES_PER_ZONE = 4;
+
+    @Test
+    public void testPreferLocalZone() {
+        List<ServiceInstance> result = supplier(instances(new boolean[12])).get().blockFirst();
+        Assert.assertEquals(INSTANCES_PER_ZONE, result.size());
+        for (ServiceInstance instance : result) {
+            Assert.assertEquals("zone-a", instance.getMetadata().get("zone"));
+        }
+    }
+
+    @Test
+    public void testSpillOverWhenLocalCapacityLow() {
+        boolean[] down = new boolean[12];
+        // zone-a 挂掉 1 个: 3 >= 11 / 3 * 0.7，仍然只用本 zone
+        down[0] = true;
+        Assert.assertEquals(3, supplier(instances(down)).get().blockFirst().size());
+        // zone-a 挂掉 2 个: 2 < 10 / 3 * 0.7，溢出到所有 zone 的健康实例
+        down[1] = true;
+        Assert.assertEquals(10, supplier(instances(down)).get().blockFirst().size());
+        // zone-a 全部挂掉
+        down[2] = true;
+        down[3] = true;
+        Assert.assertEquals(8, supplier(instances(down)).get().blockFirst().size());
+    }
+
+    @Test
+    public void testNoZoneConfigured() {
+        ZonePreferenceServiceInstanceListSupplier supplier =
+            new ZonePreferenceServiceInstanceListSupplier(delegate(instances(new boolean[12])), null);
+        Assert.assertEquals(12, supplier.get().blockFirst().size());
+    }
+
+    @Test
+    public void testAllUnhealthy() {
+        boolean[] down = new boolean[12];
+        Arrays.fill(down, true);
+        Assert.assertEquals(12, supplier(instances(down)).get().blockFirst().size());
+    }
+
+    @Test
+    public void testSimulation() {
+        Random random = new Random(42);
+        int crossZone = 0;
+        int requests = 0;
+        boolean[] down = new boolean[12];
+        for (int round = 0; round < 1000; round++) {
+            // 每轮每个实例有 10% 的概率故障，故障的实例有 30% 的概率恢复
+            for (int i = 0; i < down.length; i++) {
+                down[i] = down[i] ? random.nextDouble() >= 0.3 : random.nextDouble() < 0.1;
+            }
+
+            List<ServiceInstance> candidates = supplier(instances(down)).get().blockFirst();
+            int localHealthy = 0;
+            int healthy = 0;
+            for (int i = 0; i < down.length; i++) {
+                if (!down[i]) {
+                    healthy++;
+                    if (i < INSTANCES_PER_ZONE) {
+                        localHealthy++;
+                    }
+                }
+            }
+            for (int i = 0; i < 10; i++) {
+                ServiceInstance chosen = candidates.get(random.nextInt(candidates.size()));
+                requests++;
+                if (healthy > 0) {
+                    Assert.assertNotEquals("false", chosen.getMetadata().get("nacos.healthy"));
+                }
+                if (!"zone-a".equals(chosen.getMetadata().get("zone"))) {
+                    crossZone++;
+                    // 只有本 zone 容量不足时才会跨 zone
+                    Assert.assertTrue(localHealthy < healthy / 3.0 * 0.7);
+                }
+            }
+        }
+        System.out.println("cross zone requests: " + crossZone + "/" + requests);
+        Assert.assertTrue(crossZone < requests / 5);
+    }
+
+    private static ZonePreferenceServiceInstanceListSupplier supplier(List<ServiceInstance> instances) {
+        return new ZonePreferenceServiceInstanceListSupplier(delegate(instances), "zone-a");
+    }
+
+    private static ServiceInstanceListSupplier delegate(List<ServiceInstance> instances) {
+        return new ServiceInstanceListSupplier() {
+            @Override
+            public String getServiceId() {
+                return "nacos-provider-lb";
+            }
+
+            @Override
+            public Flux<List<ServiceInstance>> get() {
+                return Flux.just(instances);
+            }
+        };
+    }
+
+    private static List<ServiceInstance> instances(boolean[] down) {
+        List<ServiceInstance> instances = new ArrayList<>();
+        for (int z = 0; z < ZONES.length; z++) {
+            for (int i = 0; i < INSTANCES_PER_ZONE; i++) {
+                int index = z * INSTANCES_PER_ZONE + i;
+                Map<String, String> metadata = new HashMap<>();
+                metadata.put("zone", ZONES[z]);
+                metadata.put("nacos.healthy", String.valueOf(!down[index]));
+                instances.add(new DefaultServiceInstance("instance-" + index, "nacos-provider-lb",
+                    "192.168.0." + index, 8080, false, metadata));
+            }
+        }
+        return instances;
+    }
+
+}
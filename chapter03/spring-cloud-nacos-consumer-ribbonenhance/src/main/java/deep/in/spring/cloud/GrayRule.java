@@ -19,12 +19,16 @@ package deep.in.spring.cloud;
 import com.alibaba.cloud.nacos.ribbon.NacosServer;
 import com.netflix.client.config.IClientConfig;
 import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.ILoadBalancer;
 import com.netflix.loadbalancer.Server;
 import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @RibbonClients(defaultConfiguration = {GrayRule.class})
@@ -33,13 +37,29 @@ import java.util.Random;
  */
 public class GrayRule extends AbstractLoadBalancerRule {
 
-    private Random random = new Random();
+    private volatile ServerPartitions partitions;
+
+    private volatile List<Server> allServers = Collections.emptyList();
 
     @Override
     public void initWithNiwsConfig(IClientConfig clientConfig) {
 
     }
 
+    @Override
+    public void setLoadBalancer(ILoadBalancer lb) {
+        super.setLoadBalancer(lb);
+        if (lb instanceof BaseLoadBalancer) {
+            // 服务列表或者服务健康状态变化时才重新划分灰度/正常实例，choose 时直接使用划分好的快照
+            BaseLoadBalancer baseLoadBalancer = (BaseLoadBalancer) lb;
+            // BaseLoadBalancer 在更新 allServerList/upServerList 之前通知 ServerListChangeListener，
+            // 所以直接使用监听器传入的新列表，而不是从 lb 中重新读取
+            baseLoadBalancer.addServerListChangeListener((oldList, newList) -> refreshPartitions(newList));
+            baseLoadBalancer.addServerStatusChangeListener(servers -> refreshPartitions(allServers));
+            refreshPartitions(baseLoadBalancer.getAllServers());
+        }
+    }
+
     // 重写IRule#choose方法，进行灰度调用控制
     // 进行灰度发布的服务，通过元数据直接筛选出原来后进行随机访问
     @Override
@@ -51,26 +71,74 @@ public class GrayRule extends AbstractLoadBalancerRule {
                 grayInvocation = true;
             }
 
-            List<Server> serverList = this.getLoadBalancer().getReachableServers();
+            ServerPartitions current = partitions;
+            // 不是 BaseLoadBalancer 时无法监听服务列表变化；跳过 ping 时实例在通知之后才被标记为 alive，快照可能为空。
+            // 这两种情况都从 lb 重新划分
+            if (current == null || current.isEmpty()) {
+                current = ServerPartitions.of(this.getLoadBalancer().getReachableServers());
+            }
+
+            Server[] servers = grayInvocation ? current.grayServers : current.normalServers;
+            if (servers.length == 0 && grayInvocation) { // 没有灰度实例时降级到正常实例，正常请求不会打到灰度实例
+                servers = current.normalServers;
+            }
+            if (servers.length == 0) {
+                return null;
+            }
+            return servers[ThreadLocalRandom.current().nextInt(servers.length)];
+        } finally {
+            RibbonRequestContextHolder.clearContext();
+        }
+    }
+
+    private synchronized void refreshPartitions(List<Server> servers) {
+        allServers = servers;
+        partitions = ServerPartitions.of(servers);
+    }
+
+    /**
+     * 灰度/正常实例的不可变快照。
+     */
+    private static final class ServerPartitions {
+
+        final Server[] grayServers;
+
+        final Server[] normalServers;
+
+        private ServerPartitions(Server[] grayServers, Server[] normalServers) {
+            this.grayServers = grayServers;
+            this.normalServers = normalServers;
+        }
+
+        static ServerPartitions of(List<Server> serverList) {
             List<Server> grayServerList = new ArrayList<>();
             List<Server> normalServerList = new ArrayList<>();
             for(Server server : serverList) {
-                NacosServer nacosServer = (NacosServer) server;
-                if(nacosServer.getMetadata().containsKey("gray") && nacosServer.getMetadata().get("gray").equals("true")) {
+                if (!server.isAlive()) {
+                    continue;
+                }
+                if (isGray(server)) {
                     grayServerList.add(server);
                 } else {
                     normalServerList.add(server);
                 }
             }
+            return new ServerPartitions(grayServerList.toArray(new Server[0]),
+                normalServerList.toArray(new Server[0]));
+        }
+
+        boolean isEmpty() {
+            return grayServers.length == 0 && normalServers.length == 0;
+        }
 
-            if(grayInvocation) {
-                return grayServerList.get(random.nextInt(grayServerList.size()));
-            } else {
-                return normalServerList.get(random.nextInt(normalServerList.size()));
+        private static boolean isGray(Server server) {
+            if (!(server instanceof NacosServer)) {
+                return false;
             }
-        } finally {
-            RibbonRequestContextHolder.clearContext();
+            Map<String, String> metadata = ((NacosServer) server).getMetadata();
+            return metadata != null && "true".equals(metadata.get("gray"));
         }
+
     }
 
 }
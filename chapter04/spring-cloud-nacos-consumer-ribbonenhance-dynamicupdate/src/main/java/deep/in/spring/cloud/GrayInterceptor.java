@@ -22,8 +22,6 @@ import org.springframework.http.HttpRequest;
 import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
 import org.springframework.http.client.ClientHttpResponse;
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
@@ -39,22 +37,9 @@ public class GrayInterceptor implements ClientHttpRequestInterceptor {
     @Override
     public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
         throws IOException {
-        if (rule.getType().equalsIgnoreCase("header")) {
-            if (request.getHeaders().containsKey(rule.getName())) {
-                String value = request.getHeaders().get(rule.getName()).iterator().next();
-                if (value.equals(rule.getValue())) {
-                    RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
-                }
-            }
-        } else if (rule.getType().equalsIgnoreCase("param")) {
-            String query = request.getURI().getQuery();
-            String[] queryKV = query.split("&");
-            for(String queryItem : queryKV) {
-                String[] queryInfo = queryItem.split("=");
-                if (queryInfo[0].equalsIgnoreCase(rule.getName()) && queryInfo[1].equals(rule.getValue())) {
-                    RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
-                }
-            }
+        GrayMatcher matcher = rule.getGrayMatcher();
+        if (!matcher.isEmpty() && matcher.matches(request.getHeaders(), request.getURI().getRawQuery())) {
+            RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
         }
         return execution.execute(request, body);
     }
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * 由 {@link TrafficRule} 编译得到的不可变匹配器。
+ * <p>
+ * 规则按类型拆分成 header/param/cookie 三组数组，匹配时不再比较规则类型字符串。
+ * query string 和 Cookie 头直接在原始字符串上按下标扫描，不做 split，正常情况下匹配过程不分配对象；
+ * 只有 query 中的 key/value 经过了 URL 编码(包含 '%' 或 '+')时才会解码后再比较。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public final class GrayMatcher {
+
+    public static final GrayMatcher NONE = new GrayMatcher(new String[0], new String[0], new String[0],
+        new String[0], new String[0], new String[0]);
+
+    private final String[] headerNames;
+
+    private final String[] headerValues;
+
+    private final String[] paramNames;
+
+    private final String[] paramValues;
+
+    private final String[] cookieNames;
+
+    private final String[] cookieValues;
+
+    private GrayMatcher(String[] headerNames, String[] headerValues, String[] paramNames, String[] paramValues,
+                        String[] cookieNames, String[] cookieValues) {
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.paramNames = paramNames;
+        this.paramValues = paramValues;
+        this.cookieNames = cookieNames;
+        this.cookieValues = cookieValues;
+    }
+
+    public static GrayMatcher compile(List<TrafficRule.Matcher> matchers) {
+        List<String> headerNames = new ArrayList<>();
+        List<String> headerValues = new ArrayList<>();
+        List<String> paramNames = new ArrayList<>();
+        List<String> paramValues = new ArrayList<>();
+        List<String> cookieNames = new ArrayList<>();
+        List<String> cookieValues = new ArrayList<>();
+        for (TrafficRule.Matcher matcher : matchers) {
+            if (matcher.getType() == null || matcher.getName() == null || matcher.getValue() == null) {
+                throw new IllegalArgumentException("type, name and value of traffic rule are required: " + matcher);
+            }
+            if (matcher.getType().equalsIgnoreCase("header")) {
+                headerNames.add(matcher.getName());
+                headerValues.add(matcher.getValue());
+            } else if (matcher.getType().equalsIgnoreCase("param")) {
+                paramNames.add(matcher.getName());
+                paramValues.add(matcher.getValue());
+            } else if (matcher.getType().equalsIgnoreCase("cookie")) {
+                cookieNames.add(matcher.getName());
+                cookieValues.add(matcher.getValue());
+            } else {
+                throw new IllegalArgumentException("unsupported traffic rule type: " + matcher.getType());
+            }
+        }
+        if (headerNames.isEmpty() && paramNames.isEmpty() && cookieNames.isEmpty()) {
+            return NONE;
+        }
+        return new GrayMatcher(toArray(headerNames), toArray(headerValues), toArray(paramNames),
+            toArray(paramValues), toArray(cookieNames), toArray(cookieValues));
+    }
+
+    /**
+     * RestTemplate 请求：header 和 Cookie 从 HttpHeaders 中读取，param 从原始 query string(URI#getRawQuery)中扫描。
+     */
+    public boolean matches(HttpHeaders headers, String rawQuery) {
+        for (int index = 0; index < headerNames.length; index++) {
+            String value = headers.getFirst(headerNames[index]);
+            if (value != null && value.equals(headerValues[index])) {
+                return true;
+            }
+        }
+        if (paramNames.length > 0 && rawQuery != null && matchQuery(rawQuery)) {
+            return true;
+        }
+        if (cookieNames.length > 0) {
+            List<String> cookies = headers.get(HttpHeaders.COOKIE);
+            if (cookies != null) {
+                for (int index = 0; index < cookies.size(); index++) {
+                    if (matchCookie(cookies.get(index))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * OpenFeign 请求：RequestTemplate 中的 header 和 query 已经解析成 Map。
+     */
+    public boolean matches(Map<String, Collection<String>> headers, Map<String, Collection<String>> queries) {
+        for (int index = 0; index < headerNames.length; index++) {
+            if (firstEquals(headers.get(headerNames[index]), headerValues[index])) {
+                return true;
+            }
+        }
+        for (int index = 0; index < paramNames.length; index++) {
+            if (firstEquals(queries.get(paramNames[index]), paramValues[index])) {
+                return true;
+            }
+        }
+        if (cookieNames.length > 0) {
+            Collection<String> cookies = headers.get(HttpHeaders.COOKIE);
+            if (cookies != null) {
+                for (String cookie : cookies) {
+                    if (matchCookie(cookie)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return this == NONE;
+    }
+
+    // 扫描 a=1&b=2 形式的 query string，参数名忽略大小写，参数值精确匹配
+    private boolean matchQuery(String query) {
+        int length = query.length();
+        int start = 0;
+        while (start < length) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = length;
+            }
+            int eq = query.indexOf('=', start);
+            if (eq > start && eq < end && matchParam(query, start, eq, end)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private boolean matchParam(String query, int start, int eq, int end) {
+        if (needsDecode(query, start, end)) {
+            String name = decode(query.substring(start, eq));
+            String value = decode(query.substring(eq + 1, end));
+            for (int index = 0; index < paramNames.length; index++) {
+                if (paramNames[index].equalsIgnoreCase(name) && paramValues[index].equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int index = 0; index < paramNames.length; index++) {
+            if (regionEquals(query, start, eq, paramNames[index], true)
+                && regionEquals(query, eq + 1, end, paramValues[index], false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 扫描 a=1; b=2 形式的 Cookie 头，cookie 名和值都精确匹配
+    private boolean matchCookie(String cookie) {
+        int length = cookie.length();
+        int start = 0;
+        while (start < length) {
+            int end = cookie.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+            while (start < end && cookie.charAt(start) == ' ') {
+                start++;
+            }
+            int eq = cookie.indexOf('=', start);
+            if (eq > start && eq < end) {
+                for (int index = 0; index < cookieNames.length; index++) {
+                    if (regionEquals(cookie, start, eq, cookieNames[index], false)
+                        && regionEquals(cookie, eq + 1, end, cookieValues[index], false)) {
+                        return true;
+                    }
+                }
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static boolean regionEquals(String source, int start, int end, String expected, boolean ignoreCase) {
+        return end - start == expected.length() && source.regionMatches(ignoreCase, start, expected, 0, end - start);
+    }
+
+    private static boolean needsDecode(String source, int start, int end) {
+        for (int index = start; index < end; index++) {
+            char c = source.charAt(index);
+            if (c == '%' || c == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String decode(String source) {
+        try {
+            return URLDecoder.decode(source, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return source;
+        }
+    }
+
+    private static boolean firstEquals(Collection<String> values, String expected) {
+        return values != null && !values.isEmpty() && expected.equals(values.iterator().next());
+    }
+
+    private static String[] toArray(List<String> list) {
+        return list.toArray(new String[0]);
+    }
+
+}
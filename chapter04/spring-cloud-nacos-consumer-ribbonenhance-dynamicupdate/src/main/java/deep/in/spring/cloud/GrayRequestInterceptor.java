@@ -32,20 +32,9 @@ public class GrayRequestInterceptor implements RequestInterceptor {
 
     @Override
     public void apply(RequestTemplate template) {
-        if (rule.getType().equalsIgnoreCase("header")) {
-            if (template.headers().containsKey(rule.getName())) {
-                String value = template.headers().get(rule.getName()).iterator().next();
-                if (value.equals(rule.getValue())) {
-                    RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
-                }
-            }
-        } else if (rule.getType().equalsIgnoreCase("param")) {
-            if (template.queries().containsKey(rule.getName())) {
-                String value = template.queries().get(rule.getName()).iterator().next();
-                if (value.equals(rule.getValue())) {
-                    RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
-                }
-            }
+        GrayMatcher matcher = rule.getGrayMatcher();
+        if (!matcher.isEmpty() && matcher.matches(template.headers(), template.queries())) {
+            RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
         }
     }
 }
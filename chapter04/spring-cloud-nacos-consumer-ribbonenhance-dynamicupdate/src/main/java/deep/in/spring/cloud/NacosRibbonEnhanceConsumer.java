@@ -16,6 +16,10 @@
 
 package deep.in.spring.cloud;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import javax.servlet.http.HttpServletRequest;
 
 import com.netflix.loadbalancer.IRule;
@@ -71,6 +75,16 @@ public class NacosRibbonEnhanceConsumer {
         return new GrayRule();
     }
 
+    @Bean
+    public RibbonRequestContextHystrixConcurrencyStrategy ribbonRequestContextHystrixConcurrencyStrategy() {
+        return RibbonRequestContextHystrixConcurrencyStrategy.register();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService grayExecutor() {
+        return new RibbonRequestContextExecutorService(Executors.newFixedThreadPool(8));
+    }
+
     @RestController
     class HelloController {
 
@@ -80,6 +94,9 @@ public class NacosRibbonEnhanceConsumer {
         @Autowired
         private EchoService echoService;
 
+        @Autowired
+        private ExecutorService grayExecutor;
+
         private String serviceName = "nacos-traffic-service";
 
         @GetMapping("/echo")
@@ -100,6 +117,20 @@ public class NacosRibbonEnhanceConsumer {
             return echoService.echo("false");
         }
 
+        @GetMapping("/echoAsync")
+        public CompletableFuture<String> echoAsync(HttpServletRequest request) {
+            // 灰度标记只放在请求上下文里，由 grayExecutor 带到异步线程
+            if (Boolean.TRUE.toString().equals(request.getHeader("Gray"))) {
+                RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
+            }
+            try {
+                return CompletableFuture.supplyAsync(
+                    () -> restTemplate.getForObject("http://" + serviceName + "/", String.class), grayExecutor);
+            } finally {
+                RibbonRequestContextHolder.clearContext();
+            }
+        }
+
     }
 
     @FeignClient(name = "nacos-traffic-service")
@@ -18,24 +18,98 @@ package deep.in.spring.cloud;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * 请求上下文。key 在第一次使用时分配一个固定槽位，每个请求只需要一个很小的定长数组，
+ * 复制到异步线程时也只是一次数组拷贝。槽位用完之后新的 key 保存在每个上下文自己的 HashMap 中。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 public class RibbonRequestContext {
 
-    private final Map<String, String> attr = new HashMap<>();
+    static final int MAX_SLOTS = 8;
+
+    private static final Map<String, Integer> SLOTS = new ConcurrentHashMap<>();
+
+    private final String[] values;
+
+    // 没有分配到槽位的 key，用到时才创建
+    private Map<String, String> overflow;
+
+    public RibbonRequestContext() {
+        this.values = new String[MAX_SLOTS];
+    }
+
+    private RibbonRequestContext(String[] values, Map<String, String> overflow) {
+        this.values = values;
+        this.overflow = overflow;
+    }
 
     public String put(String key, String value) {
-        return attr.put(key, value);
+        int slot = slotOf(key);
+        if (slot < 0) {
+            if (value == null) {
+                return remove(key);
+            }
+            if (overflow == null) {
+                overflow = new HashMap<>();
+            }
+            return overflow.put(key, value);
+        }
+        String old = values[slot];
+        values[slot] = value;
+        return old;
     }
 
     public String remove(String key) {
-        return attr.remove(key);
+        Integer slot = SLOTS.get(key);
+        if (slot == null) {
+            return overflow == null ? null : overflow.remove(key);
+        }
+        String old = values[slot];
+        values[slot] = null;
+        return old;
     }
 
     public String get(String key) {
-        return attr.get(key);
+        Integer slot = SLOTS.get(key);
+        if (slot == null) {
+            return overflow == null ? null : overflow.get(key);
+        }
+        return values[slot];
+    }
+
+    public boolean isEmpty() {
+        for (String value : values) {
+            if (value != null) {
+                return false;
+            }
+        }
+        return overflow == null || overflow.isEmpty();
+    }
+
+    public RibbonRequestContext copy() {
+        return new RibbonRequestContext(values.clone(), overflow == null ? null : new HashMap<>(overflow));
+    }
+
+    // 槽位用完时返回 -1。槽位表只增不减，一个 key 要么始终有槽位，要么始终保存在 overflow 中
+    private static int slotOf(String key) {
+        Integer slot = SLOTS.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (SLOTS) {
+            slot = SLOTS.get(key);
+            if (slot == null) {
+                if (SLOTS.size() >= MAX_SLOTS) {
+                    return -1;
+                }
+                slot = SLOTS.size();
+                SLOTS.put(key, slot);
+            }
+            return slot;
+        }
     }
 
 }
@@ -16,20 +16,22 @@
 
 package deep.in.spring.cloud;
 
+import java.util.concurrent.Callable;
+
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 public class RibbonRequestContextHolder {
 
-    private static ThreadLocal<RibbonRequestContext> holder = new ThreadLocal<RibbonRequestContext>() {
-        @Override
-        protected RibbonRequestContext initialValue() {
-            return new RibbonRequestContext();
-        }
-    };
+    private static ThreadLocal<RibbonRequestContext> holder = new ThreadLocal<>();
 
     public static RibbonRequestContext getCurrentContext() {
-        return holder.get();
+        RibbonRequestContext context = holder.get();
+        if (context == null) {
+            context = new RibbonRequestContext();
+            holder.set(context);
+        }
+        return context;
     }
 
     public static void setCurrentContext(RibbonRequestContext context) {
@@ -40,4 +42,52 @@ public class RibbonRequestContextHolder {
         holder.remove();
     }
 
+    /**
+     * 复制当前线程的上下文，当前线程没有上下文时返回 null。
+     */
+    public static RibbonRequestContext capture() {
+        RibbonRequestContext context = holder.get();
+        return context == null || context.isEmpty() ? null : context.copy();
+    }
+
+    /**
+     * 把 context 设置到当前线程 (null 表示清空)，返回之前的上下文，用于执行结束后恢复。
+     */
+    public static RibbonRequestContext restore(RibbonRequestContext context) {
+        RibbonRequestContext previous = holder.get();
+        if (context == null) {
+            holder.remove();
+        } else {
+            holder.set(context);
+        }
+        return previous;
+    }
+
+    // 在提交任务的线程捕获上下文，任务执行时设置到执行线程，执行完恢复执行线程原来的上下文
+    // 即使没有上下文也要包装，避免线程池里的线程残留上一个任务的灰度标记
+
+    public static Runnable wrap(Runnable task) {
+        RibbonRequestContext snapshot = capture();
+        return () -> {
+            RibbonRequestContext previous = restore(snapshot == null ? null : snapshot.copy());
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        RibbonRequestContext snapshot = capture();
+        return () -> {
+            RibbonRequestContext previous = restore(snapshot == null ? null : snapshot.copy());
+            try {
+                return task.call();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.hystrix.HystrixThreadPoolKey;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+import com.netflix.hystrix.strategy.HystrixPlugins;
+import com.netflix.hystrix.strategy.concurrency.HystrixConcurrencyStrategy;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariable;
+import com.netflix.hystrix.strategy.concurrency.HystrixRequestVariableLifecycle;
+import com.netflix.hystrix.strategy.eventnotifier.HystrixEventNotifier;
+import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
+import com.netflix.hystrix.strategy.metrics.HystrixMetricsPublisher;
+import com.netflix.hystrix.strategy.properties.HystrixPropertiesStrategy;
+import com.netflix.hystrix.strategy.properties.HystrixProperty;
+
+/**
+ * Hystrix 线程池隔离时命令在 Hystrix 线程中执行，通过 wrapCallable 把调用线程的
+ * {@link RibbonRequestContext} 带到 Hystrix 线程，GrayRule 才能拿到灰度标记。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RibbonRequestContextHystrixConcurrencyStrategy extends HystrixConcurrencyStrategy {
+
+    private final HystrixConcurrencyStrategy delegate;
+
+    private RibbonRequestContextHystrixConcurrencyStrategy(HystrixConcurrencyStrategy delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 注册到 HystrixPlugins，已经注册过的其他 ConcurrencyStrategy 会作为 delegate 保留。
+     */
+    public static synchronized RibbonRequestContextHystrixConcurrencyStrategy register() {
+        HystrixPlugins plugins = HystrixPlugins.getInstance();
+        HystrixConcurrencyStrategy existing = plugins.getConcurrencyStrategy();
+        if (existing instanceof RibbonRequestContextHystrixConcurrencyStrategy) {
+            return (RibbonRequestContextHystrixConcurrencyStrategy) existing;
+        }
+        // HystrixPlugins 每种插件只能注册一次，需要 reset 之后再把其他插件注册回去
+        HystrixCommandExecutionHook commandExecutionHook = plugins.getCommandExecutionHook();
+        HystrixEventNotifier eventNotifier = plugins.getEventNotifier();
+        HystrixMetricsPublisher metricsPublisher = plugins.getMetricsPublisher();
+        HystrixPropertiesStrategy propertiesStrategy = plugins.getPropertiesStrategy();
+        HystrixPlugins.reset();
+
+        RibbonRequestContextHystrixConcurrencyStrategy strategy =
+            new RibbonRequestContextHystrixConcurrencyStrategy(existing);
+        plugins = HystrixPlugins.getInstance();
+        plugins.registerConcurrencyStrategy(strategy);
+        plugins.registerCommandExecutionHook(commandExecutionHook);
+        plugins.registerEventNotifier(eventNotifier);
+        plugins.registerMetricsPublisher(metricsPublisher);
+        plugins.registerPropertiesStrategy(propertiesStrategy);
+        return strategy;
+    }
+
+    @Override
+    public <T> Callable<T> wrapCallable(Callable<T> callable) {
+        // wrapCallable 在调用线程执行，这里捕获上下文
+        return delegate.wrapCallable(RibbonRequestContextHolder.wrap(callable));
+    }
+
+    @Override
+    public ThreadPoolExecutor getThreadPool(HystrixThreadPoolKey threadPoolKey,
+                                            HystrixProperty<Integer> corePoolSize,
+                                            HystrixProperty<Integer> maximumPoolSize,
+                                            HystrixProperty<Integer> keepAliveTime,
+                                            TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+        return delegate.getThreadPool(threadPoolKey, corePoolSize, maximumPoolSize, keepAliveTime, unit,
+            workQueue);
+    }
+
+    @Override
+    public ThreadPoolExecutor getThreadPool(HystrixThreadPoolKey threadPoolKey,
+                                            HystrixThreadPoolProperties threadPoolProperties) {
+        return delegate.getThreadPool(threadPoolKey, threadPoolProperties);
+    }
+
+    @Override
+    public BlockingQueue<Runnable> getBlockingQueue(int maxQueueSize) {
+        return delegate.getBlockingQueue(maxQueueSize);
+    }
+
+    @Override
+    public <T> HystrixRequestVariable<T> getRequestVariable(HystrixRequestVariableLifecycle<T> rv) {
+        return delegate.getRequestVariable(rv);
+    }
+
+}
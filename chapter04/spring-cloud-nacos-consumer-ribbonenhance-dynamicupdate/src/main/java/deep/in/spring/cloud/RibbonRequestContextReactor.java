@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.function.Function;
+
+import reactor.core.CoreSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxOperator;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoOperator;
+import reactor.util.context.Context;
+
+/**
+ * Reactor 里订阅可能发生在任意 Scheduler 的线程上，ThreadLocal 无法传递。
+ * 这里把 {@link RibbonRequestContext} 放到 Reactor 的 Context 中，订阅时再恢复到订阅线程：
+ *
+ * <pre>
+ * RibbonRequestContextReactor.decorate(Mono.defer(() -> call()))
+ *     .subscribeOn(Schedulers.parallel())
+ *     .subscriberContext(RibbonRequestContextReactor.capture());
+ * </pre>
+ *
+ * 负载均衡的 choose 发生在订阅阶段，所以只需要在 subscribe 时恢复，onNext 等信号不做处理。
+ * 上下文只在 decorate 的 subscribe 执行期间有效：subscribeOn 要放在 decorate 之外 (如上)，
+ * 放在被 decorate 的 source 里面时，choose 在切换后的线程上执行，看不到上下文。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public abstract class RibbonRequestContextReactor {
+
+    public static final Class<RibbonRequestContext> CONTEXT_KEY = RibbonRequestContext.class;
+
+    /**
+     * 在组装 (assembly) 的线程捕获当前上下文，写入 Reactor Context。
+     */
+    public static Function<Context, Context> capture() {
+        RibbonRequestContext snapshot = RibbonRequestContextHolder.capture();
+        return context -> snapshot == null ? context : context.put(CONTEXT_KEY, snapshot);
+    }
+
+    public static <T> Mono<T> decorate(Mono<T> source) {
+        return new ContextRestoringMono<>(source);
+    }
+
+    public static <T> Flux<T> decorate(Flux<T> source) {
+        return new ContextRestoringFlux<>(source);
+    }
+
+    private static RibbonRequestContext restore(CoreSubscriber<?> actual) {
+        RibbonRequestContext snapshot = actual.currentContext().getOrDefault(CONTEXT_KEY, null);
+        return RibbonRequestContextHolder.restore(snapshot == null ? null : snapshot.copy());
+    }
+
+    static final class ContextRestoringMono<T> extends MonoOperator<T, T> {
+
+        ContextRestoringMono(Mono<? extends T> source) {
+            super(source);
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super T> actual) {
+            RibbonRequestContext previous = restore(actual);
+            try {
+                source.subscribe(actual);
+            } finally {
+                RibbonRequestContextHolder.restore(previous);
+            }
+        }
+
+    }
+
+    static final class ContextRestoringFlux<T> extends FluxOperator<T, T> {
+
+        ContextRestoringFlux(Flux<? extends T> source) {
+            super(source);
+        }
+
+        @Override
+        public void subscribe(CoreSubscriber<? super T> actual) {
+            RibbonRequestContext previous = restore(actual);
+            try {
+                source.subscribe(actual);
+            } finally {
+                RibbonRequestContextHolder.restore(previous);
+            }
+        }
+
+    }
+
+}
@@ -16,13 +16,25 @@
 
 package deep.in.spring.cloud;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 /**
+ * 流量识别规则。
+ * <p>
+ * 兼容原有的单条规则配置(traffic.rule.type/name/value)，同时支持通过 traffic.rule.matchers[n] 配置多条
+ * header/param/cookie 规则，任意一条匹配即为灰度调用。
+ * <p>
+ * 配置绑定完成(包括 Nacos 配置变更后重新绑定)时在 {@link #afterPropertiesSet()} 中把规则编译成 {@link GrayMatcher}，
+ * 拦截器每次请求只读取编译好的结果。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 @ConfigurationProperties(prefix = "traffic.rule")
-public class TrafficRule {
+public class TrafficRule implements InitializingBean {
 
     private String type;
 
@@ -30,6 +42,27 @@ public class TrafficRule {
 
     private String value;
 
+    private List<Matcher> matchers = new ArrayList<>();
+
+    private volatile GrayMatcher grayMatcher = GrayMatcher.NONE;
+
+    @Override
+    public void afterPropertiesSet() {
+        List<Matcher> all = new ArrayList<>(matchers);
+        if (type != null) {
+            Matcher matcher = new Matcher();
+            matcher.setType(type);
+            matcher.setName(name);
+            matcher.setValue(value);
+            all.add(matcher);
+        }
+        this.grayMatcher = GrayMatcher.compile(all);
+    }
+
+    public GrayMatcher getGrayMatcher() {
+        return grayMatcher;
+    }
+
     public String getType() {
         return type;
     }
@@ -42,7 +75,7 @@ public class TrafficRule {
         return name;
     }
 
-    public void setRateLimiterName(String name) {
+    public void setName(String name) {
         this.name = name;
     }
 
@@ -54,12 +87,64 @@ public class TrafficRule {
         this.value = value;
     }
 
+    public List<Matcher> getMatchers() {
+        return matchers;
+    }
+
+    public void setMatchers(List<Matcher> matchers) {
+        this.matchers = matchers;
+    }
+
     @Override
     public String toString() {
         return "TrafficRule{" +
             "type='" + type + '\'' +
             ", name='" + name + '\'' +
             ", value='" + value + '\'' +
+            ", matchers=" + matchers +
             '}';
     }
+
+    public static class Matcher {
+
+        // header/param/cookie
+        private String type;
+
+        private String name;
+
+        private String value;
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public void setValue(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Matcher{" +
+                "type='" + type + '\'' +
+                ", name='" + name + '\'' +
+                ", value='" + value + '\'' +
+                '}';
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deep.in.spring.cloud;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+
+/**
+ * GrayMatcher 的 query string/Cookie 扫描：每一行是 规则、请求、期望结果。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class GrayMatcherTest {
+
+    private static final String NO_COOKIE = null;
+
+    private static final String NO_QUERY = null;
+
+    @Test
+    public void testQuery() {
+        Object[][] cases = {
+            // 规则类型/名/值, query string, 期望
+            {"param", "gray", "true", "gray=true", true},
+            {"param", "gray", "true", "a=1&gray=true&b=2", true},
+            {"param", "gray", "true", "GRAY=true", true},
+            {"param", "gray", "true", "gray=TRUE", false},
+            // 参数名/值前缀相同
+            {"param", "a", "2", "a=1&ab=2", false},
+            {"param", "ab", "2", "a=1&ab=2", true},
+            {"param", "a", "1", "ab=2&a=1", true},
+            {"param", "ab", "2", "a=2", false},
+            {"param", "gray", "true", "gray=trueish", false},
+            {"param", "gray", "true", "gray=tru", false},
+            {"param", "gray", "true", "xgray=true", false},
+            // URL 编码
+            {"param", "gray user", "a+b", "gray%20user=a%2Bb", true},
+            {"param", "gray", "a b", "gray=a+b", true},
+            {"param", "gray", "a+b", "gray=a+b", false},
+            {"param", "name", "张三", "name=%E5%BC%A0%E4%B8%89", true},
+            {"param", "gray", "%zz", "gray=%zz", true},
+            // 空值和不完整的参数
+            {"param", "gray", "", "gray=&b=2", true},
+            {"param", "gray", "", "gray", false},
+            {"param", "gray", "", "gray&b=", false},
+            {"param", "gray", "true", "gray=", false},
+            {"param", "gray", "true", "=true", false},
+            {"param", "gray", "true", "&&gray=true&", true},
+            {"param", "gray", "true", "", false},
+            {"param", "gray", "true", NO_QUERY, false},
+        };
+        for (Object[] row : cases) {
+            GrayMatcher matcher = compile((String) row[0], (String) row[1], (String) row[2]);
+            Assert.assertEquals(Arrays.toString(row), row[4],
+                matcher.matches(new HttpHeaders(), (String) row[3]));
+        }
+    }
+
+    @Test
+    public void testCookie() {
+        Object[][] cases = {
+            // 规则类型/名/值, Cookie 头, 期望
+            {"cookie", "gray", "true", "gray=true", true},
+            {"cookie", "gray", "true", "a=1; gray=true", true},
+            {"cookie", "gray", "true", "a=1;gray=true", true},
+            {"cookie", "gray", "true", "gray=true; a=1", true},
+            {"cookie", "gray", "true", "GRAY=true", false},
+            // cookie 名/值前缀相同
+            {"cookie", "a", "2", "a=1; ab=2", false},
+            {"cookie", "ab", "2", "a=1; ab=2", true},
+            {"cookie", "gray", "true", "gray=trueish", false},
+            {"cookie", "gray", "true", "xgray=true", false},
+            // Cookie 值不做 URL 解码
+            {"cookie", "gray", "a%20b", "gray=a%20b", true},
+            {"cookie", "gray", "a b", "gray=a%20b", false},
+            // 空值和不完整的 cookie
+            {"cookie", "gray", "", "gray=; a=1", true},
+            {"cookie", "gray", "", "gray; a=1", false},
+            {"cookie", "gray", "true", "gray=", false},
+            {"cookie", "gray", "true", ";; gray=true;", true},
+            {"cookie", "gray", "true", "", false},
+            {"cookie", "gray", "true", NO_COOKIE, false},
+        };
+        for (Object[] row : cases) {
+            GrayMatcher matcher = compile((String) row[0], (String) row[1], (String) row[2]);
+            HttpHeaders headers = new HttpHeaders();
+            if (row[3] != null) {
+                headers.add(HttpHeaders.COOKIE, (String) row[3]);
+            }
+            Assert.assertEquals(Arrays.toString(row), row[4], matcher.matches(headers, NO_QUERY));
+            Assert.assertEquals(Arrays.toString(row), row[4],
+                matcher.matches(singleValue(HttpHeaders.COOKIE, (String) row[3]), Collections.emptyMap()));
+        }
+    }
+
+    @Test
+    public void testMultipleCookieHeaders() {
+        GrayMatcher matcher = compile("cookie", "gray", "true");
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.COOKIE, "a=1");
+        headers.add(HttpHeaders.COOKIE, "gray=true");
+        Assert.assertTrue(matcher.matches(headers, NO_QUERY));
+    }
+
+    @Test
+    public void testMatchTypes() {
+        GrayMatcher matcher = GrayMatcher.compile(Arrays.asList(
+            matcher("header", "Gray", "true"),
+            matcher("param", "gray", "true"),
+            matcher("cookie", "gray", "true")));
+        Object[][] cases = {
+            // header 名, header 值, query string, Cookie 头, 期望
+            {"Gray", "true", NO_QUERY, NO_COOKIE, true},
+            {"gray", "true", NO_QUERY, NO_COOKIE, true},
+            {"Gray", "false", NO_QUERY, NO_COOKIE, false},
+            {"Gray", "true1", NO_QUERY, NO_COOKIE, false},
+            {null, null, "gray=true", NO_COOKIE, true},
+            {null, null, NO_QUERY, "gray=true", true},
+            {"Gray", "false", "gray=false", "gray=false", false},
+            {"X-Gray", "true", "x-gray=true", "x-gray=true", false},
+            {null, null, NO_QUERY, NO_COOKIE, false},
+        };
+        for (Object[] row : cases) {
+            HttpHeaders headers = new HttpHeaders();
+            if (row[0] != null) {
+                headers.add((String) row[0], (String) row[1]);
+            }
+            if (row[3] != null) {
+                headers.add(HttpHeaders.COOKIE, (String) row[3]);
+            }
+            Assert.assertEquals(Arrays.toString(row), row[4], matcher.matches(headers, (String) row[2]));
+        }
+    }
+
+    @Test
+    public void testFeignMatchTypes() {
+        GrayMatcher matcher = GrayMatcher.compile(Arrays.asList(
+            matcher("header", "Gray", "true"),
+            matcher("param", "gray", "true"),
+            matcher("cookie", "gray", "true")));
+        Map<String, Collection<String>> none = Collections.emptyMap();
+
+        Assert.assertTrue(matcher.matches(singleValue("Gray", "true"), none));
+        Assert.assertFalse(matcher.matches(singleValue("Gray", "false"), none));
+        Assert.assertTrue(matcher.matches(none, singleValue("gray", "true")));
+        Assert.assertFalse(matcher.matches(none, singleValue("gray", "false")));
+        Assert.assertTrue(matcher.matches(singleValue(HttpHeaders.COOKIE, "a=1; gray=true"), none));
+        Assert.assertFalse(matcher.matches(none, none));
+        // 只比较第一个值
+        Map<String, Collection<String>> queries = new HashMap<>();
+        queries.put("gray", Arrays.asList("false", "true"));
+        Assert.assertFalse(matcher.matches(none, queries));
+    }
+
+    @Test
+    public void testCompile() {
+        Assert.assertTrue(GrayMatcher.compile(Collections.emptyList()).isEmpty());
+        Assert.assertFalse(compile("HEADER", "Gray", "true").isEmpty());
+        assertRejected(matcher("path", "gray", "true"));
+        assertRejected(matcher(null, "gray", "true"));
+        assertRejected(matcher("param", null, "true"));
+        assertRejected(matcher("param", "gray", null));
+    }
+
+    private static void assertRejected(TrafficRule.Matcher matcher) {
+        try {
+            GrayMatcher.compile(Collections.singletonList(matcher));
+            Assert.fail(matcher.toString());
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    private static GrayMatcher compile(String type, String name, String value) {
+        return GrayMatcher.compile(Collections.singletonList(matcher(type, name, value)));
+    }
+
+    private static TrafficRule.Matcher matcher(String type, String name, String value) {
+        TrafficRule.Matcher matcher = new TrafficRule.Matcher();
+        matcher.setType(type);
+        matcher.setName(name);
+        matcher.setValue(value);
+        return matcher;
+    }
+
+    private static Map<String, Collection<String>> singleValue(String name, String value) {
+        if (value == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(name, Collections.singletonList(value));
+    }
+
+}
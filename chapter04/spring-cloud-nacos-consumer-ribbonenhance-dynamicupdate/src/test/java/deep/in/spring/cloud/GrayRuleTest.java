@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.alibaba.cloud.nacos.ribbon.NacosServer;
+import com.alibaba.nacos.api.naming.pojo.Instance;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.Server;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 通过 BaseLoadBalancer#setServersList 和 markServerDown 驱动 GrayRule 的实例快照。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class GrayRuleTest {
+
+    private final BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+
+    private final GrayRule rule = new GrayRule();
+
+    public GrayRuleTest() {
+        loadBalancer.setRule(rule);
+    }
+
+    @Test
+    public void testFirstServerListUpdate() {
+        Server normal = server("192.168.0.1", false, true);
+        Server gray = server("192.168.0.2", true, true);
+        loadBalancer.setServersList(Arrays.asList(normal, gray));
+
+        Assert.assertEquals(Collections.singleton(normal), choose(false));
+        Assert.assertEquals(Collections.singleton(gray), choose(true));
+    }
+
+    @Test
+    public void testServerListChange() {
+        Server normal1 = server("192.168.0.1", false, true);
+        Server normal2 = server("192.168.0.2", false, true);
+        Server gray = server("192.168.0.3", true, true);
+        loadBalancer.setServersList(Arrays.asList(normal1, gray));
+
+        // 快照使用本次的新列表，而不是上一次的列表
+        loadBalancer.setServersList(Arrays.asList(normal2, gray));
+        Assert.assertEquals(Collections.singleton(normal2), choose(false));
+
+        // 灰度实例下线后灰度请求降级到正常实例
+        loadBalancer.setServersList(Collections.singletonList(normal2));
+        Assert.assertEquals(Collections.singleton(normal2), choose(true));
+    }
+
+    @Test
+    public void testServerStatusChange() {
+        Server normal1 = server("192.168.0.1", false, true);
+        Server normal2 = server("192.168.0.2", false, true);
+        loadBalancer.setServersList(Arrays.asList(normal1, normal2));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(normal1, normal2)), choose(false));
+
+        loadBalancer.markServerDown(normal1);
+        Assert.assertEquals(Collections.singleton(normal2), choose(false));
+    }
+
+    @Test
+    public void testSkipPing() {
+        // 没有 IPing 时 BaseLoadBalancer 在通知监听器之后才把实例标记为 alive
+        Server normal = server("192.168.0.1", false, false);
+        loadBalancer.setServersList(Collections.singletonList(normal));
+        Assert.assertEquals(Collections.singleton(normal), choose(false));
+    }
+
+    @Test
+    public void testOnlyGrayServers() {
+        Server gray = server("192.168.0.1", true, true);
+        loadBalancer.setServersList(Collections.singletonList(gray));
+
+        // 没有正常实例时正常请求不能打到灰度实例
+        Assert.assertEquals(Collections.singleton(null), choose(false));
+        Assert.assertEquals(Collections.singleton(gray), choose(true));
+    }
+
+    @Test
+    public void testNoServer() {
+        Assert.assertNull(rule.choose(null));
+    }
+
+    private Set<Server> choose(boolean gray) {
+        Set<Server> chosen = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            if (gray) {
+                RibbonRequestContextHolder.getCurrentContext().put("Gray", Boolean.TRUE.toString());
+            }
+            chosen.add(rule.choose(null));
+        }
+        return chosen;
+    }
+
+    private static Server server(String ip, boolean gray, boolean alive) {
+        Instance instance = new Instance();
+        instance.setIp(ip);
+        instance.setPort(8080);
+        if (gray) {
+            instance.setMetadata(Collections.singletonMap("gray", "true"));
+        }
+        NacosServer server = new NacosServer(instance);
+        // DynamicServerListLoadBalancer 在 setServersList 之前把实例标记为 alive
+        server.setAlive(alive);
+        return server;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.strategy.HystrixPlugins;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * 上下文的槽位溢出，以及通过线程池、Hystrix 线程和 Reactor 传递上下文。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RibbonRequestContextTest {
+
+    private final ExecutorService executor =
+        new RibbonRequestContextExecutorService(Executors.newSingleThreadExecutor());
+
+    @After
+    public void tearDown() throws InterruptedException {
+        RibbonRequestContextHolder.clearContext();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        HystrixPlugins.reset();
+    }
+
+    @Test
+    public void testMoreKeysThanSlots() {
+        RibbonRequestContext context = new RibbonRequestContext();
+        int keys = RibbonRequestContext.MAX_SLOTS * 3;
+        for (int i = 0; i < keys; i++) {
+            Assert.assertNull(context.put("header-" + i, "value-" + i));
+        }
+        for (int i = 0; i < keys; i++) {
+            Assert.assertEquals("value-" + i, context.get("header-" + i));
+        }
+
+        RibbonRequestContext copy = context.copy();
+        for (int i = 0; i < keys; i++) {
+            Assert.assertEquals("value-" + i, context.remove("header-" + i));
+        }
+        Assert.assertTrue(context.isEmpty());
+        // 拷贝不受原上下文修改的影响
+        Assert.assertFalse(copy.isEmpty());
+        Assert.assertEquals("value-" + (keys - 1), copy.get("header-" + (keys - 1)));
+    }
+
+    @Test
+    public void testExecutorServicePropagation() throws Exception {
+        RibbonRequestContextHolder.getCurrentContext().put("Gray", "true");
+        RibbonRequestContextHolder.getCurrentContext().put("executor-extra-header", "value");
+
+        Assert.assertEquals("true", executor.submit(() -> {
+            // 任务中的修改不影响提交线程
+            String gray = RibbonRequestContextHolder.getCurrentContext().get("Gray");
+            RibbonRequestContextHolder.getCurrentContext().put("Gray", "false");
+            return gray;
+        }).get());
+        Assert.assertEquals("value",
+            executor.submit(() -> RibbonRequestContextHolder.getCurrentContext().get("executor-extra-header")).get());
+        Assert.assertEquals("true", RibbonRequestContextHolder.getCurrentContext().get("Gray"));
+
+        // 没有上下文的线程提交的任务不会看到线程池线程残留的上下文
+        RibbonRequestContextHolder.clearContext();
+        Assert.assertNull(executor.submit(() -> RibbonRequestContextHolder.getCurrentContext().get("Gray")).get());
+    }
+
+    @Test
+    public void testHystrixPropagation() {
+        RibbonRequestContextHystrixConcurrencyStrategy.register();
+        RibbonRequestContextHolder.getCurrentContext().put("Gray", "true");
+
+        HystrixCommand<String> command =
+            new HystrixCommand<String>(HystrixCommandGroupKey.Factory.asKey("ribbon-request-context")) {
+                @Override
+                protected String run() {
+                    return Thread.currentThread().getName() + ":"
+                        + RibbonRequestContextHolder.getCurrentContext().get("Gray");
+                }
+            };
+        String result = command.execute();
+        // 命令在 Hystrix 线程中执行，仍然能拿到调用线程的灰度标记
+        Assert.assertTrue(result, result.startsWith("hystrix-"));
+        Assert.assertTrue(result, result.endsWith(":true"));
+    }
+
+    @Test
+    public void testReactorPropagation() {
+        // 只有一个线程，可以检查订阅结束之后线程上没有残留的上下文
+        Scheduler scheduler = Schedulers.newParallel("ribbon-reactor", 1);
+        try {
+            RibbonRequestContextHolder.getCurrentContext().put("Gray", "true");
+            Mono<String> mono = RibbonRequestContextReactor.decorate(Mono.fromCallable(this::choose))
+                .subscribeOn(scheduler)
+                .subscriberContext(RibbonRequestContextReactor.capture());
+            Flux<String> flux = RibbonRequestContextReactor.decorate(Flux.range(0, 3).map(i -> choose()))
+                .subscribeOn(scheduler)
+                .subscriberContext(RibbonRequestContextReactor.capture());
+            // 组装之后清空调用线程的上下文，choose 只能从 Reactor Context 中拿到
+            RibbonRequestContextHolder.clearContext();
+
+            assertChoose(mono.block(), "true");
+            List<String> results = flux.collectList().block();
+            Assert.assertEquals(3, results.size());
+            for (String result : results) {
+                assertChoose(result, "true");
+            }
+            // 同一个线程上后续的任务看不到残留的上下文
+            assertChoose(Mono.fromCallable(this::choose).subscribeOn(scheduler).block(), "null");
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    @Test
+    public void testReactorSubscribeOnInsideSource() {
+        Scheduler scheduler = Schedulers.newParallel("ribbon-reactor", 1);
+        try {
+            RibbonRequestContextHolder.getCurrentContext().put("Gray", "true");
+            // subscribeOn 在被 decorate 的 source 里面，choose 发生在 decorate 的 subscribe 返回之后
+            Mono<String> mono = RibbonRequestContextReactor
+                .decorate(Mono.fromCallable(this::choose).subscribeOn(scheduler))
+                .subscriberContext(RibbonRequestContextReactor.capture());
+            RibbonRequestContextHolder.clearContext();
+
+            assertChoose(mono.block(), "null");
+        } finally {
+            scheduler.dispose();
+        }
+    }
+
+    /**
+     * 模拟负载均衡的 choose: 返回所在的线程和看到的灰度标记
+     */
+    private String choose() {
+        RibbonRequestContext context = RibbonRequestContextHolder.capture();
+        return Thread.currentThread().getName() + ":" + (context == null ? null : context.get("Gray"));
+    }
+
+    private void assertChoose(String result, String gray) {
+        Assert.assertTrue(result, result.startsWith("ribbon-reactor-"));
+        Assert.assertTrue(result, result.endsWith(":" + gray));
+    }
+
+}
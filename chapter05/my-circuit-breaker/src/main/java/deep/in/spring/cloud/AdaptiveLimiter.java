@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 自适应并发限制(bulkhead)，并发上限根据观测到的 RTT 动态调整，不需要像 Resilience4j Bulkhead 那样配置一个固定的 maxConcurrentCalls。
+ * <p>
+ * 算法参考 Netflix concurrency-limits 的 Gradient 算法：
+ * <ul>
+ * <li>每个采样窗口计算一次平均 RTT(shortRtt)，同时维护下游无排队时的 RTT(noLoadRtt，取观测到的最小值并缓慢上浮，
+ * 以便下游整体变慢之后能够重新适应)</li>
+ * <li>gradient = clamp(tolerance * noLoadRtt / shortRtt, 0.5, 1.0)，新的并发上限 = limit * gradient + sqrt(limit)</li>
+ * <li>下游排队导致 RTT 上升时 gradient 小于 1，并发上限收缩；RTT 稳定时每个窗口增长 sqrt(limit)，逐步探测下游的拐点</li>
+ * <li>窗口内出现失败时按 AIMD 的方式乘以 0.9 快速回退</li>
+ * </ul>
+ * 超过并发上限的请求不会排队，直接以 {@link DegradeException} 进入 fallback。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class AdaptiveLimiter {
+
+    // 一个窗口至少需要的样本个数，样本太少时继续累积
+    private static final int MIN_SAMPLES = 10;
+
+    // RTT 上升到 noLoadRtt 的 tolerance 倍以内不收缩并发上限
+    private static final double TOLERANCE = 1.5;
+
+    // noLoadRtt 每个窗口的上浮比例
+    private static final double NO_LOAD_RTT_DRIFT = 0.001;
+
+    // 新计算出来的并发上限的平滑系数
+    private static final double SMOOTHING = 0.2;
+
+    // 出现失败时的回退系数
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long windowNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // 当前生效的并发上限
+    private volatile int limit;
+
+    // 以下字段只在持有 updating 的线程中读写
+    private final AtomicBoolean updating = new AtomicBoolean();
+
+    private double estimatedLimit;
+
+    private double noLoadRtt;
+
+    private volatile long windowStart = System.nanoTime();
+
+    // 当前窗口内观测到的最大并发，近似值
+    private volatile int windowMaxInFlight;
+
+    private final LongAdder sampleCount = new LongAdder();
+
+    private final LongAdder rttSum = new LongAdder();
+
+    private final LongAdder dropCount = new LongAdder();
+
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    public AdaptiveLimiter() {
+        this(20, 1, 1000);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 100);
+    }
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, long windowMillis) {
+        if (minLimit <= 0 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("require 0 < minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    public <T> T run(Supplier<T> toRun, Function<Throwable, T> fallback) {
+        if (!tryAcquire()) {
+            rejectedCalls.increment();
+            return fallback.apply(new DegradeException("degrade by adaptive limiter"));
+        }
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = toRun.get();
+        } catch (Exception e) {
+            release(start, true);
+            return fallback.apply(e);
+        }
+        release(start, false);
+        return result;
+    }
+
+    /**
+     * 与断路器组合使用：先经过并发限制，再交给断路器执行。
+     * 断路器直接降级的调用不会作为 RTT 样本，避免 fallback 的耗时干扰并发上限的计算。
+     */
+    public <T> T run(CircuitBreaker circuitBreaker, Supplier<T> toRun, Function<Throwable, T> fallback) {
+        if (!tryAcquire()) {
+            rejectedCalls.increment();
+            return fallback.apply(new DegradeException("degrade by adaptive limiter"));
+        }
+        long start = System.nanoTime();
+        try {
+            return circuitBreaker.run(() -> {
+                T result;
+                try {
+                    result = toRun.get();
+                } catch (RuntimeException e) {
+                    sample(System.nanoTime() - start, true);
+                    throw e;
+                }
+                sample(System.nanoTime() - start, false);
+                return result;
+            }, fallback);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getNumberOfRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    private boolean tryAcquire() {
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > windowMaxInFlight) {
+                    windowMaxInFlight = current + 1;
+                }
+                return true;
+            }
+        }
+    }
+
+    private void release(long start, boolean dropped) {
+        inFlight.decrementAndGet();
+        sample(System.nanoTime() - start, dropped);
+    }
+
+    private void sample(long rtt, boolean dropped) {
+        sampleCount.increment();
+        rttSum.add(rtt);
+        if (dropped) {
+            dropCount.increment();
+        }
+        long now = System.nanoTime();
+        // 每个窗口只有一个线程负责重新计算并发上限
+        if (now - windowStart >= windowNanos && updating.compareAndSet(false, true)) {
+            try {
+                updateLimit(now);
+            } finally {
+                updating.set(false);
+            }
+        }
+    }
+
+    private void updateLimit(long now) {
+        long count = sampleCount.sum();
+        if (count < MIN_SAMPLES) {
+            return;
+        }
+        sampleCount.add(-count);
+        double shortRtt = (double) rttSum.sumThenReset() / count;
+        long drops = dropCount.sumThenReset();
+        int maxInFlight = windowMaxInFlight;
+        windowMaxInFlight = 0;
+        windowStart = now;
+
+        if (noLoadRtt == 0 || shortRtt < noLoadRtt) {
+            noLoadRtt = shortRtt;
+        } else {
+            noLoadRtt *= 1 + NO_LOAD_RTT_DRIFT;
+        }
+
+        double newLimit;
+        if (drops > 0) {
+            newLimit = estimatedLimit * BACKOFF_RATIO;
+        } else if (maxInFlight < estimatedLimit / 2) {
+            // 并发远没有用满，RTT 不能说明下游的承载能力，保持不变
+            return;
+        } else {
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * noLoadRtt / shortRtt));
+            newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+    }
+
+}
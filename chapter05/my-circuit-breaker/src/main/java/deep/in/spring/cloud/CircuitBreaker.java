@@ -16,6 +16,19 @@
 
 package deep.in.spring.cloud;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -28,76 +41,426 @@ import static deep.in.spring.cloud.State.OPEN;
  */
 public class CircuitBreaker {
 
-    private State state;
+    // 状态、进入该状态的时间戳以及 half-open 剩余探测名额作为一个整体，通过 CAS 完成状态迁移
+    private final AtomicReference<StateHolder> stateHolder;
 
     private Config config;
 
     private Counter counter;
 
-    private long lastOpenedTime;
+    // 慢调用耗时阀值，提前换算成纳秒
+    private final long slowCallDurationNanos;
+
+    private final CircuitBreakerEventPublisher eventPublisher;
+
+    // 调用统计，供 CircuitBreakerMetrics 读取
+    private final LongAdder successfulCalls = new LongAdder();
+
+    private final LongAdder failedCalls = new LongAdder();
+
+    private final LongAdder slowCalls = new LongAdder();
+
+    private final LongAdder notPermittedCalls = new LongAdder();
+
+    private final LongAdder stateTransitions = new LongAdder();
 
     public CircuitBreaker(Config config) {
-        this.counter = new Counter(config.getFailureCount(), config.getFailureTimeInterval());
-        this.state = CLOSED;
+        this(config, new SlidingWindowCounter(config));
+    }
+
+    public CircuitBreaker(Config config, Counter counter) {
+        this.counter = counter;
+        this.stateHolder = new AtomicReference<>(new StateHolder(CLOSED, System.currentTimeMillis(), 0));
         this.config = config;
+        this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowCallDurationThreshold());
+        this.eventPublisher = new CircuitBreakerEventPublisher(config.getEventBufferSize());
     }
 
     public <T> T run(Supplier<T> toRun, Function<Throwable, T> fallback) {
+        State permit = acquirePermission();
+        if (permit == null) {
+            return fallback.apply(new DegradeException("degrade by circuit breaker"));
+        }
+        long start = System.nanoTime();
+        T result;
         try {
-            if (state == OPEN) {
-                // 判断 half-open 是否超时
-                if (halfOpenTimeout()) {
-                    return halfOpenHandle(toRun, fallback);
-                }
-                return fallback.apply(new DegradeException("degrade by circuit breaker"));
-            } else if (state == CLOSED) {
-                T result = toRun.get();
-                closed();
-                return result;
-            } else {
-                return halfOpenHandle(toRun, fallback);
-            }
+            result = toRun.get();
+        } catch (Exception e) {
+            onError(permit, start);
+            return fallback.apply(degradeCause(permit, e));
+        }
+        onSuccess(permit, start);
+        return result;
+    }
+
+    /**
+     * 异步执行，toRun 返回的 CompletionStage 完成时才记录调用结果，调用线程不会被阻塞。
+     * 配置了 timeoutDuration 时，超时后会取消上游的 Future 并按失败处理。
+     */
+    public <T> CompletableFuture<T> runAsync(Supplier<? extends CompletionStage<T>> toRun,
+                                             Function<Throwable, T> fallback) {
+        Objects.requireNonNull(toRun, "toRun must not be null");
+        State permit = acquirePermission();
+        if (permit == null) {
+            return fallbackFuture(fallback, new DegradeException("degrade by circuit breaker"));
+        }
+        long start = System.nanoTime();
+        CompletionStage<T> stage;
+        try {
+            stage = toRun.get();
         } catch (Exception e) {
-            counter.incrFailureCount();
-            if (counter.failureThresholdReached()) { // 错误次数达到阀值，进入 open 状态
+            onError(permit, start);
+            return fallbackFuture(fallback, degradeCause(permit, e));
+        }
+        if (stage == null) { // 调用方的编程错误，不计入调用结果
+            releasePermission(permit);
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new NullPointerException("toRun must not return a null CompletionStage"));
+            return future;
+        }
+        AsyncCall<T> call = new AsyncCall<>(permit, start, stage, fallback);
+        if (config.getTimeoutDuration() > 0) {
+            call.timeoutTask = TimeoutScheduler.INSTANCE.schedule(call, config.getTimeoutDuration(),
+                TimeUnit.MILLISECONDS);
+        }
+        stage.whenComplete(call);
+        return call.result;
+    }
+
+    public State getState() {
+        return stateHolder.get().state;
+    }
+
+    // 处于当前状态的时长(毫秒)
+    public long getStateDuration() {
+        return System.currentTimeMillis() - stateHolder.get().since;
+    }
+
+    public Counter getCounter() {
+        return counter;
+    }
+
+    public CircuitBreakerEventPublisher getEventPublisher() {
+        return eventPublisher;
+    }
+
+    public long getNumberOfSuccessfulCalls() {
+        return successfulCalls.sum();
+    }
+
+    public long getNumberOfFailedCalls() {
+        return failedCalls.sum();
+    }
+
+    public long getNumberOfSlowCalls() {
+        return slowCalls.sum();
+    }
+
+    public long getNumberOfNotPermittedCalls() {
+        return notPermittedCalls.sum();
+    }
+
+    public long getNumberOfStateTransitions() {
+        return stateTransitions.sum();
+    }
+
+    Config getConfig() {
+        return config;
+    }
+
+    /**
+     * 申请一次调用许可：closed 状态返回 CLOSED，拿到 half-open 探测名额返回 HALF_OPEN，需要降级时返回 null。
+     */
+    State acquirePermission() {
+        if (stateHolder.get().state == CLOSED) {
+            return CLOSED;
+        }
+        if (tryAcquireHalfOpenPermit()) {
+            return HALF_OPEN;
+        }
+        notPermittedCalls.increment();
+        if (eventPublisher.hasConsumers()) {
+            eventPublisher.publish(CircuitBreakerEvent.Type.NOT_PERMITTED, 0, null, null);
+        }
+        return null;
+    }
+
+    void onSuccess(State permit, long start) {
+        long elapsed = System.nanoTime() - start;
+        boolean slowCall = elapsed >= slowCallDurationNanos;
+        successfulCalls.increment();
+        if (slowCall) {
+            slowCalls.increment();
+        }
+        if (eventPublisher.hasConsumers()) {
+            eventPublisher.publish(CircuitBreakerEvent.Type.SUCCESS, elapsed, null, null);
+        }
+        if (permit == CLOSED) {
+            counter.recordSuccess(slowCall);
+            if (slowCall && counter.failureThresholdReached()) { // 慢调用比例达到阀值，进入 open 状态
                 open();
             }
-            return fallback.apply(e);
+            return;
+        }
+        if (slowCall) { // half-open 状态的探测请求是慢调用，说明服务还没有恢复，重新进入 open 状态
+            reopen();
+            return;
+        }
+        int halfOpenSuccCount = counter.incrSuccessHalfOpenCount();
+        if (halfOpenSuccCount >= this.config.getHalfOpenSuccessCount()) { // half-open 状态成功次数到达阀值，进入 closed 状态
+            closed();
         }
     }
 
-    private <T> T halfOpenHandle(Supplier<T> toRun, Function<Throwable, T> fallback) {
-        try {
-            halfOpen(); // closed 状态超时进入 half-open 状态
-            T result = toRun.get();
-            int halfOpenSuccCount = counter.incrSuccessHalfOpenCount();
-            if (halfOpenSuccCount >= this.config.getHalfOpenSuccessCount()) { // half-open 状态成功次数到达阀值，进入 closed 状态
-                closed();
+    void onError(State permit, long start) {
+        long elapsed = System.nanoTime() - start;
+        boolean slowCall = elapsed >= slowCallDurationNanos;
+        failedCalls.increment();
+        if (slowCall) {
+            slowCalls.increment();
+        }
+        if (eventPublisher.hasConsumers()) {
+            eventPublisher.publish(CircuitBreakerEvent.Type.ERROR, elapsed, null, null);
+        }
+        if (permit == CLOSED) {
+            counter.recordFailure(slowCall);
+            if (counter.failureThresholdReached()) { // 错误次数或错误率达到阀值，进入 open 状态
+                open();
+            }
+            return;
+        }
+        // half-open 状态发生一次错误进入 open 状态
+        reopen();
+    }
+
+    /**
+     * 调用被取消，没有结果可以记录。half-open 状态下归还探测名额，避免名额一直被占用到 halfOpenTimeout 之后重新发放。
+     */
+    void releasePermission(State permit) {
+        if (permit != HALF_OPEN) {
+            return;
+        }
+        for (;;) {
+            StateHolder current = stateHolder.get();
+            if (current.state != HALF_OPEN || current.halfOpenPermits >= config.getHalfOpenSuccessCount()) {
+                return;
             }
-            return result;
+            StateHolder released = new StateHolder(HALF_OPEN, current.since, current.halfOpenPermits + 1);
+            if (stateHolder.compareAndSet(current, released)) {
+                return;
+            }
+        }
+    }
+
+    // closed 状态下把原始异常交给 fallback，half-open 状态探测失败统一按降级处理
+    Throwable degradeCause(State permit, Throwable t) {
+        if (permit == CLOSED) {
+            return t;
+        }
+        return new DegradeException("degrade by circuit breaker");
+    }
+
+    private static <T> CompletableFuture<T> fallbackFuture(Function<Throwable, T> fallback, Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(fallback.apply(t));
         } catch (Exception e) {
-            // half-open 状态发生一次错误进入 open 状态
-            open();
-            return fallback.apply(new DegradeException("degrade by circuit breaker"));
+            future.completeExceptionally(e);
         }
+        return future;
     }
 
-    private boolean halfOpenTimeout() {
-        return System.currentTimeMillis() - lastOpenedTime > config.getHalfOpenTimeout();
+    /**
+     * open 状态超时后只有一个线程能完成 open -> half-open 的迁移，half-open 状态下最多放行
+     * halfOpenSuccessCount 个探测请求，其余请求直接降级，避免大量请求同时打到正在恢复的服务。
+     */
+    private boolean tryAcquireHalfOpenPermit() {
+        for (;;) {
+            StateHolder current = stateHolder.get();
+            long now = System.currentTimeMillis();
+            if (current.state == CLOSED) {
+                return false;
+            } else if (current.state == OPEN) {
+                if (now - current.since <= config.getHalfOpenTimeout()) {
+                    return false;
+                }
+                // open 状态超时进入 half-open 状态，当前线程占用一个探测名额
+                StateHolder halfOpen = new StateHolder(HALF_OPEN, now, config.getHalfOpenSuccessCount() - 1);
+                if (stateHolder.compareAndSet(current, halfOpen)) {
+                    counter.reset();
+                    onStateTransition(OPEN, HALF_OPEN);
+                    return true;
+                }
+            } else {
+                if (current.halfOpenPermits <= 0) {
+                    if (now - current.since <= config.getHalfOpenTimeout()) {
+                        return false;
+                    }
+                    // 探测请求迟迟没有结果，重新发放探测名额，避免一直停留在 half-open 状态
+                    StateHolder halfOpen = new StateHolder(HALF_OPEN, now, config.getHalfOpenSuccessCount() - 1);
+                    if (stateHolder.compareAndSet(current, halfOpen)) {
+                        counter.reset();
+                        return true;
+                    }
+                } else {
+                    StateHolder halfOpen = new StateHolder(HALF_OPEN, current.since, current.halfOpenPermits - 1);
+                    if (stateHolder.compareAndSet(current, halfOpen)) {
+                        return true;
+                    }
+                }
+            }
+        }
     }
 
     private void closed() {
-        counter.reset();
-        state = CLOSED;
+        for (;;) {
+            StateHolder current = stateHolder.get();
+            if (current.state != HALF_OPEN) {
+                return;
+            }
+            if (stateHolder.compareAndSet(current, new StateHolder(CLOSED, System.currentTimeMillis(), 0))) {
+                counter.reset();
+                onStateTransition(HALF_OPEN, CLOSED);
+                return;
+            }
+        }
+    }
+
+    private void reopen() {
+        for (;;) {
+            StateHolder current = stateHolder.get();
+            if (current.state != HALF_OPEN) {
+                return;
+            }
+            if (stateHolder.compareAndSet(current, new StateHolder(OPEN, System.currentTimeMillis(), 0))) {
+                onStateTransition(HALF_OPEN, OPEN);
+                return;
+            }
+        }
     }
 
     private void open() {
-        state = OPEN;
-        lastOpenedTime = System.currentTimeMillis();
+        for (;;) {
+            StateHolder current = stateHolder.get();
+            if (current.state != CLOSED) { // 其他线程已经完成了状态迁移
+                return;
+            }
+            if (stateHolder.compareAndSet(current, new StateHolder(OPEN, System.currentTimeMillis(), 0))) {
+                onStateTransition(CLOSED, OPEN);
+                return;
+            }
+        }
     }
 
-    private void halfOpen() {
-        state = HALF_OPEN;
+    private void onStateTransition(State fromState, State toState) {
+        stateTransitions.increment();
+        if (eventPublisher.hasConsumers()) {
+            eventPublisher.publish(CircuitBreakerEvent.Type.STATE_TRANSITION, 0, fromState, toState);
+        }
+    }
+
+    /**
+     * 一次异步调用，上游完成和超时两条路径通过 CAS 竞争，保证调用结果只被记录一次。
+     */
+    private final class AsyncCall<T> extends AtomicBoolean implements BiConsumer<T, Throwable>, Runnable {
+
+        private final State permit;
+
+        private final long start;
+
+        private final CompletionStage<T> stage;
+
+        private final Function<Throwable, T> fallback;
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        AsyncCall(State permit, long start, CompletionStage<T> stage, Function<Throwable, T> fallback) {
+            this.permit = permit;
+            this.start = start;
+            this.stage = stage;
+            this.fallback = fallback;
+        }
+
+        // 上游完成
+        @Override
+        public void accept(T value, Throwable t) {
+            if (!compareAndSet(false, true)) {
+                return;
+            }
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+            if (t == null) {
+                onSuccess(permit, start);
+                result.complete(value);
+                return;
+            }
+            if (t instanceof CompletionException && t.getCause() != null) {
+                t = t.getCause();
+            }
+            onError(permit, start);
+            completeWithFallback(degradeCause(permit, t));
+        }
+
+        // 超时
+        @Override
+        public void run() {
+            if (!compareAndSet(false, true)) {
+                return;
+            }
+            if (stage instanceof Future) {
+                ((Future<?>) stage).cancel(true);
+            }
+            onError(permit, start);
+            completeWithFallback(degradeCause(permit,
+                new TimeoutException("timeout after " + config.getTimeoutDuration() + "ms")));
+        }
+
+        private void completeWithFallback(Throwable t) {
+            try {
+                result.complete(fallback.apply(t));
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+    }
+
+    private static final class TimeoutScheduler {
+
+        static final ScheduledThreadPoolExecutor INSTANCE;
+
+        static {
+            INSTANCE = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "circuit-breaker-timeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // 调用正常完成后取消的超时任务及时从队列中移除
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
+
+    }
+
+    private static final class StateHolder {
+
+        final State state;
+
+        // 进入当前状态的时间戳
+        final long since;
+
+        // half-open 状态下剩余的探测名额
+        final int halfOpenPermits;
+
+        StateHolder(State state, long since, int halfOpenPermits) {
+            this.state = state;
+            this.since = since;
+            this.halfOpenPermits = halfOpenPermits;
+        }
+
     }
 
 }
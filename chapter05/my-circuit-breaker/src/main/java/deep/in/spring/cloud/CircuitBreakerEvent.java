@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+/**
+ * 断路器事件，不可变，消费者可以直接保存。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerEvent {
+
+    public enum Type {
+
+        // 调用成功
+        SUCCESS,
+        // 调用失败
+        ERROR,
+        // 断路器打开或者 half-open 名额用完，调用被降级
+        NOT_PERMITTED,
+        // 状态迁移
+        STATE_TRANSITION
+
+    }
+
+    // 发布序号，消费者据此判断环形数组的槽位是否已经被下一圈的事件覆盖
+    final long sequence;
+
+    private final Type type;
+
+    // 事件发生的时间戳
+    private final long timestamp;
+
+    // 调用耗时(纳秒)，只对 SUCCESS/ERROR 事件有效
+    private final long elapsedNanos;
+
+    // 状态迁移前后的状态，只对 STATE_TRANSITION 事件有效
+    private final State fromState;
+
+    private final State toState;
+
+    CircuitBreakerEvent(long sequence, Type type, long timestamp, long elapsedNanos, State fromState,
+                        State toState) {
+        this.sequence = sequence;
+        this.type = type;
+        this.timestamp = timestamp;
+        this.elapsedNanos = elapsedNanos;
+        this.fromState = fromState;
+        this.toState = toState;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public State getFromState() {
+        return fromState;
+    }
+
+    public State getToState() {
+        return toState;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.STATE_TRANSITION) {
+            return "CircuitBreakerEvent{type=" + type + ", timestamp=" + timestamp + ", " + fromState + " -> " + toState
+                + "}";
+        }
+        return "CircuitBreakerEvent{type=" + type + ", timestamp=" + timestamp + ", elapsedNanos=" + elapsedNanos + "}";
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 基于环形数组的断路器事件发布器。
+ * <p>
+ * 发布事件时只需要一次 getAndIncrement 申请序号，然后把不可变的事件对象 CAS 到对应槽位，不会阻塞。
+ * 槽位中只保存完整构造好的事件，消费者不会读到写了一半的事件。
+ * 消费者通过 {@link #subscribe()} 拿到一个 {@link EventConsumer}，按自己的节奏调用 {@link EventConsumer#poll}
+ * 拉取事件；消费者落后超过一圈时直接跳过被覆盖的事件并记录丢弃个数，不会反压到调用方。
+ * <p>
+ * 没有消费者时不会创建环形数组，{@link #hasConsumers()} 为 false，断路器在热点路径上直接跳过事件发布。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerEventPublisher {
+
+    private final int capacity;
+
+    private final int mask;
+
+    // 下一个要发布的事件序号
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicInteger consumerCount = new AtomicInteger();
+
+    private volatile AtomicReferenceArray<CircuitBreakerEvent> ring;
+
+    private volatile boolean hasConsumers;
+
+    public CircuitBreakerEventPublisher() {
+        this(1024);
+    }
+
+    public CircuitBreakerEventPublisher(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        // 容量取 2 的幂，槽位下标用位运算计算
+        int size = 2;
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = capacity - 1;
+    }
+
+    public boolean hasConsumers() {
+        return hasConsumers;
+    }
+
+    public synchronized EventConsumer subscribe() {
+        if (ring == null) {
+            ring = new AtomicReferenceArray<>(capacity);
+        }
+        consumerCount.incrementAndGet();
+        hasConsumers = true;
+        return new EventConsumer(sequence.get());
+    }
+
+    public synchronized void unsubscribe(EventConsumer consumer) {
+        if (consumer.closed) {
+            return;
+        }
+        consumer.closed = true;
+        if (consumerCount.decrementAndGet() == 0) {
+            hasConsumers = false;
+        }
+    }
+
+    void publish(CircuitBreakerEvent.Type type, long elapsedNanos, State fromState, State toState) {
+        AtomicReferenceArray<CircuitBreakerEvent> slots = ring;
+        if (slots == null) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        int index = (int) (seq & mask);
+        CircuitBreakerEvent event = new CircuitBreakerEvent(seq, type, System.currentTimeMillis(), elapsedNanos,
+            fromState, toState);
+        // 两个生产者绕了一圈写同一个槽位时，保留序号大的事件，槽位中的序号只会增大
+        while (true) {
+            CircuitBreakerEvent current = slots.get(index);
+            if (current != null && current.sequence > seq) {
+                return;
+            }
+            if (slots.compareAndSet(index, current, event)) {
+                return;
+            }
+        }
+    }
+
+    public final class EventConsumer {
+
+        // 消费者自己的读取位置
+        private long nextSequence;
+
+        private long dropped;
+
+        private volatile boolean closed;
+
+        EventConsumer(long nextSequence) {
+            this.nextSequence = nextSequence;
+        }
+
+        /**
+         * 拉取最多 max 个已经发布的事件交给 handler 处理，返回处理的事件个数。没有新事件时立即返回 0。
+         */
+        public int poll(Consumer<CircuitBreakerEvent> handler, int max) {
+            AtomicReferenceArray<CircuitBreakerEvent> slots = ring;
+            if (slots == null || closed) {
+                return 0;
+            }
+            int count = 0;
+            while (count < max) {
+                long head = sequence.get();
+                if (nextSequence >= head) {
+                    break;
+                }
+                if (head - nextSequence > capacity) { // 落后超过一圈，跳过已经被覆盖的事件
+                    dropped += head - capacity - nextSequence;
+                    nextSequence = head - capacity;
+                }
+                CircuitBreakerEvent event = slots.get((int) (nextSequence & mask));
+                if (event == null || event.sequence < nextSequence) { // 生产者还没有写入
+                    break;
+                }
+                if (event.sequence == nextSequence++) {
+                    count++;
+                    handler.accept(event);
+                } else { // 槽位已经被下一圈的事件覆盖
+                    dropped++;
+                }
+            }
+            return count;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+    }
+
+}
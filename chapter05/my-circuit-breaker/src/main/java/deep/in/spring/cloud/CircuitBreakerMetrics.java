@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * 把 {@link CircuitBreaker} 的调用统计和状态注册到 Micrometer。
+ * <p>
+ * 所有指标都是在采集时读取断路器内部的计数器，不会在调用的热点路径上增加额外开销。
+ * 通过 circuitbreaker.state.transitions 的增长速度可以对断路器频繁开关(flapping)告警。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerMetrics implements MeterBinder {
+
+    private final String name;
+
+    private final CircuitBreaker circuitBreaker;
+
+    public CircuitBreakerMetrics(String name, CircuitBreaker circuitBreaker) {
+        this.name = name;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Tags tags = Tags.of("name", name);
+
+        FunctionCounter.builder("circuitbreaker.calls", circuitBreaker, CircuitBreaker::getNumberOfSuccessfulCalls)
+            .tags(tags).tag("kind", "successful")
+            .description("The number of successful calls")
+            .register(registry);
+        FunctionCounter.builder("circuitbreaker.calls", circuitBreaker, CircuitBreaker::getNumberOfFailedCalls)
+            .tags(tags).tag("kind", "failed")
+            .description("The number of failed calls")
+            .register(registry);
+        FunctionCounter.builder("circuitbreaker.calls", circuitBreaker, CircuitBreaker::getNumberOfNotPermittedCalls)
+            .tags(tags).tag("kind", "not_permitted")
+            .description("The number of calls degraded by the circuit breaker")
+            .register(registry);
+        FunctionCounter.builder("circuitbreaker.slow.calls", circuitBreaker, CircuitBreaker::getNumberOfSlowCalls)
+            .tags(tags)
+            .description("The number of calls slower than slowCallDurationThreshold")
+            .register(registry);
+        FunctionCounter.builder("circuitbreaker.state.transitions", circuitBreaker,
+            CircuitBreaker::getNumberOfStateTransitions)
+            .tags(tags)
+            .description("The number of state transitions")
+            .register(registry);
+
+        Gauge.builder("circuitbreaker.failure.rate", circuitBreaker, cb -> failureRate(cb.getCounter()))
+            .tags(tags)
+            .description("The failure rate in percent, -1 if there are not enough calls")
+            .register(registry);
+        Gauge.builder("circuitbreaker.slow.call.rate", circuitBreaker, cb -> slowCallRate(cb.getCounter()))
+            .tags(tags)
+            .description("The slow call rate in percent, -1 if there are not enough calls")
+            .register(registry);
+
+        // 每个状态一个 gauge，当前状态为 1，其余为 0
+        for (State state : State.values()) {
+            Gauge.builder("circuitbreaker.state", circuitBreaker, cb -> cb.getState() == state ? 1 : 0)
+                .tags(tags).tag("state", state.name().toLowerCase())
+                .description("The state of the circuit breaker")
+                .register(registry);
+        }
+        TimeGauge.builder("circuitbreaker.state.duration", circuitBreaker, TimeUnit.MILLISECONDS,
+            CircuitBreaker::getStateDuration)
+            .tags(tags)
+            .description("How long the circuit breaker has been in the current state")
+            .register(registry);
+    }
+
+    private static double failureRate(Counter counter) {
+        if (counter instanceof SlidingWindowCounter) {
+            return ((SlidingWindowCounter) counter).getFailureRate();
+        }
+        return -1;
+    }
+
+    private static double slowCallRate(Counter counter) {
+        if (counter instanceof SlidingWindowCounter) {
+            return ((SlidingWindowCounter) counter).getSlowCallRate();
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按名称管理断路器，类似 Hystrix 的 commandKey，每个 key 对应一个独立的 {@link CircuitBreaker}。
+ * <p>
+ * 查询先走无锁的 {@link ConcurrentHashMap#get(Object)}，只有 key 第一次出现时才进入 computeIfAbsent。
+ * 超过 idleTimeout 没有被访问的断路器会被清理；断路器个数超过 maximumSize 时按最近访问时间淘汰最久未使用的断路器，
+ * 避免大量很少使用的 key 一直占用内存。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerRegistry {
+
+    // 访问时间的更新粒度，避免每次调用都对同一个缓存行做 volatile 写
+    private static final long ACCESS_GRANULARITY = 1000;
+
+    private final ConcurrentHashMap<String, Entry> breakers = new ConcurrentHashMap<>();
+
+    private final Config defaultConfig;
+
+    // 断路器空闲多久之后被清理(毫秒)
+    private final long idleTimeout;
+
+    // 最多保留的断路器个数
+    private final int maximumSize;
+
+    // 上一次清理空闲断路器的时间
+    private final AtomicLong lastSweepTime = new AtomicLong(System.currentTimeMillis());
+
+    public CircuitBreakerRegistry() {
+        this(new Config());
+    }
+
+    public CircuitBreakerRegistry(Config defaultConfig) {
+        this(defaultConfig, 10 * 60 * 1000, 10000);
+    }
+
+    public CircuitBreakerRegistry(Config defaultConfig, long idleTimeout, int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        this.defaultConfig = defaultConfig;
+        this.idleTimeout = idleTimeout;
+        this.maximumSize = maximumSize;
+    }
+
+    public CircuitBreaker circuitBreaker(String name) {
+        return circuitBreaker(name, defaultConfig);
+    }
+
+    public CircuitBreaker circuitBreaker(String service, String endpoint) {
+        return circuitBreaker(service + ":" + endpoint, defaultConfig);
+    }
+
+    /**
+     * 获取 name 对应的断路器，不存在时使用 config 创建。config 只在第一次创建时生效。
+     */
+    public CircuitBreaker circuitBreaker(String name, Config config) {
+        long now = System.currentTimeMillis();
+        Entry entry = breakers.get(name);
+        if (entry == null) {
+            entry = breakers.computeIfAbsent(name, key -> new Entry(new CircuitBreaker(config), now));
+            afterCreate(now);
+        } else if (now - entry.lastAccessTime > ACCESS_GRANULARITY) {
+            entry.lastAccessTime = now;
+        }
+        return entry.circuitBreaker;
+    }
+
+    public CircuitBreaker find(String name) {
+        Entry entry = breakers.get(name);
+        return entry == null ? null : entry.circuitBreaker;
+    }
+
+    public CircuitBreaker remove(String name) {
+        Entry entry = breakers.remove(name);
+        return entry == null ? null : entry.circuitBreaker;
+    }
+
+    public int size() {
+        return breakers.size();
+    }
+
+    /**
+     * 清理超过 idleTimeout 没有被访问的断路器。
+     */
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeout;
+        for (Map.Entry<String, Entry> e : breakers.entrySet()) {
+            if (e.getValue().lastAccessTime < deadline) {
+                // 只删除仍然是当前 entry 的映射，避免误删并发新建的断路器
+                breakers.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private void afterCreate(long now) {
+        // 新建断路器时顺带清理空闲的断路器，同一时间只有一个线程执行清理
+        long lastSweep = lastSweepTime.get();
+        if (now - lastSweep > idleTimeout / 2 && lastSweepTime.compareAndSet(lastSweep, now)) {
+            evictIdle();
+        }
+        if (breakers.size() > maximumSize) {
+            evictEldest();
+        }
+    }
+
+    private synchronized void evictEldest() {
+        int size = breakers.size();
+        if (size <= maximumSize) {
+            return;
+        }
+        // 一次淘汰到 maximumSize 的 90%，避免每次新建都触发排序
+        int toEvict = size - maximumSize * 9 / 10;
+        // 其他线程会并发更新 lastAccessTime，先拷贝一份访问时间再排序，否则排序过程中比较结果不一致，TimSort 会抛出异常
+        List<Candidate> candidates = new ArrayList<>(size);
+        for (Map.Entry<String, Entry> e : breakers.entrySet()) {
+            candidates.add(new Candidate(e.getKey(), e.getValue()));
+        }
+        candidates.sort(Comparator.comparingLong(c -> c.lastAccessTime));
+        for (int index = 0; index < toEvict && index < candidates.size(); index++) {
+            Candidate c = candidates.get(index);
+            breakers.remove(c.name, c.entry);
+        }
+    }
+
+    private static final class Candidate {
+
+        final String name;
+
+        final Entry entry;
+
+        final long lastAccessTime;
+
+        Candidate(String name, Entry entry) {
+            this.name = name;
+            this.entry = entry;
+            this.lastAccessTime = entry.lastAccessTime;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final CircuitBreaker circuitBreaker;
+
+        volatile long lastAccessTime;
+
+        Entry(CircuitBreaker circuitBreaker, long lastAccessTime) {
+            this.circuitBreaker = circuitBreaker;
+            this.lastAccessTime = lastAccessTime;
+        }
+
+    }
+
+}
@@ -21,12 +21,33 @@ package deep.in.spring.cloud;
  */
 public class Config {
 
-    // Closed 状态进入 Open 状态的错误个数阀值
+    // Closed 状态进入 Open 状态的错误个数阀值，小于等于 0 表示不按错误个数熔断
     private int failureCount = 5;
 
+    // Closed 状态进入 Open 状态的错误率阀值(百分比)，小于等于 0 表示不按错误率熔断
+    private float failureRateThreshold = 50;
+
+    // 慢调用的耗时阀值(毫秒)
+    private long slowCallDurationThreshold = 60 * 1000;
+
+    // Closed 状态进入 Open 状态的慢调用比例阀值(百分比)，小于等于 0 表示不按慢调用熔断
+    private float slowCallRateThreshold = 100;
+
+    // 时间窗口内至少有 minimumNumberOfCalls 次调用才会计算错误率和慢调用比例
+    private int minimumNumberOfCalls = 100;
+
     // failureCount 统计时间窗口
     private long failureTimeInterval = 2 * 1000;
 
+    // failureTimeInterval 时间窗口切分的 bucket 个数
+    private int failureWindowBucketCount = 10;
+
+    // 异步调用的超时时间(毫秒)，超时后取消上游调用并按失败处理，小于等于 0 表示不限制
+    private long timeoutDuration = 0;
+
+    // 事件环形数组的大小，只有订阅事件之后才会分配
+    private int eventBufferSize = 1024;
+
     // Open 状态进入 Half-Open 状态的超时时间
     private int halfOpenTimeout = 5 * 1000;
 
@@ -41,6 +62,38 @@ public class Config {
         this.failureCount = failureCount;
     }
 
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(float failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallDurationThreshold() {
+        return slowCallDurationThreshold;
+    }
+
+    public void setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+        this.slowCallDurationThreshold = slowCallDurationThreshold;
+    }
+
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
     public long getFailureTimeInterval() {
         return failureTimeInterval;
     }
@@ -49,6 +102,30 @@ public class Config {
         this.failureTimeInterval = failureTimeInterval;
     }
 
+    public int getFailureWindowBucketCount() {
+        return failureWindowBucketCount;
+    }
+
+    public void setFailureWindowBucketCount(int failureWindowBucketCount) {
+        this.failureWindowBucketCount = failureWindowBucketCount;
+    }
+
+    public long getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    public void setTimeoutDuration(long timeoutDuration) {
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    public int getEventBufferSize() {
+        return eventBufferSize;
+    }
+
+    public void setEventBufferSize(int eventBufferSize) {
+        this.eventBufferSize = eventBufferSize;
+    }
+
     public int getHalfOpenTimeout() {
         return halfOpenTimeout;
     }
@@ -16,60 +16,34 @@
 
 package deep.in.spring.cloud;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 /**
+ * 断路器的错误计数器，统计时间窗口内的失败次数以及 Half-Open 状态下的成功次数。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
-public class Counter {
-
-    // Closed 状态进入 Open 状态的错误个数阀值
-    private final int failureCount;
-
-    // failureCount 统计时间窗口
-    private final long failureTimeInterval;
-
-    // 当前错误次数
-    private final AtomicInteger currentCount;
+public interface Counter {
 
-    // 上一次调用失败的时间戳
-    private long lastTime;
+    // 记录一次失败调用
+    int incrFailureCount();
 
-    // Half-Open 状态下成功次数
-    private final AtomicInteger halfOpenSuccessCount;
-
-    public Counter(int failureCount, long failureTimeInterval) {
-        this.failureCount = failureCount;
-        this.failureTimeInterval = failureTimeInterval;
-        this.currentCount = new AtomicInteger(0);
-        this.halfOpenSuccessCount = new AtomicInteger(0);
-        this.lastTime = System.currentTimeMillis();
+    // 记录一次成功调用，slowCall 表示耗时是否超过慢调用阀值
+    default void recordSuccess(boolean slowCall) {
     }
 
-    public synchronized int incrFailureCount() {
-        long current = System.currentTimeMillis();
-        if (current - lastTime > failureTimeInterval) { // 超过时间窗口，当前失败次数重置为 0
-            lastTime = current;
-            currentCount.set(0);
-        }
-        return currentCount.getAndIncrement();
+    // 记录一次失败调用，slowCall 表示耗时是否超过慢调用阀值
+    default void recordFailure(boolean slowCall) {
+        incrFailureCount();
     }
 
-    public int incrSuccessHalfOpenCount() {
-        return this.halfOpenSuccessCount.incrementAndGet();
-    }
+    // 记录一次 Half-Open 状态下的成功调用，返回当前成功次数
+    int incrSuccessHalfOpenCount();
 
-    public boolean failureThresholdReached() {
-        return getCurCount() >= failureCount;
-    }
+    // 时间窗口内的失败次数、错误率或慢调用比例是否达到阀值
+    boolean failureThresholdReached();
 
-    public int getCurCount() {
-        return currentCount.get();
-    }
+    // 时间窗口内的失败次数
+    int getCurCount();
 
-    public synchronized void reset() {
-        halfOpenSuccessCount.set(0);
-        currentCount.set(0);
-    }
+    void reset();
 
 }
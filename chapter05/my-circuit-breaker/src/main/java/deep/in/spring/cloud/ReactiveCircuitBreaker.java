@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link CircuitBreaker} 的 Reactor 适配，订阅时申请调用许可，在 onComplete/onError 信号到达时记录调用结果，
+ * 整个过程不会占用线程等待下游返回。
+ * <p>
+ * 配置了 timeoutDuration 时使用 Reactor 的 timeout 操作符，超时会取消上游订阅并按失败处理。
+ * 对于 Flux，超时时间作用于每一个元素的间隔。
+ * <p>
+ * 下游取消订阅 (例如外层的 timeout、客户端断开) 时没有调用结果，只归还 half-open 的探测名额。
+ * 每次订阅的结果 (成功、失败、取消) 只记录一次。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ReactiveCircuitBreaker {
+
+    private final CircuitBreaker circuitBreaker;
+
+    public ReactiveCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public <T> Mono<T> runMono(Mono<T> toRun, Function<Throwable, Mono<T>> fallback) {
+        Objects.requireNonNull(toRun, "toRun must not be null");
+        return Mono.defer(() -> {
+            State permit = circuitBreaker.acquirePermission();
+            if (permit == null) {
+                return fallback.apply(new DegradeException("degrade by circuit breaker"));
+            }
+            long start = System.nanoTime();
+            long timeout = circuitBreaker.getConfig().getTimeoutDuration();
+            Mono<T> source = timeout > 0 ? toRun.timeout(Duration.ofMillis(timeout)) : toRun;
+            AtomicBoolean done = new AtomicBoolean();
+            return source
+                .doOnSuccess(value -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.onSuccess(permit, start);
+                    }
+                })
+                .doOnError(t -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.onError(permit, start);
+                    }
+                })
+                .doOnCancel(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.releasePermission(permit);
+                    }
+                })
+                .onErrorResume(t -> fallback.apply(circuitBreaker.degradeCause(permit, t)));
+        });
+    }
+
+    public <T> Flux<T> runFlux(Flux<T> toRun, Function<Throwable, Flux<T>> fallback) {
+        Objects.requireNonNull(toRun, "toRun must not be null");
+        return Flux.defer(() -> {
+            State permit = circuitBreaker.acquirePermission();
+            if (permit == null) {
+                return fallback.apply(new DegradeException("degrade by circuit breaker"));
+            }
+            long start = System.nanoTime();
+            long timeout = circuitBreaker.getConfig().getTimeoutDuration();
+            Flux<T> source = timeout > 0 ? toRun.timeout(Duration.ofMillis(timeout)) : toRun;
+            AtomicBoolean done = new AtomicBoolean();
+            return source
+                .doOnComplete(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.onSuccess(permit, start);
+                    }
+                })
+                .doOnError(t -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.onError(permit, start);
+                    }
+                })
+                .doOnCancel(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        circuitBreaker.releasePermission(permit);
+                    }
+                })
+                .onErrorResume(t -> fallback.apply(circuitBreaker.degradeCause(permit, t)));
+        });
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于环形数组的滑动时间窗口计数器。
+ * <p>
+ * 时间窗口被切分成若干个 bucket，每个 bucket 内部使用 {@link LongAdder} 分段计数，
+ * bucket 过期后通过 CAS 替换成新的 bucket。记录调用结果的过程无锁，窗口平滑滑动而不是整体归零。
+ * <p>
+ * 除了失败次数之外，还统计窗口内的总调用次数和慢调用次数，用于按错误率、慢调用比例熔断。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class SlidingWindowCounter implements Counter {
+
+    // reset 之后占位用的 bucket，windowStart 不会与任何真实窗口匹配
+    private static final Bucket EMPTY = new Bucket(Long.MIN_VALUE);
+
+    // Closed 状态进入 Open 状态的错误个数阀值
+    private final int failureCount;
+
+    // Closed 状态进入 Open 状态的错误率阀值(百分比)
+    private final float failureRateThreshold;
+
+    // Closed 状态进入 Open 状态的慢调用比例阀值(百分比)
+    private final float slowCallRateThreshold;
+
+    // 计算错误率和慢调用比例需要的最小调用次数
+    private final int minimumNumberOfCalls;
+
+    // failureCount 统计时间窗口
+    private final long failureTimeInterval;
+
+    // 每个 bucket 覆盖的时间长度
+    private final long bucketInterval;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    // Half-Open 状态下成功次数
+    private final AtomicInteger halfOpenSuccessCount;
+
+    public SlidingWindowCounter(int failureCount, long failureTimeInterval) {
+        this(failureCount, failureTimeInterval, 10);
+    }
+
+    public SlidingWindowCounter(int failureCount, long failureTimeInterval, int bucketCount) {
+        this(failureCount, 0, 0, 0, failureTimeInterval, bucketCount);
+    }
+
+    public SlidingWindowCounter(Config config) {
+        this(config.getFailureCount(), config.getFailureRateThreshold(), config.getSlowCallRateThreshold(),
+            config.getMinimumNumberOfCalls(), config.getFailureTimeInterval(), config.getFailureWindowBucketCount());
+    }
+
+    public SlidingWindowCounter(int failureCount, float failureRateThreshold, float slowCallRateThreshold,
+                                int minimumNumberOfCalls, long failureTimeInterval, int bucketCount) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketCount must be positive");
+        }
+        this.failureCount = failureCount;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.minimumNumberOfCalls = Math.max(1, minimumNumberOfCalls);
+        this.failureTimeInterval = failureTimeInterval;
+        this.bucketInterval = Math.max(1, failureTimeInterval / bucketCount);
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+        for (int index = 0; index < bucketCount; index++) {
+            buckets.set(index, EMPTY);
+        }
+        this.halfOpenSuccessCount = new AtomicInteger(0);
+    }
+
+    @Override
+    public int incrFailureCount() {
+        recordFailure(false);
+        return getCurCount();
+    }
+
+    @Override
+    public void recordSuccess(boolean slowCall) {
+        Bucket bucket = currentBucket(System.currentTimeMillis());
+        bucket.total.increment();
+        if (slowCall) {
+            bucket.slow.increment();
+        }
+    }
+
+    @Override
+    public void recordFailure(boolean slowCall) {
+        Bucket bucket = currentBucket(System.currentTimeMillis());
+        bucket.total.increment();
+        bucket.failures.increment();
+        if (slowCall) {
+            bucket.slow.increment();
+        }
+    }
+
+    @Override
+    public int incrSuccessHalfOpenCount() {
+        return this.halfOpenSuccessCount.incrementAndGet();
+    }
+
+    @Override
+    public boolean failureThresholdReached() {
+        long windowStart = System.currentTimeMillis() - failureTimeInterval;
+        long total = 0;
+        long failures = 0;
+        long slow = 0;
+        for (int index = 0; index < buckets.length(); index++) {
+            Bucket bucket = buckets.get(index);
+            if (bucket.windowStart > windowStart) {
+                total += bucket.total.sum();
+                failures += bucket.failures.sum();
+                slow += bucket.slow.sum();
+            }
+        }
+        if (failureCount > 0 && failures >= failureCount) {
+            return true;
+        }
+        if (total < minimumNumberOfCalls) {
+            return false;
+        }
+        return (failureRateThreshold > 0 && failures * 100 >= failureRateThreshold * total)
+            || (slowCallRateThreshold > 0 && slow * 100 >= slowCallRateThreshold * total);
+    }
+
+    @Override
+    public int getCurCount() {
+        return (int) Math.min(sum(Bucket.FAILURES), Integer.MAX_VALUE);
+    }
+
+    // 时间窗口内的错误率(百分比)，调用次数不足 minimumNumberOfCalls 时返回 -1
+    public float getFailureRate() {
+        return rate(sum(Bucket.FAILURES));
+    }
+
+    // 时间窗口内的慢调用比例(百分比)，调用次数不足 minimumNumberOfCalls 时返回 -1
+    public float getSlowCallRate() {
+        return rate(sum(Bucket.SLOW));
+    }
+
+    @Override
+    public void reset() {
+        halfOpenSuccessCount.set(0);
+        for (int index = 0; index < buckets.length(); index++) {
+            buckets.set(index, EMPTY);
+        }
+    }
+
+    private float rate(long count) {
+        long total = sum(Bucket.TOTAL);
+        if (total < minimumNumberOfCalls) {
+            return -1;
+        }
+        return count * 100.0f / total;
+    }
+
+    private long sum(int type) {
+        long windowStart = System.currentTimeMillis() - failureTimeInterval;
+        long sum = 0;
+        for (int index = 0; index < buckets.length(); index++) {
+            Bucket bucket = buckets.get(index);
+            if (bucket.windowStart > windowStart) { // 只统计仍在时间窗口内的 bucket
+                sum += bucket.get(type).sum();
+            }
+        }
+        return sum;
+    }
+
+    private Bucket currentBucket(long current) {
+        long windowStart = current - current % bucketInterval;
+        int index = (int) ((current / bucketInterval) % buckets.length());
+        for (;;) {
+            Bucket bucket = buckets.get(index);
+            if (bucket.windowStart == windowStart) {
+                return bucket;
+            }
+            if (bucket.windowStart > windowStart) { // 时钟回拨或者线程停顿太久，计入已经存在的新 bucket
+                return bucket;
+            }
+            // bucket 已过期，CAS 替换；失败说明其他线程已经完成替换，重新读取即可
+            Bucket newBucket = new Bucket(windowStart);
+            if (buckets.compareAndSet(index, bucket, newBucket)) {
+                return newBucket;
+            }
+        }
+    }
+
+    private static final class Bucket {
+
+        static final int TOTAL = 0;
+
+        static final int FAILURES = 1;
+
+        static final int SLOW = 2;
+
+        final long windowStart;
+
+        final LongAdder total = new LongAdder();
+
+        final LongAdder failures = new LongAdder();
+
+        final LongAdder slow = new LongAdder();
+
+        Bucket(long windowStart) {
+            this.windowStart = windowStart;
+        }
+
+        LongAdder get(int type) {
+            switch (type) {
+                case TOTAL:
+                    return total;
+                case FAILURES:
+                    return failures;
+                default:
+                    return slow;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import deep.in.spring.cloud.AdaptiveLimiter;
+
+/**
+ * {@link AdaptiveLimiter} 的模拟压测。
+ * <p>
+ * 模拟的下游有 capacity 个工作线程：并发不超过 capacity 时 RTT 为 baseLatency，超过之后请求开始排队，
+ * RTT 随并发线性增长。大量客户端线程不停地发起调用，观察并发上限是否收敛到 capacity 附近(拐点)。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class AdaptiveLimiterSimulation {
+
+    private final int capacity;
+
+    private final long baseLatencyNanos;
+
+    private final AtomicInteger concurrency = new AtomicInteger();
+
+    public AdaptiveLimiterSimulation(int capacity, long baseLatencyMillis) {
+        this.capacity = capacity;
+        this.baseLatencyNanos = TimeUnit.MILLISECONDS.toNanos(baseLatencyMillis);
+    }
+
+    public String call() {
+        int current = concurrency.incrementAndGet();
+        try {
+            long latency = current <= capacity ? baseLatencyNanos : baseLatencyNanos * current / capacity;
+            LockSupport.parkNanos(latency);
+            return "ok";
+        } finally {
+            concurrency.decrementAndGet();
+        }
+    }
+
+    /**
+     * 使用 clients 个线程压测 durationMillis 毫秒，每 100 毫秒打印一次并发上限、吞吐和平均 RTT，返回结束时的并发上限。
+     */
+    public int simulate(AdaptiveLimiter limiter, int clients, long durationMillis, boolean print)
+        throws InterruptedException {
+        LongAdder success = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        LongAdder rttSum = new LongAdder();
+        long deadline = System.currentTimeMillis() + durationMillis;
+        ExecutorService executorService = Executors.newFixedThreadPool(clients);
+        CountDownLatch latch = new CountDownLatch(clients);
+        for (int index = 0; index < clients; index++) {
+            executorService.submit(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    long start = System.nanoTime();
+                    String result = limiter.run(this::call, t -> null);
+                    if (result == null) {
+                        rejected.increment();
+                        // 被拒绝的客户端稍等再重试，模拟上游的退避
+                        LockSupport.parkNanos(baseLatencyNanos);
+                    } else {
+                        success.increment();
+                        rttSum.add(System.nanoTime() - start);
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+            if (print) {
+                long count = success.sumThenReset();
+                long rtt = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(rttSum.sumThenReset() / count);
+                System.out.println(String.format("limit=%d inFlight=%d success/100ms=%d rejected/100ms=%d avgRtt=%dus",
+                    limiter.getLimit(), limiter.getInFlight(), count, rejected.sumThenReset(), rtt));
+            }
+        }
+        executorService.shutdown();
+        return limiter.getLimit();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        AdaptiveLimiterSimulation downstream = new AdaptiveLimiterSimulation(20, 10);
+        int limit = downstream.simulate(new AdaptiveLimiter(5, 1, 1000, 50), 200, 10 * 1000, true);
+        System.out.println("final limit: " + limit + ", downstream capacity: " + downstream.capacity);
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import deep.in.spring.cloud.AdaptiveLimiter;
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.Config;
+import deep.in.spring.cloud.DegradeException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testRejectWhenLimitReached() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 10);
+        String result = limiter.run(() -> {
+            // 唯一的并发名额被外层调用占用
+            return limiter.run(() -> "deep in spring cloud", t -> {
+                Assert.assertTrue(t instanceof DegradeException);
+                return "degrade";
+            });
+        }, t -> "boom");
+        Assert.assertEquals("degrade", result);
+        Assert.assertEquals(1, limiter.getNumberOfRejectedCalls());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testComposeWithCircuitBreaker() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter();
+        CircuitBreaker cb = new CircuitBreaker(new Config());
+        String bookName = limiter.run(cb, () -> "deep in spring cloud", t -> "boom");
+        Assert.assertEquals("deep in spring cloud", bookName);
+        String result = limiter.run(cb, () -> {
+            throw new IllegalStateException("Oops");
+        }, Throwable::getMessage);
+        Assert.assertEquals("Oops", result);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testFindKnee() throws InterruptedException {
+        // 下游只有 20 个工作线程，200 个客户端并发压测，并发上限应该收敛在拐点附近而不是一直增长到 200
+        AdaptiveLimiterSimulation downstream = new AdaptiveLimiterSimulation(20, 10);
+        int limit = downstream.simulate(new AdaptiveLimiter(5, 1, 1000, 50), 200, 5000, false);
+        System.out.println("final limit: " + limit);
+        Assert.assertTrue(limit >= 15);
+        Assert.assertTrue(limit <= 80);
+    }
+
+}
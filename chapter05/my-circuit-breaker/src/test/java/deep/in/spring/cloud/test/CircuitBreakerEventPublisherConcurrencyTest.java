@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package deep.in.spring.cloud.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.CircuitBreakerEvent;
+import deep.in.spring.cloud.CircuitBreakerEventPublisher;
+import deep.in.spring.cloud.Config;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 多个线程并发调用断路器发布事件，检查消费者读到的每个事件都是完整的，并且读到的和丢弃的事件个数之和等于调用次数。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerEventPublisherConcurrencyTest {
+
+    private static final int PRODUCERS = 4;
+
+    private static final int CALLS_PER_PRODUCER = 200000;
+
+    @Test
+    public void testNoTornEvents() throws InterruptedException {
+        Config config = new Config();
+        // 不会触发状态迁移，只有 SUCCESS 和 ERROR 事件
+        config.setFailureCount(Integer.MAX_VALUE);
+        config.setMinimumNumberOfCalls(Integer.MAX_VALUE);
+        // 环形数组很小，生产者会频繁绕圈写同一个槽位
+        config.setEventBufferSize(16);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        CircuitBreakerEventPublisher.EventConsumer consumer = cb.getEventPublisher().subscribe();
+
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            boolean fail = p % 2 == 1;
+            producers[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < CALLS_PER_PRODUCER; n++) {
+                    cb.run(() -> {
+                        if (fail) {
+                            throw new IllegalStateException("Oops");
+                        }
+                        return "deep in spring cloud";
+                    }, t -> null);
+                }
+            });
+            producers[p].start();
+        }
+
+        long[] received = new long[1];
+        AtomicReference<AssertionError> failure = new AtomicReference<>();
+        start.countDown();
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread producer : producers) {
+                running |= producer.isAlive();
+            }
+            received[0] += consumer.poll(event -> {
+                try {
+                    Assert.assertNotNull(event.getType());
+                    Assert.assertTrue(event.toString(), event.getType() == CircuitBreakerEvent.Type.SUCCESS
+                        || event.getType() == CircuitBreakerEvent.Type.ERROR);
+                    Assert.assertNull(event.getFromState());
+                    Assert.assertNull(event.getToState());
+                    Assert.assertTrue(event.getElapsedNanos() >= 0);
+                    Assert.assertTrue(event.getTimestamp() > 0);
+                } catch (AssertionError e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, 1024);
+        }
+        while (consumer.poll(event -> received[0]++, 1024) > 0) {
+            // 读完剩余的事件
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        Assert.assertTrue(received[0] > 0);
+        Assert.assertEquals((long) PRODUCERS * CALLS_PER_PRODUCER / 2, cb.getNumberOfSuccessfulCalls());
+        Assert.assertEquals((long) PRODUCERS * CALLS_PER_PRODUCER / 2, cb.getNumberOfFailedCalls());
+        Assert.assertEquals((long) PRODUCERS * CALLS_PER_PRODUCER, received[0] + consumer.getDropped());
+    }
+
+}
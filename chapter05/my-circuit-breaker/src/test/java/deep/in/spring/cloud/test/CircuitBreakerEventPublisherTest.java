@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.CircuitBreakerEvent;
+import deep.in.spring.cloud.CircuitBreakerEventPublisher;
+import deep.in.spring.cloud.Config;
+import deep.in.spring.cloud.State;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerEventPublisherTest {
+
+    @Test
+    public void testStateTransitionEvents() {
+        Config config = new Config();
+        config.setFailureCount(2);
+        config.setEventBufferSize(4);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        Assert.assertFalse(cb.getEventPublisher().hasConsumers());
+
+        CircuitBreakerEventPublisher.EventConsumer consumer = cb.getEventPublisher().subscribe();
+        for (int index = 0; index < 2; index++) {
+            cb.run(() -> {
+                throw new IllegalStateException("Oops");
+            }, t -> null);
+        }
+
+        List<State> transitions = new ArrayList<>();
+        int count = consumer.poll(event -> {
+            if (event.getType() == CircuitBreakerEvent.Type.STATE_TRANSITION) {
+                transitions.add(event.getToState());
+            }
+        }, 100);
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(1, transitions.size());
+        Assert.assertEquals(State.OPEN, transitions.get(0));
+        Assert.assertEquals(1, cb.getNumberOfStateTransitions());
+    }
+
+    @Test
+    public void testSlowConsumerDropsEvents() {
+        Config config = new Config();
+        config.setFailureCount(0);
+        config.setEventBufferSize(4);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        CircuitBreakerEventPublisher.EventConsumer consumer = cb.getEventPublisher().subscribe();
+        for (int index = 0; index < 10; index++) {
+            cb.run(() -> "deep in spring cloud", t -> null);
+        }
+        // 环形数组只有 4 个槽位，落后的消费者只能读到最新的 4 个事件
+        int count = consumer.poll(event -> Assert.assertEquals(CircuitBreakerEvent.Type.SUCCESS, event.getType()), 100);
+        Assert.assertEquals(4, count);
+        Assert.assertEquals(6, consumer.getDropped());
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.CircuitBreakerMetrics;
+import deep.in.spring.cloud.Config;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerMetricsTest {
+
+    @Test
+    public void testMetrics() {
+        Config config = new Config();
+        config.setFailureCount(3);
+        config.setFailureRateThreshold(0);
+        config.setMinimumNumberOfCalls(4);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new CircuitBreakerMetrics("order-service", cb).bindTo(registry);
+
+        Assert.assertEquals(-1, gauge(registry, "circuitbreaker.failure.rate"), 0);
+        for (int index = 0; index < 2; index++) {
+            cb.run(() -> "deep in spring cloud", t -> null);
+            fail(cb);
+        }
+        Assert.assertEquals(2, calls(registry, "successful"), 0);
+        Assert.assertEquals(2, calls(registry, "failed"), 0);
+        Assert.assertEquals(50, gauge(registry, "circuitbreaker.failure.rate"), 0.01);
+        Assert.assertEquals(0, gauge(registry, "circuitbreaker.slow.call.rate"), 0.01);
+        Assert.assertEquals(1, state(registry, "closed"), 0);
+
+        // 第 3 次失败打开断路器，之后的调用被降级
+        fail(cb);
+        cb.run(() -> "deep in spring cloud", t -> null);
+        Assert.assertEquals(3, calls(registry, "failed"), 0);
+        Assert.assertEquals(1, calls(registry, "not_permitted"), 0);
+        Assert.assertEquals(1, registry.get("circuitbreaker.state.transitions").tag("name", "order-service")
+            .functionCounter().count(), 0);
+        Assert.assertEquals(0, state(registry, "closed"), 0);
+        Assert.assertEquals(1, state(registry, "open"), 0);
+        Assert.assertTrue(registry.get("circuitbreaker.state.duration").timeGauge().value() >= 0);
+    }
+
+    private static void fail(CircuitBreaker cb) {
+        cb.run(() -> {
+            throw new IllegalStateException("Oops");
+        }, t -> null);
+    }
+
+    private static double calls(SimpleMeterRegistry registry, String kind) {
+        return registry.get("circuitbreaker.calls").tag("name", "order-service").tag("kind", kind)
+            .functionCounter().count();
+    }
+
+    private static double state(SimpleMeterRegistry registry, String state) {
+        return registry.get("circuitbreaker.state").tag("state", state).gauge().value();
+    }
+
+    private static double gauge(SimpleMeterRegistry registry, String name) {
+        return registry.get(name).tag("name", "order-service").gauge().value();
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.CircuitBreakerRegistry;
+import deep.in.spring.cloud.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 10000 个 key、16 个线程并发查询 {@link CircuitBreakerRegistry} 并执行一次调用的吞吐。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class CircuitBreakerRegistryBenchmark {
+
+    private static final int KEY_COUNT = 10000;
+
+    private CircuitBreakerRegistry registry;
+
+    private String[] keys;
+
+    @Setup
+    public void setUp() {
+        registry = new CircuitBreakerRegistry(new Config(), 10 * 60 * 1000, KEY_COUNT * 2);
+        keys = new String[KEY_COUNT];
+        for (int index = 0; index < KEY_COUNT; index++) {
+            keys[index] = "service-" + (index % 100) + ":/endpoint/" + index;
+            registry.circuitBreaker(keys[index]);
+        }
+    }
+
+    @Benchmark
+    public CircuitBreaker lookup() {
+        return registry.circuitBreaker(keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)]);
+    }
+
+    @Benchmark
+    public String lookupAndRun() {
+        return registry.circuitBreaker(keys[ThreadLocalRandom.current().nextInt(KEY_COUNT)])
+            .run(() -> "deep in spring cloud", t -> "boom");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(CircuitBreakerRegistryBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+
+}
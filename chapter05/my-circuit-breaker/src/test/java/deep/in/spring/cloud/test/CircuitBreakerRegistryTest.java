@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.CircuitBreakerRegistry;
+import deep.in.spring.cloud.Config;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CircuitBreakerRegistryTest {
+
+    @Test
+    public void testSameKeySameCircuitBreaker() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry();
+        CircuitBreaker cb = registry.circuitBreaker("order-service", "/orders");
+        Assert.assertSame(cb, registry.circuitBreaker("order-service", "/orders"));
+        Assert.assertNotSame(cb, registry.circuitBreaker("order-service", "/carts"));
+    }
+
+    @Test
+    public void testEvictIdle() throws InterruptedException {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(new Config(), 100, 100);
+        registry.circuitBreaker("a");
+        Thread.sleep(200L);
+        registry.evictIdle();
+        Assert.assertNull(registry.find("a"));
+    }
+
+    @Test
+    public void testMaximumSize() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(new Config(), 60 * 1000, 100);
+        for (int index = 0; index < 1000; index++) {
+            registry.circuitBreaker("key-" + index);
+        }
+        Assert.assertTrue(registry.size() <= 100);
+    }
+
+    @Test
+    public void testMaximumSizeWhileAccessing() throws InterruptedException {
+        int maximumSize = 500;
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(new Config(), 60 * 1000, maximumSize);
+        for (int index = 0; index < maximumSize; index++) {
+            registry.circuitBreaker("hot-" + index);
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger created = new AtomicInteger();
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        int threads = 4;
+        CountDownLatch done = new CountDownLatch(threads * 2);
+        for (int t = 0; t < threads; t++) {
+            // 不停访问已有的断路器，访问时间超过更新粒度 (1s) 后会在淘汰排序的同时被修改
+            new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        for (int index = 0; index < maximumSize; index++) {
+                            registry.circuitBreaker("hot-" + index);
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+            // 不停新建断路器，触发按个数淘汰
+            new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        registry.circuitBreaker("new-" + created.incrementAndGet());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(2500L);
+        running.set(false);
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertTrue(created.get() > maximumSize);
+        Assert.assertTrue(registry.size() <= maximumSize + threads);
+    }
+
+}
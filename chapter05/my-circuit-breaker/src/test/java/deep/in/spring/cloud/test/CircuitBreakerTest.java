@@ -16,13 +16,27 @@
 
 package deep.in.spring.cloud.test;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import deep.in.spring.cloud.CircuitBreaker;
 import deep.in.spring.cloud.Config;
 import deep.in.spring.cloud.DegradeException;
+import deep.in.spring.cloud.ReactiveCircuitBreaker;
+import deep.in.spring.cloud.State;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 /**
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
@@ -199,4 +213,208 @@ public class CircuitBreakerTest {
         }
     }
 
+    @Test
+    public void testHalfOpenPermits() throws InterruptedException {
+        Config config = new Config();
+        config.setHalfOpenTimeout(200);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        for (int index = 0; index < config.getFailureCount(); index++) {
+            cb.run(() -> {
+                throw new IllegalStateException("Oops");
+            }, t -> null);
+        }
+        Assert.assertEquals(State.OPEN, cb.getState());
+
+        try {
+            Thread.sleep(300L);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+
+        // 32 个线程同时进入 half-open 状态，只有 halfOpenSuccessCount 个探测请求会被放行
+        int threads = 32;
+        AtomicInteger probeCount = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int index = 0; index < threads; index++) {
+            executorService.submit(() -> {
+                cb.run(() -> {
+                    probeCount.incrementAndGet();
+                    try {
+                        Thread.sleep(100L);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                    return "deep in spring cloud";
+                }, t -> "degrade");
+                latch.countDown();
+            });
+        }
+        latch.await(10, TimeUnit.SECONDS);
+        executorService.shutdown();
+
+        Assert.assertEquals(config.getHalfOpenSuccessCount(), probeCount.get());
+        Assert.assertEquals(State.CLOSED, cb.getState());
+    }
+
+    @Test
+    public void testFailureRate() {
+        Config config = new Config();
+        config.setFailureCount(0);
+        config.setMinimumNumberOfCalls(10);
+        config.setFailureRateThreshold(20);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        for (int index = 1; index <= 10; index++) {
+            int finalIndex = index;
+            cb.run(() -> {
+                if (finalIndex % 5 == 0) {
+                    throw new IllegalStateException("Oops");
+                }
+                return "deep in spring cloud";
+            }, t -> null);
+        }
+        // 10 次调用失败 2 次，错误率 20% 达到阀值
+        Assert.assertEquals(State.OPEN, cb.getState());
+    }
+
+    @Test
+    public void testSlowCallRate() {
+        Config config = new Config();
+        config.setFailureCount(0);
+        config.setMinimumNumberOfCalls(4);
+        config.setSlowCallDurationThreshold(50);
+        config.setSlowCallRateThreshold(50);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        for (int index = 1; index <= 4; index++) {
+            int finalIndex = index;
+            String bookName = cb.run(() -> {
+                if (finalIndex % 2 == 0) {
+                    try {
+                        Thread.sleep(60L);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                return "deep in spring cloud";
+            }, t -> null);
+            Assert.assertEquals("deep in spring cloud", bookName);
+        }
+        // 4 次调用中 2 次慢调用，慢调用比例 50% 达到阀值
+        Assert.assertEquals(State.OPEN, cb.getState());
+        String result = cb.run(() -> "deep in spring cloud", t -> {
+            Assert.assertTrue(t instanceof DegradeException);
+            return "degrade";
+        });
+        Assert.assertEquals("degrade", result);
+    }
+
+    @Test
+    public void testRunAsyncTimeout() throws ExecutionException, InterruptedException {
+        Config config = new Config();
+        config.setTimeoutDuration(100);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        CompletableFuture<String> never = new CompletableFuture<>();
+        String result = cb.runAsync(() -> never, t -> {
+            Assert.assertTrue(t instanceof TimeoutException);
+            return "timeout";
+        }).get();
+        Assert.assertEquals("timeout", result);
+        // 超时后上游会被取消
+        Assert.assertTrue(never.isCancelled());
+
+        String bookName = cb.runAsync(() -> CompletableFuture.supplyAsync(() -> "deep in spring cloud"),
+            t -> "boom").get();
+        Assert.assertEquals("deep in spring cloud", bookName);
+    }
+
+    @Test
+    public void testRunMono() {
+        Config config = new Config();
+        config.setFailureCount(2);
+        ReactiveCircuitBreaker cb = new ReactiveCircuitBreaker(new CircuitBreaker(config));
+        for (int index = 0; index < 2; index++) {
+            String result = cb.runMono(Mono.<String>error(new IllegalStateException("Oops")),
+                t -> Mono.just(t.getMessage())).block();
+            Assert.assertEquals("Oops", result);
+        }
+        Assert.assertEquals(State.OPEN, cb.getCircuitBreaker().getState());
+        String result = cb.runMono(Mono.just("deep in spring cloud"), t -> {
+            Assert.assertTrue(t instanceof DegradeException);
+            return Mono.just("degrade");
+        }).block();
+        Assert.assertEquals("degrade", result);
+    }
+
+    @Test
+    public void testRunMonoCancelReleasesHalfOpenPermit() {
+        ReactiveCircuitBreaker cb = new ReactiveCircuitBreaker(halfOpenCircuitBreaker());
+
+        // 占用全部探测名额的请求都被外层的 timeout 取消
+        for (int index = 0; index < 2; index++) {
+            String result = cb.runMono(Mono.<String>never(), t -> Mono.just("degrade"))
+                .timeout(Duration.ofMillis(10), Mono.just("cancelled")).block();
+            Assert.assertEquals("cancelled", result);
+        }
+        Assert.assertEquals(State.HALF_OPEN, cb.getCircuitBreaker().getState());
+
+        // 名额已经归还，新的探测请求可以执行，成功 2 次后进入 closed 状态
+        for (int index = 0; index < 2; index++) {
+            String result = cb.runMono(Mono.just("deep in spring cloud"), t -> Mono.just("degrade")).block();
+            Assert.assertEquals("deep in spring cloud", result);
+        }
+        Assert.assertEquals(State.CLOSED, cb.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testRunFluxCancelReleasesHalfOpenPermit() {
+        ReactiveCircuitBreaker cb = new ReactiveCircuitBreaker(halfOpenCircuitBreaker());
+
+        // take(1) 拿到第一个元素后取消上游，不会收到 onComplete
+        for (int index = 0; index < 2; index++) {
+            Assert.assertEquals(Integer.valueOf(0),
+                cb.runFlux(Flux.range(0, 10), t -> Flux.just(-1)).take(1).blockFirst());
+        }
+        Assert.assertEquals(Integer.valueOf(0), cb.runFlux(Flux.range(0, 10), t -> Flux.just(-1)).blockFirst());
+        Assert.assertEquals(0, cb.getCircuitBreaker().getNumberOfNotPermittedCalls());
+    }
+
+    @Test
+    public void testRunAsyncNullStage() throws InterruptedException {
+        CircuitBreaker cb = halfOpenCircuitBreaker();
+        long failedCalls = cb.getNumberOfFailedCalls();
+        for (int index = 0; index < 2; index++) {
+            CompletableFuture<String> result = cb.runAsync(() -> null, t -> "degrade");
+            try {
+                result.get();
+                Assert.fail();
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof NullPointerException);
+            }
+        }
+        // 不计入调用结果，探测名额被归还
+        Assert.assertEquals(failedCalls, cb.getNumberOfFailedCalls());
+        Assert.assertEquals(State.HALF_OPEN, cb.getState());
+        Assert.assertEquals("deep in spring cloud", cb.run(() -> "deep in spring cloud", t -> "degrade"));
+    }
+
+    // 打开断路器并等待 halfOpenTimeout，返回时下一次调用会进入 half-open 状态
+    private static CircuitBreaker halfOpenCircuitBreaker() {
+        Config config = new Config();
+        config.setFailureCount(2);
+        config.setHalfOpenTimeout(500);
+        CircuitBreaker cb = new CircuitBreaker(config);
+        for (int index = 0; index < 2; index++) {
+            cb.run(() -> {
+                throw new IllegalStateException("Oops");
+            }, t -> null);
+        }
+        Assert.assertEquals(State.OPEN, cb.getState());
+        try {
+            Thread.sleep(600L);
+        } catch (InterruptedException e) {
+            // ignore
+        }
+        return cb;
+    }
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.concurrent.TimeUnit;
+
+import deep.in.spring.cloud.Counter;
+import deep.in.spring.cloud.FixedWindowCounter;
+import deep.in.spring.cloud.SlidingWindowCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 对比 synchronized 的 {@link FixedWindowCounter} 与无锁的 {@link SlidingWindowCounter} 在多线程记录失败时的吞吐。
+ * <p>
+ * 运行方式：执行 main 方法，分别以 1/8/32 个线程压测。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterBenchmark {
+
+    @Param({"fixed", "sliding"})
+    private String type;
+
+    private Counter counter;
+
+    @Setup
+    public void setUp() {
+        // 阀值足够大，保证压测过程中不会触发 reset
+        if ("fixed".equals(type)) {
+            counter = new FixedWindowCounter(Integer.MAX_VALUE, 2000);
+        } else {
+            counter = new SlidingWindowCounter(Integer.MAX_VALUE, 2000, 10);
+        }
+    }
+
+    @Benchmark
+    public int incrFailureCount() {
+        return counter.incrFailureCount();
+    }
+
+    @Benchmark
+    public boolean incrFailureCountAndCheck() {
+        counter.incrFailureCount();
+        return counter.failureThresholdReached();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : new int[] {1, 8, 32}) {
+            Options options = new OptionsBuilder()
+                .include(CounterBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+            new Runner(options).run();
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import deep.in.spring.cloud.SlidingWindowCounter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class SlidingWindowCounterTest {
+
+    @Test
+    public void testThresholdReached() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(3, 2000, 10);
+        counter.incrFailureCount();
+        counter.incrFailureCount();
+        Assert.assertFalse(counter.failureThresholdReached());
+        counter.incrFailureCount();
+        Assert.assertTrue(counter.failureThresholdReached());
+        counter.reset();
+        Assert.assertEquals(0, counter.getCurCount());
+    }
+
+    @Test
+    public void testWindowSlides() throws InterruptedException {
+        SlidingWindowCounter counter = new SlidingWindowCounter(5, 500, 5);
+        counter.incrFailureCount();
+        counter.incrFailureCount();
+        Thread.sleep(300L);
+        counter.incrFailureCount();
+        Assert.assertEquals(3, counter.getCurCount());
+        // 前两次失败滑出窗口，第三次仍在窗口内
+        Thread.sleep(300L);
+        Assert.assertEquals(1, counter.getCurCount());
+        Thread.sleep(600L);
+        Assert.assertEquals(0, counter.getCurCount());
+    }
+
+    @Test
+    public void testConcurrentIncr() throws InterruptedException {
+        SlidingWindowCounter counter = new SlidingWindowCounter(Integer.MAX_VALUE, 60 * 1000, 10);
+        int threads = 8;
+        int perThread = 10000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int index = 0; index < threads; index++) {
+            executorService.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    counter.incrFailureCount();
+                }
+                latch.countDown();
+            });
+        }
+        latch.await(10, TimeUnit.SECONDS);
+        executorService.shutdown();
+        Assert.assertEquals(threads * perThread, counter.getCurCount());
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * 进程内模拟的下游服务，用 {@link Blackhole#consumeCPU(long)} 模拟一次调用的计算量，不产生网络 IO，也不分配对象，
+ * 压测结果中的耗时和内存分配都来自于被测的熔断组件本身。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public final class FakeDownstream {
+
+    public static final String RESPONSE = "Request success";
+
+    private FakeDownstream() {
+    }
+
+    public static String call(long tokens) {
+        if (tokens > 0) {
+            Blackhole.consumeCPU(tokens);
+        }
+        return RESPONSE;
+    }
+
+}
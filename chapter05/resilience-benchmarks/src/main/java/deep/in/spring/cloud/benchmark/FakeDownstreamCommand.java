@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixThreadPoolProperties;
+
+/**
+ * 调用 {@link FakeDownstream} 的 Hystrix Command，对应 netflix-hystrix 中的 HelloWorldCommand(线程池隔离)
+ * 和 CircuitBreakerRestCommand(自定义熔断参数)。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class FakeDownstreamCommand extends HystrixCommand<String> {
+
+    // 线程池隔离，与 HelloWorldCommand 相同的默认配置，放大线程池避免 64 线程压测时被拒绝
+    public static final Setter THREAD = Setter
+        .withGroupKey(HystrixCommandGroupKey.Factory.asKey("HelloWorldExample"))
+        .andCommandKey(HystrixCommandKey.Factory.asKey("ThreadIsolation"))
+        .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+            .withExecutionTimeoutEnabled(false))
+        .andThreadPoolPropertiesDefaults(HystrixThreadPoolProperties.Setter()
+            .withCoreSize(64));
+
+    // 信号量隔离，熔断参数与 CircuitBreakerRestCommand 相同
+    public static final Setter SEMAPHORE = Setter
+        .withGroupKey(HystrixCommandGroupKey.Factory.asKey("CBRestExample"))
+        .andCommandKey(HystrixCommandKey.Factory.asKey("SemaphoreIsolation"))
+        .andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+            .withExecutionIsolationStrategy(HystrixCommandProperties.ExecutionIsolationStrategy.SEMAPHORE)
+            .withExecutionIsolationSemaphoreMaxConcurrentRequests(1000)
+            .withFallbackIsolationSemaphoreMaxConcurrentRequests(1000)
+            .withExecutionTimeoutEnabled(false)
+            .withCircuitBreakerErrorThresholdPercentage(10)
+            .withCircuitBreakerRequestVolumeThreshold(10)
+            .withCircuitBreakerSleepWindowInMilliseconds(3000));
+
+    private final long tokens;
+
+    public FakeDownstreamCommand(Setter setter, long tokens) {
+        super(setter);
+        this.tokens = tokens;
+    }
+
+    @Override
+    protected String run() {
+        return FakeDownstream.call(tokens);
+    }
+
+    @Override
+    protected String getFallback() {
+        return "Request failed";
+    }
+}
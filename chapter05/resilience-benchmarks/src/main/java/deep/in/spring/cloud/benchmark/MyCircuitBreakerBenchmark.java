@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import deep.in.spring.cloud.AdaptiveLimiter;
+import deep.in.spring.cloud.CircuitBreaker;
+import deep.in.spring.cloud.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 自定义断路器(my-circuit-breaker)正常调用路径的开销，baseline 为直接调用下游。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyCircuitBreakerBenchmark {
+
+    @Param({"0", "100"})
+    private long downstreamTokens;
+
+    private CircuitBreaker circuitBreaker;
+
+    private AdaptiveLimiter adaptiveLimiter;
+
+    @Setup
+    public void setUp() {
+        circuitBreaker = new CircuitBreaker(new Config());
+        adaptiveLimiter = new AdaptiveLimiter(1000, 1, 1000);
+    }
+
+    @Benchmark
+    public String baseline() {
+        return FakeDownstream.call(downstreamTokens);
+    }
+
+    @Benchmark
+    public String circuitBreaker() {
+        return circuitBreaker.run(() -> FakeDownstream.call(downstreamTokens), t -> "Request failed");
+    }
+
+    @Benchmark
+    public String adaptiveLimiterWithCircuitBreaker() {
+        return adaptiveLimiter.run(circuitBreaker, () -> FakeDownstream.call(downstreamTokens), t -> "Request failed");
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.ratelimiter.RateLimiter;
+import io.github.resilience4j.ratelimiter.RateLimiterConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resilience4j 的 CircuitBreaker、RateLimiter、Bulkhead 正常调用路径的开销，
+ * 配置与 R4jCircuitBreaker、R4jRateLimiter、R4jBulkhead 中的例子一致，只是放宽了限流和并发阀值保证不会触发拒绝。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Resilience4jBenchmark {
+
+    @Param({"0", "100"})
+    private long downstreamTokens;
+
+    private CircuitBreaker circuitBreaker;
+
+    private RateLimiter rateLimiter;
+
+    private Bulkhead bulkhead;
+
+    @Setup
+    public void setUp() {
+        circuitBreaker = CircuitBreaker.ofDefaults("benchmark");
+        rateLimiter = RateLimiter.of("benchmark", RateLimiterConfig.custom()
+            .limitRefreshPeriod(Duration.ofMillis(1))
+            .limitForPeriod(Integer.MAX_VALUE)
+            .timeoutDuration(Duration.ZERO)
+            .build());
+        bulkhead = Bulkhead.of("benchmark", BulkheadConfig.custom()
+            .maxConcurrentCalls(1000)
+            .maxWaitDuration(Duration.ZERO)
+            .build());
+    }
+
+    @Benchmark
+    public String circuitBreaker() {
+        return circuitBreaker.executeSupplier(() -> FakeDownstream.call(downstreamTokens));
+    }
+
+    @Benchmark
+    public String rateLimiter() {
+        return rateLimiter.executeSupplier(() -> FakeDownstream.call(downstreamTokens));
+    }
+
+    @Benchmark
+    public String bulkhead() {
+        return bulkhead.executeSupplier(() -> FakeDownstream.call(downstreamTokens));
+    }
+
+}
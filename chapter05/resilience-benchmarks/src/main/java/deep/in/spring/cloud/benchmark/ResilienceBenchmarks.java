@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * benchmarks.jar 的入口。
+ * <p>
+ * 不带参数时依次以 1/4/16/64 个线程运行全部用例，并开启 GC profiler 统计每次调用的内存分配(gc.alloc.rate.norm)；
+ * 带参数时与 JMH 原生命令行一致，例如 {@code java -jar benchmarks.jar SentinelBenchmark -t 16 -prof gc}。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ResilienceBenchmarks {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0) {
+            Main.main(args);
+            return;
+        }
+        for (int threads : new int[] {1, 4, 16, 64}) {
+            Options options = new OptionsBuilder()
+                .include(ResilienceBenchmarks.class.getPackage().getName() + ".*Benchmark")
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .result("results-" + threads + "-threads.json")
+                .resultFormat(ResultFormatType.JSON)
+                .build();
+            new Runner(options).run();
+        }
+    }
+
+}
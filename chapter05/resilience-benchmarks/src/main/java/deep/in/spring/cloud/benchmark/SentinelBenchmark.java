@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud.benchmark;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRule;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRuleManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sentinel {@link SphU#entry(String)} 正常调用路径的开销，分别测试没有规则和配置了熔断规则的资源。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SentinelBenchmark {
+
+    private static final String PLAIN_RESOURCE = "/benchmark/plain";
+
+    private static final String DEGRADE_RESOURCE = "/benchmark/degrade";
+
+    @Param({"0", "100"})
+    private long downstreamTokens;
+
+    @Setup
+    public void setUp() {
+        // 与 SentinelCircuitBreakerDemo 相同的异常数熔断规则，压测过程中不会有异常，不会触发熔断
+        DegradeRule degradeRule = new DegradeRule();
+        degradeRule.setGrade(RuleConstant.DEGRADE_GRADE_EXCEPTION_COUNT);
+        degradeRule.setResource(DEGRADE_RESOURCE);
+        degradeRule.setCount(10);
+        degradeRule.setTimeWindow(10);
+        DegradeRuleManager.loadRules(Collections.singletonList(degradeRule));
+    }
+
+    @Benchmark
+    public String entry() {
+        return call(PLAIN_RESOURCE);
+    }
+
+    @Benchmark
+    public String entryWithDegradeRule() {
+        return call(DEGRADE_RESOURCE);
+    }
+
+    private String call(String resource) {
+        Entry entry = null;
+        try {
+            entry = SphU.entry(resource);
+            return FakeDownstream.call(downstreamTokens);
+        } catch (BlockException ex) {
+            return "Request failed";
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+    }
+
+}
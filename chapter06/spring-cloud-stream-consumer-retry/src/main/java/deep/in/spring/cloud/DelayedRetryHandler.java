@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.function.Consumer;
+
+import org.apache.rocketmq.common.message.MessageConst;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * 不阻塞消费线程的重试: 消息处理失败后不在当前线程 sleep 重试，而是带上重试次数和延迟级别重新发送到 retry binding，
+ * 由 RocketMQ 的延迟消息在指定时间后重新投递；重试次数用完后发送到 dlq binding。
+ * <p>
+ * 延迟级别是 RocketMQ broker 的 messageDelayLevel 下标 (从 1 开始)，默认配置为
+ * 1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h，{@link #DEFAULT_DELAY_LEVELS} 对应 1s/10s/1m。
+ * <p>
+ * 重新发送只是一次普通的消息发送，一条一直失败的消息不会阻塞同一个队列中后面的消息。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class DelayedRetryHandler {
+
+    public static final String ATTEMPT_HEADER = "x-retry-attempt";
+
+    public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+
+    // spring-cloud-stream-binder-rocketmq 发送消息时读取这个 header 作为延迟级别
+    public static final String DELAY_LEVEL_HEADER = MessageConst.PROPERTY_DELAY_TIME_LEVEL;
+
+    public static final int[] DEFAULT_DELAY_LEVELS = {1, 3, 5};
+
+    private static final Logger logger = LoggerFactory.getLogger(DelayedRetryHandler.class);
+
+    private final MessageChannel retryChannel;
+
+    private final MessageChannel deadLetterChannel;
+
+    private final int[] delayLevels;
+
+    public DelayedRetryHandler(MessageChannel retryChannel, MessageChannel deadLetterChannel) {
+        this(retryChannel, deadLetterChannel, DEFAULT_DELAY_LEVELS);
+    }
+
+    public DelayedRetryHandler(MessageChannel retryChannel, MessageChannel deadLetterChannel, int[] delayLevels) {
+        Assert.notNull(retryChannel, "retryChannel must not be null");
+        Assert.notNull(deadLetterChannel, "deadLetterChannel must not be null");
+        Assert.notNull(delayLevels, "delayLevels must not be null");
+        this.retryChannel = retryChannel;
+        this.deadLetterChannel = deadLetterChannel;
+        this.delayLevels = delayLevels.clone();
+    }
+
+    /**
+     * 调用 processor 处理消息，失败时安排延迟重试或者发送到死信队列，不会抛出 processor 的异常。
+     * 重新发送失败时抛出异常，由 binder 按原来的方式处理这条消息。
+     */
+    public <T> void handle(Message<T> message, Consumer<T> processor) {
+        try {
+            processor.accept(message.getPayload());
+        } catch (RuntimeException e) {
+            int attempt = getAttempt(message);
+            if (attempt < delayLevels.length) {
+                logger.warn("Failed to process message, retry " + (attempt + 1) + " with delay level "
+                    + delayLevels[attempt] + ": " + e.getMessage());
+                send(retryChannel, MessageBuilder.fromMessage(message)
+                    .setHeader(ATTEMPT_HEADER, attempt + 1)
+                    .setHeader(DELAY_LEVEL_HEADER, delayLevels[attempt])
+                    .setHeader(EXCEPTION_MESSAGE_HEADER, String.valueOf(e.getMessage()))
+                    .build());
+            } else {
+                logger.error("Failed to process message after " + attempt + " retries, send to dead letter", e);
+                send(deadLetterChannel, MessageBuilder.fromMessage(message)
+                    .removeHeader(DELAY_LEVEL_HEADER)
+                    .setHeader(EXCEPTION_MESSAGE_HEADER, String.valueOf(e.getMessage()))
+                    .build());
+            }
+        }
+    }
+
+    private static void send(MessageChannel channel, Message<?> message) {
+        if (!channel.send(message)) {
+            throw new IllegalStateException("Failed to send message to " + channel);
+        }
+    }
+
+    // 经过 broker 之后自定义 header 会变成字符串
+    static int getAttempt(Message<?> message) {
+        Object attempt = message.getHeaders().get(ATTEMPT_HEADER);
+        if (attempt == null) {
+            return 0;
+        }
+        if (attempt instanceof Number) {
+            return ((Number) attempt).intValue();
+        }
+        try {
+            return Integer.parseInt(attempt.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
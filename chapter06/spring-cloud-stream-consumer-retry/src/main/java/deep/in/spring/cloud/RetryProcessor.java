@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * {@link DelayedRetryHandler} 使用的 binding: retry 发送到当前消费组独有的重试 topic，消息延迟后由 retry-input 重新消费，
+ * 不会投递给订阅了 input topic 的其他消费组；dlq 接收重试次数用完的消息。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public interface RetryProcessor {
+
+    String RETRY = "retry";
+
+    String RETRY_INPUT = "retry-input";
+
+    String DLQ = "dlq";
+
+    @Output(RETRY)
+    MessageChannel retry();
+
+    @Input(RETRY_INPUT)
+    SubscribableChannel retryInput();
+
+    @Output(DLQ)
+    MessageChannel dlq();
+
+}
@@ -23,6 +23,7 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
@@ -30,13 +31,17 @@ import org.springframework.cloud.stream.messaging.Sink;
 import org.springframework.cloud.stream.messaging.Source;
 import org.springframework.context.annotation.Bean;
 import org.springframework.integration.support.MessageBuilder;
+import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 
 /**
+ * 默认使用 binder 的 RetryTemplate 重试 (消费线程中 sleep)。
+ * 配置 retry.non-blocking.enabled=true 后使用 {@link DelayedRetryHandler}，失败的消息延迟后重新投递，不阻塞消费线程。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 @SpringBootApplication
-@EnableBinding({Source.class, Sink.class})
+@EnableBinding({Source.class, Sink.class, RetryProcessor.class})
 public class SCSRetryApplication {
 
     public static void main(String[] args) {
@@ -49,8 +54,25 @@ public class SCSRetryApplication {
 
         private AtomicInteger count = new AtomicInteger(1);
 
+        @Autowired(required = false)
+        private DelayedRetryHandler delayedRetryHandler;
+
         @StreamListener(Sink.INPUT)
-        public void receiveOrderlyMsg(String receiveMsg) {
+        public void receiveOrderlyMsg(Message<String> message) {
+            if (delayedRetryHandler != null) {
+                delayedRetryHandler.handle(message, this::process);
+            } else {
+                process(message.getPayload());
+            }
+        }
+
+        // 重试 topic 中的消息和 input 中的消息按同样的方式处理，重试次数保存在 header 中
+        @StreamListener(RetryProcessor.RETRY_INPUT)
+        public void receiveRetryMsg(Message<String> message) {
+            receiveOrderlyMsg(message);
+        }
+
+        private void process(String receiveMsg) {
             System.out.println("invoke: " + count.get());
             if (count.getAndIncrement() <= 6) {
                 throw new RuntimeException("Oops: " + receiveMsg);
@@ -64,6 +86,12 @@ public class SCSRetryApplication {
     @Autowired
     private Source source;
 
+    @Bean
+    @ConditionalOnProperty(name = "retry.non-blocking.enabled", havingValue = "true")
+    public DelayedRetryHandler delayedRetryHandler(RetryProcessor retryProcessor) {
+        return new DelayedRetryHandler(retryProcessor.retry(), retryProcessor.dlq());
+    }
+
     @Bean
     public CommandLineRunner runner() {
         return (args) -> {
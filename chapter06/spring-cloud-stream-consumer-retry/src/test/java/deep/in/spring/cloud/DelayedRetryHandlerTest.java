@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 用 {@link SimulatedBroker} 模拟 broker 的延迟投递: 时间是虚拟的，每投递一条消息前进一个单位，
+ * 没有可以投递的消息时直接跳到下一条延迟消息的投递时间，测试结果不依赖机器的快慢。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class DelayedRetryHandlerTest {
+
+    // 每个延迟级别对应的虚拟时间，远大于所有消息的个数
+    private static final long DELAY_UNIT = 100000;
+
+    private static final int[] DELAY_LEVELS = {1, 2, 3};
+
+    private static final int HEALTHY = 1000;
+
+    private static final int POISON = 100;
+
+    private final SimulatedBroker broker = new SimulatedBroker();
+
+    private final List<Message<?>> deadLetters = new ArrayList<>();
+
+    private final DelayedRetryHandler handler = new DelayedRetryHandler(broker::retry,
+        (message, timeout) -> deadLetters.add(message), DELAY_LEVELS);
+
+    @Test
+    public void testHealthyMessagesNotBlockedByFailures() {
+        // 每 10 条正常消息前有一条一直失败的消息
+        for (int i = 0; i < HEALTHY; i++) {
+            if (i % (HEALTHY / POISON) == 0) {
+                broker.send(MessageBuilder.withPayload("poison-" + i).build());
+            }
+            broker.send(MessageBuilder.withPayload("msg-" + i).build());
+        }
+
+        List<Message<String>> processed = new ArrayList<>();
+        int lastHealthy = -1;
+        int firstRedelivery = -1;
+        Message<String> message;
+        while ((message = broker.poll()) != null) {
+            processed.add(message);
+            if (DelayedRetryHandler.getAttempt(message) > 0 && firstRedelivery < 0) {
+                firstRedelivery = processed.size() - 1;
+            }
+            if (message.getPayload().startsWith("msg")) {
+                lastHealthy = processed.size() - 1;
+            }
+            handler.handle(message, payload -> {
+                if (payload.startsWith("poison")) {
+                    throw new IllegalStateException("Oops: " + payload);
+                }
+            });
+        }
+
+        // 正常消息都在第一条延迟重投的消息之前处理完
+        Assert.assertEquals(HEALTHY + POISON - 1, lastHealthy);
+        Assert.assertEquals(HEALTHY + POISON, firstRedelivery);
+        // 每条失败的消息被消费 1 + 3 次
+        Assert.assertEquals(HEALTHY + POISON * (1 + DELAY_LEVELS.length), processed.size());
+
+        Assert.assertEquals(POISON, deadLetters.size());
+        for (Message<?> deadLetter : deadLetters) {
+            Assert.assertTrue(((String) deadLetter.getPayload()).startsWith("poison"));
+            Assert.assertEquals(DELAY_LEVELS.length, DelayedRetryHandler.getAttempt(deadLetter));
+            Assert.assertFalse(deadLetter.getHeaders().containsKey(DelayedRetryHandler.DELAY_LEVEL_HEADER));
+        }
+    }
+
+    @Test
+    public void testRetrySucceeds() {
+        broker.send(MessageBuilder.withPayload("msg").build());
+        List<Integer> attempts = new ArrayList<>();
+        Message<String> message;
+        while ((message = broker.poll()) != null) {
+            int attempt = DelayedRetryHandler.getAttempt(message);
+            attempts.add(attempt);
+            handler.handle(message, payload -> {
+                if (attempt < 2) {
+                    throw new IllegalStateException("Oops: " + payload);
+                }
+            });
+        }
+        Assert.assertEquals(3, attempts.size());
+        Assert.assertEquals(Integer.valueOf(2), attempts.get(2));
+        Assert.assertTrue(deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testAttemptHeaderFromBroker() {
+        Assert.assertEquals(0, DelayedRetryHandler.getAttempt(MessageBuilder.withPayload("msg").build()));
+        // 经过 broker 后 header 是字符串
+        Assert.assertEquals(2, DelayedRetryHandler.getAttempt(
+            MessageBuilder.withPayload("msg").setHeader(DelayedRetryHandler.ATTEMPT_HEADER, "2").build()));
+    }
+
+    private static final class SimulatedBroker {
+
+        private final Queue<Message<String>> ready = new ArrayDeque<>();
+
+        private final PriorityQueue<Delayed> delayed = new PriorityQueue<>();
+
+        private long now;
+
+        private long order;
+
+        void send(Message<String> message) {
+            ready.add(message);
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean retry(Message<?> message, long timeout) {
+            int level = (Integer) message.getHeaders().get(DelayedRetryHandler.DELAY_LEVEL_HEADER);
+            delayed.add(new Delayed(now + level * DELAY_UNIT, order++, (Message<String>) message));
+            return true;
+        }
+
+        Message<String> poll() {
+            if (ready.isEmpty() && !delayed.isEmpty()) {
+                now = Math.max(now, delayed.peek().due);
+            }
+            while (!delayed.isEmpty() && delayed.peek().due <= now) {
+                ready.add(delayed.poll().message);
+            }
+            Message<String> message = ready.poll();
+            if (message != null) {
+                now++;
+            }
+            return message;
+        }
+
+    }
+
+    private static final class Delayed implements Comparable<Delayed> {
+
+        final long due;
+
+        final long order;
+
+        final Message<String> message;
+
+        Delayed(long due, long order, Message<String> message) {
+            this.due = due;
+            this.order = order;
+            this.message = message;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int result = Long.compare(due, other.due);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+
+/**
+ * 驱动 {@link PollableMessageSource} 的拉取线程: 拉到消息时立即继续拉取，直到队列为空；
+ * 拉取为空时从 minBackoffMillis 开始指数退避，最大 maxBackoffMillis，拉到消息后退避时间重置。
+ * 有消息时延迟低，空闲时几乎不占用 CPU。
+ * <p>
+ * 多个 poller 并发拉取同一个 PollableMessageSource，handler 需要是线程安全的。
+ * <p>
+ * 指标 (tag binding):
+ * <ul>
+ * <li>polling.polls: 拉取次数，tag result 为 message 或者 empty</li>
+ * <li>polling.efficiency: 拉到消息的次数占总拉取次数的比例</li>
+ * <li>polling.lag: 消息从生产者发送到被处理的延迟，从 lagHeader 中读取发送时间</li>
+ * <li>polling.idle: 正在退避的 poller 数量</li>
+ * <li>polling.errors: 拉取或者处理消息失败的次数，不计入 polling.polls</li>
+ * </ul>
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class AdaptivePollingDriver implements SmartLifecycle {
+
+    // RocketMQ binder 把 MessageExt 的 bornTimestamp 放在这个 header 中
+    public static final String DEFAULT_LAG_HEADER = "rocketmq_BORN_TIMESTAMP";
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePollingDriver.class);
+
+    private final String name;
+
+    private final PollableMessageSource source;
+
+    private final MessageHandler handler;
+
+    private final int concurrency;
+
+    private final long minBackoffMillis;
+
+    private final long maxBackoffMillis;
+
+    private final String lagHeader;
+
+    private final Counter messagePolls;
+
+    private final Counter emptyPolls;
+
+    private final Counter errors;
+
+    private final Timer lag;
+
+    private final AtomicInteger idle = new AtomicInteger();
+
+    private final List<Thread> pollers = new ArrayList<>();
+
+    private volatile CountDownLatch stopped;
+
+    public AdaptivePollingDriver(String name, PollableMessageSource source, MessageHandler handler,
+                                 MeterRegistry meterRegistry) {
+        this(name, source, handler, meterRegistry, 1, 10, 5000, DEFAULT_LAG_HEADER);
+    }
+
+    public AdaptivePollingDriver(String name, PollableMessageSource source, MessageHandler handler,
+                                 MeterRegistry meterRegistry, int concurrency, long minBackoffMillis,
+                                 long maxBackoffMillis, String lagHeader) {
+        Assert.isTrue(concurrency > 0, "concurrency must be positive");
+        Assert.isTrue(minBackoffMillis > 0 && minBackoffMillis <= maxBackoffMillis,
+            "minBackoffMillis must be positive and not greater than maxBackoffMillis");
+        this.name = name;
+        this.source = source;
+        this.handler = handler;
+        this.concurrency = concurrency;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.lagHeader = lagHeader;
+        Tags tags = Tags.of("binding", name);
+        this.messagePolls = meterRegistry.counter("polling.polls", tags.and("result", "message"));
+        this.emptyPolls = meterRegistry.counter("polling.polls", tags.and("result", "empty"));
+        this.errors = meterRegistry.counter("polling.errors", tags);
+        this.lag = meterRegistry.timer("polling.lag", tags);
+        meterRegistry.gauge("polling.efficiency", tags, this, AdaptivePollingDriver::getEfficiency);
+        meterRegistry.gauge("polling.idle", tags, idle);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        stopped = new CountDownLatch(1);
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = new Thread(this::pollLoop, "poller-" + name + "-" + i);
+            pollers.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        // 唤醒退避中的 poller，正在处理的消息会处理完
+        stopped.countDown();
+        for (Thread poller : pollers) {
+            try {
+                poller.join(maxBackoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        pollers.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        CountDownLatch stopped = this.stopped;
+        return stopped != null && stopped.getCount() > 0;
+    }
+
+    public double getEfficiency() {
+        double total = messagePolls.count() + emptyPolls.count();
+        return total == 0 ? 0 : messagePolls.count() / total;
+    }
+
+    private void pollLoop() {
+        CountDownLatch stopped = this.stopped;
+        long backoff = minBackoffMillis;
+        while (stopped.getCount() > 0) {
+            boolean received;
+            try {
+                received = source.poll(this::handle);
+            } catch (RuntimeException e) {
+                // 失败不算空拉取，不影响 polling.efficiency 和退避时间；按当前退避时间等待一次，避免持续失败时空转
+                errors.increment();
+                logger.error("Failed to poll " + name, e);
+                if (!await(stopped, backoff)) {
+                    return;
+                }
+                continue;
+            }
+            if (received) {
+                messagePolls.increment();
+                backoff = minBackoffMillis;
+                continue;
+            }
+            emptyPolls.increment();
+            idle.incrementAndGet();
+            try {
+                if (!await(stopped, backoff)) {
+                    return;
+                }
+            } finally {
+                idle.decrementAndGet();
+            }
+            backoff = Math.min(backoff * 2, maxBackoffMillis);
+        }
+    }
+
+    /**
+     * 等待 millis 或者 stop，线程被中断时返回 false
+     */
+    private static boolean await(CountDownLatch stopped, long millis) {
+        try {
+            stopped.await(millis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void handle(Message<?> message) {
+        long bornTimestamp = getTimestamp(message.getHeaders().get(lagHeader));
+        if (bornTimestamp > 0) {
+            lag.record(Math.max(0, System.currentTimeMillis() - bornTimestamp), TimeUnit.MILLISECONDS);
+        }
+        handler.handleMessage(message);
+    }
+
+    private static long getTimestamp(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+}
@@ -17,8 +17,9 @@
 package deep.in.spring.cloud;
 
 import deep.in.spring.cloud.SCSPollingConsumerApplication.MySink;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.CommandLineRunner;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
@@ -58,15 +59,13 @@ public class SCSPollingConsumerApplication {
     MySink mySink;
 
     @Bean
-    public CommandLineRunner runner() {
-        return (args) -> {
-            while (true) {
-                mySink.input().poll(m -> {
-                    System.out.println("poll: " + m.getPayload());
-                });
-                Thread.sleep(5000L);
-            }
-        };
+    public AdaptivePollingDriver pollingDriver(MeterRegistry meterRegistry,
+        @Value("${polling.concurrency:1}") int concurrency,
+        @Value("${polling.min-backoff-millis:10}") long minBackoffMillis,
+        @Value("${polling.max-backoff-millis:5000}") long maxBackoffMillis) {
+        return new AdaptivePollingDriver(INPUT, mySink.input(), m -> {
+            System.out.println(Thread.currentThread().getName() + " poll: " + m.getPayload());
+        }, meterRegistry, concurrency, minBackoffMillis, maxBackoffMillis, AdaptivePollingDriver.DEFAULT_LAG_HEADER);
     }
 
 }
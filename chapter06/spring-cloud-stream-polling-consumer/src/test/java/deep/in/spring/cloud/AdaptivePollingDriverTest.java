@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.cloud.stream.binder.PollableMessageSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 使用按脚本返回消息、空结果或者异常的 PollableMessageSource，验证连续拉取、指数退避、多个 poller、stop 唤醒退避中的线程以及指标。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class AdaptivePollingDriverTest {
+
+    private static final String LAG_HEADER = "born";
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final AtomicInteger handled = new AtomicInteger();
+
+    private final MessageHandler handler = message -> handled.incrementAndGet();
+
+    private AdaptivePollingDriver driver;
+
+    @After
+    public void stop() {
+        if (driver != null) {
+            driver.stop();
+        }
+    }
+
+    @Test
+    public void testDrainWithoutSleeping() throws InterruptedException {
+        int messages = 1000;
+        StubSource source = new StubSource(i -> i < messages ? message(i) : null);
+        driver = driver(source, 1, 1000, 1000);
+
+        long start = System.nanoTime();
+        driver.start();
+        awaitCount(handled, messages);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 有消息时不退避，1000 条消息在第一次退避 (1s) 之前处理完
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 1000);
+        Assert.assertEquals(messages, (long) count("message"));
+        Assert.assertTrue(count("empty") <= 1);
+    }
+
+    @Test
+    public void testBackoff() throws InterruptedException {
+        // 第 7 次拉到消息，之后重新从 minBackoff 开始退避
+        StubSource source = new StubSource(i -> i == 7 ? message(i) : null);
+        driver = driver(source, 1, 20, 160);
+        driver.start();
+        source.awaitPolls(11);
+        driver.stop();
+
+        long[] expected = {20, 40, 80, 160, 160, 160, 160, 0, 20, 40};
+        List<Long> gaps = source.gaps();
+        for (int i = 0; i < expected.length; i++) {
+            long gap = gaps.get(i);
+            Assert.assertTrue("gap " + i + " " + gaps, gap >= expected[i] && gap < expected[i] + 100);
+        }
+        Assert.assertTrue(gaps.get(7) < 20);
+        Assert.assertEquals(1, (long) count("message"));
+    }
+
+    @Test
+    public void testErrorsAreNotEmptyPolls() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        StubSource source = new StubSource(i -> {
+            if (i < 3) {
+                throw new IllegalStateException("broker unavailable");
+            }
+            if (i == 3) {
+                return message(i);
+            }
+            await(release);
+            return null;
+        });
+        driver = driver(source, 1, 20, 1000);
+        driver.start();
+        source.awaitPolls(5);
+
+        // 失败不计入空拉取，不影响拉取效率，也不会让退避时间翻倍
+        Assert.assertEquals(3, registry.counter("polling.errors", "binding", "test").count(), 0);
+        Assert.assertEquals(0, count("empty"), 0);
+        Assert.assertEquals(1, count("message"), 0);
+        Assert.assertEquals(1.0, driver.getEfficiency(), 0);
+        List<Long> gaps = source.gaps();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue("gap " + i + " " + gaps, gaps.get(i) >= 20 && gaps.get(i) < 20 + 100);
+        }
+        release.countDown();
+    }
+
+    @Test
+    public void testConcurrency() throws InterruptedException {
+        int concurrency = 4;
+        CountDownLatch allPolling = new CountDownLatch(concurrency);
+        StubSource source = new StubSource(i -> {
+            // 4 个 poller 同时在 poll 中才能全部返回
+            allPolling.countDown();
+            await(allPolling);
+            return message(i);
+        });
+        driver = driver(source, concurrency, 10, 10);
+        driver.start();
+
+        Assert.assertTrue(allPolling.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(concurrency, source.threads.size());
+        for (int i = 0; i < concurrency; i++) {
+            Assert.assertTrue(source.threads.containsKey("poller-test-" + i));
+        }
+    }
+
+    @Test
+    public void testStopWakesBackedOffPollers() throws InterruptedException {
+        StubSource source = new StubSource(i -> null);
+        driver = driver(source, 2, 60000, 60000);
+        driver.start();
+        Assert.assertTrue(driver.isRunning());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("polling.idle").gauge().value() < 2) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(5L);
+        }
+
+        long start = System.nanoTime();
+        driver.stop();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertTrue("elapsed " + elapsed, elapsed < 5000);
+        Assert.assertFalse(driver.isRunning());
+        for (Thread thread : source.threads.values()) {
+            Assert.assertFalse(thread.isAlive());
+        }
+        Assert.assertEquals(0, registry.get("polling.idle").gauge().value(), 0);
+        Assert.assertEquals(2, source.polls.get());
+    }
+
+    @Test
+    public void testLag() throws InterruptedException {
+        long born = System.currentTimeMillis() - 500;
+        StubSource source = new StubSource(i -> {
+            switch (i) {
+                case 0:
+                    return MessageBuilder.withPayload(i).setHeader(LAG_HEADER, born).build();
+                case 1:
+                    // header 是字符串时也能解析
+                    return MessageBuilder.withPayload(i).setHeader(LAG_HEADER, String.valueOf(born)).build();
+                case 2:
+                    return MessageBuilder.withPayload(i).setHeader(LAG_HEADER, "unknown").build();
+                case 3:
+                    return message(i);
+                default:
+                    return null;
+            }
+        });
+        driver = driver(source, 1, 1000, 1000);
+        driver.start();
+        awaitCount(handled, 4);
+
+        Timer lag = registry.timer("polling.lag", "binding", "test");
+        Assert.assertEquals(2, lag.count());
+        Assert.assertTrue(lag.max(TimeUnit.MILLISECONDS) >= 500);
+    }
+
+    private AdaptivePollingDriver driver(PollableMessageSource source, int concurrency, long minBackoffMillis,
+                                         long maxBackoffMillis) {
+        return new AdaptivePollingDriver("test", source, handler, registry, concurrency, minBackoffMillis,
+            maxBackoffMillis, LAG_HEADER);
+    }
+
+    private double count(String result) {
+        return registry.counter("polling.polls", "binding", "test", "result", result).count();
+    }
+
+    private static Message<Integer> message(int payload) {
+        return MessageBuilder.withPayload(payload).build();
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.get() < expected) {
+            Assert.assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1L);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 第 i 次 poll 时按脚本返回消息 (交给 handler 处理)、null (没有消息) 或者抛出异常，并记录每次 poll 的时间和线程
+     */
+    static class StubSource implements PollableMessageSource {
+
+        final AtomicInteger polls = new AtomicInteger();
+
+        final Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+        private final IntFunction<Message<?>> script;
+
+        private final Map<Integer, Long> times = new ConcurrentHashMap<>();
+
+        StubSource(IntFunction<Message<?>> script) {
+            this.script = script;
+        }
+
+        @Override
+        public boolean poll(MessageHandler handler) {
+            int index = polls.getAndIncrement();
+            times.put(index, System.nanoTime());
+            threads.put(Thread.currentThread().getName(), Thread.currentThread());
+            Message<?> message = script.apply(index);
+            if (message == null) {
+                return false;
+            }
+            handler.handleMessage(message);
+            return true;
+        }
+
+        void awaitPolls(int count) throws InterruptedException {
+            awaitCount(polls, count);
+        }
+
+        /**
+         * 相邻两次 poll 之间的间隔 (毫秒)
+         */
+        List<Long> gaps() {
+            List<Long> gaps = new ArrayList<>();
+            for (int i = 1; times.containsKey(i); i++) {
+                gaps.add(TimeUnit.NANOSECONDS.toMillis(times.get(i) - times.get(i - 1)));
+            }
+            return gaps;
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * {@link MySubscribableChannel} 选择 MessageHandler 的策略。
+ * <p>
+ * 订阅者只在 subscribe/unsubscribe 时通过 {@link #refresh(MessageHandler[])} 更新，发送消息时直接使用缓存的数组，不再复制订阅者集合。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public interface DispatchStrategy {
+
+    /**
+     * 订阅者发生变化时调用，handlers 是新的订阅者快照，调用方不会再修改
+     */
+    void refresh(MessageHandler[] handlers);
+
+    /**
+     * 没有订阅者或者无法分发时返回 false
+     */
+    boolean dispatch(Message<?> message);
+
+}
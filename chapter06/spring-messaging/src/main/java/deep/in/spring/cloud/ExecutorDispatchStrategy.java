@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.util.Assert;
+
+/**
+ * 异步分发: 每个订阅者有自己的队列，消息放入待处理消息最少的订阅者的队列后立即返回，由 executor 执行。
+ * <p>
+ * 同一个订阅者的消息按顺序串行处理 (同一时刻最多占用 executor 的一个线程)，处理慢的订阅者不会占满 executor。
+ * 所有订阅者的队列都满 (达到 queueCapacity) 时 dispatch 返回 false，发送方可以据此限流。
+ * 订阅者处理消息抛出的异常只记录日志，发送方拿不到。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ExecutorDispatchStrategy implements DispatchStrategy {
+
+    private static final Log logger = LogFactory.getLog(ExecutorDispatchStrategy.class);
+
+    // 一次最多连续处理的消息数，之后重新提交任务，让其他订阅者也能用到 executor 的线程
+    private static final int DRAIN_BATCH = 64;
+
+    private final Executor executor;
+
+    private final int queueCapacity;
+
+    private final AtomicInteger index = new AtomicInteger();
+
+    private volatile Mailbox[] mailboxes = new Mailbox[0];
+
+    public ExecutorDispatchStrategy(Executor executor, int queueCapacity) {
+        Assert.notNull(executor, "executor must not be null");
+        Assert.isTrue(queueCapacity > 0, "queueCapacity must be greater than 0");
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @Override
+    public synchronized void refresh(MessageHandler[] handlers) {
+        // 已取消订阅的 Mailbox 中剩余的消息会继续处理完
+        Map<MessageHandler, Mailbox> existing = new IdentityHashMap<>();
+        for (Mailbox mailbox : mailboxes) {
+            existing.put(mailbox.handler, mailbox);
+        }
+        Mailbox[] refreshed = new Mailbox[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            Mailbox mailbox = existing.get(handlers[i]);
+            refreshed[i] = mailbox != null ? mailbox : new Mailbox(handlers[i]);
+        }
+        this.mailboxes = refreshed;
+    }
+
+    @Override
+    public boolean dispatch(Message<?> message) {
+        Mailbox[] current = mailboxes;
+        int length = current.length;
+        if (length == 0) {
+            return false;
+        }
+        // 从轮询位置开始找待处理消息最少的订阅者
+        int start = (index.getAndIncrement() & Integer.MAX_VALUE) % length;
+        Mailbox target = current[start];
+        int min = target.pending.get();
+        for (int i = 1; i < length && min > 0; i++) {
+            Mailbox mailbox = current[(start + i) % length];
+            int pending = mailbox.pending.get();
+            if (pending < min) {
+                min = pending;
+                target = mailbox;
+            }
+        }
+        return target.offer(message);
+    }
+
+    public int getPending(MessageHandler handler) {
+        for (Mailbox mailbox : mailboxes) {
+            if (mailbox.handler == handler) {
+                return mailbox.pending.get();
+            }
+        }
+        return 0;
+    }
+
+    class Mailbox implements Runnable {
+
+        final MessageHandler handler;
+
+        final Queue<Message<?>> queue = new ConcurrentLinkedQueue<>();
+
+        final AtomicInteger pending = new AtomicInteger();
+
+        final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(MessageHandler handler) {
+            this.handler = handler;
+        }
+
+        boolean offer(Message<?> message) {
+            while (true) {
+                int current = pending.get();
+                if (current >= queueCapacity) {
+                    return false;
+                }
+                if (pending.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+            queue.offer(message);
+            try {
+                schedule();
+            } catch (RejectedExecutionException ex) {
+                if (queue.remove(message)) {
+                    pending.decrementAndGet();
+                }
+                throw ex;
+            }
+            return true;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException ex) {
+                    scheduled.set(false);
+                    throw ex;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < DRAIN_BATCH; i++) {
+                    Message<?> message = queue.poll();
+                    if (message == null) {
+                        break;
+                    }
+                    try {
+                        handler.handleMessage(message);
+                    } catch (Throwable ex) {
+                        logger.error("Failed to handle message " + message + " with " + handler, ex);
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            // 还有剩余消息，或者在 scheduled 复位之前有新消息放入
+            if (!queue.isEmpty()) {
+                try {
+                    schedule();
+                } catch (RejectedExecutionException ex) {
+                    // 在 executor 的线程上抛出没有人处理，剩余的消息等下一次 dispatch 时重新提交
+                    logger.error("Failed to reschedule " + pending.get() + " pending messages of " + handler, ex);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * 选择正在处理的消息数最少的订阅者，多个发送线程同时发送时，处理慢的订阅者会收到更少的消息。
+ * 从随机位置开始遍历，处理中消息数相同时不会总是选中第一个订阅者。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class LeastInFlightDispatchStrategy implements DispatchStrategy {
+
+    private volatile Slot[] slots = new Slot[0];
+
+    @Override
+    public synchronized void refresh(MessageHandler[] handlers) {
+        // 保留已有订阅者的计数
+        Map<MessageHandler, Slot> existing = new IdentityHashMap<>();
+        for (Slot slot : slots) {
+            existing.put(slot.handler, slot);
+        }
+        Slot[] refreshed = new Slot[handlers.length];
+        for (int i = 0; i < handlers.length; i++) {
+            Slot slot = existing.get(handlers[i]);
+            refreshed[i] = slot != null ? slot : new Slot(handlers[i]);
+        }
+        this.slots = refreshed;
+    }
+
+    @Override
+    public boolean dispatch(Message<?> message) {
+        Slot[] current = slots;
+        int length = current.length;
+        if (length == 0) {
+            return false;
+        }
+        int start = length == 1 ? 0 : ThreadLocalRandom.current().nextInt(length);
+        Slot target = current[start];
+        int min = target.inFlight.get();
+        for (int i = 1; i < length && min > 0; i++) {
+            Slot slot = current[(start + i) % length];
+            int inFlight = slot.inFlight.get();
+            if (inFlight < min) {
+                min = inFlight;
+                target = slot;
+            }
+        }
+        target.inFlight.incrementAndGet();
+        try {
+            target.handler.handleMessage(message);
+        } finally {
+            target.inFlight.decrementAndGet();
+        }
+        return true;
+    }
+
+    public int getInFlight(MessageHandler handler) {
+        for (Slot slot : slots) {
+            if (slot.handler == handler) {
+                return slot.inFlight.get();
+            }
+        }
+        return 0;
+    }
+
+    static class Slot {
+
+        final MessageHandler handler;
+
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Slot(MessageHandler handler) {
+            this.handler = handler;
+        }
+
+    }
+
+}
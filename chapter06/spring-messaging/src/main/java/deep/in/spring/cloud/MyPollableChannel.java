@@ -28,25 +28,44 @@ import org.springframework.messaging.PollableChannel;
  */
 public class MyPollableChannel implements PollableChannel {
 
-    private BlockingQueue<Message> queue = new ArrayBlockingQueue<>(1000);
+    private final BlockingQueue<Message<?>> queue;
+
+    public MyPollableChannel() {
+        this(1000);
+    }
+
+    public MyPollableChannel(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
 
     @Override
     public Message<?> receive() {
         return queue.poll();
     }
 
+    // timeout < 0 表示一直等待
     @Override
     public Message<?> receive(long timeout) {
         try {
-            return queue.poll(timeout, TimeUnit.MILLISECONDS);
+            return timeout < 0 ? queue.take() : queue.poll(timeout, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
         return null;
     }
 
+    // timeout < 0 表示一直等待，队列满时在 timeout 内等待空位，超时返回 false
     @Override
     public boolean send(Message<?> message, long timeout) {
-        return queue.add(message);
+        try {
+            if (timeout < 0) {
+                queue.put(message);
+                return true;
+            }
+            return queue.offer(message, timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
     }
 }
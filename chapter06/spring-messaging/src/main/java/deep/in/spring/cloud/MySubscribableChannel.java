@@ -16,37 +16,58 @@
 
 package deep.in.spring.cloud;
 
-import java.util.Iterator;
-import java.util.Random;
-
 import org.springframework.messaging.Message;
 import org.springframework.messaging.MessageHandler;
 import org.springframework.messaging.support.AbstractSubscribableChannel;
-import org.springframework.util.CollectionUtils;
+import org.springframework.util.Assert;
 
 /**
+ * 订阅者变化时把订阅者快照交给 {@link DispatchStrategy}，发送消息时由 DispatchStrategy 选择订阅者，不再每次复制订阅者集合。
+ * 默认随机选择一个订阅者。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 public class MySubscribableChannel extends AbstractSubscribableChannel {
 
-    private Random random = new Random();
+    private final DispatchStrategy dispatchStrategy;
+
+    public MySubscribableChannel() {
+        this(new RandomDispatchStrategy());
+    }
+
+    public MySubscribableChannel(DispatchStrategy dispatchStrategy) {
+        Assert.notNull(dispatchStrategy, "dispatchStrategy must not be null");
+        this.dispatchStrategy = dispatchStrategy;
+    }
+
+    @Override
+    public synchronized boolean subscribe(MessageHandler handler) {
+        boolean result = super.subscribe(handler);
+        if (result) {
+            refreshSubscribers();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean unsubscribe(MessageHandler handler) {
+        boolean result = super.unsubscribe(handler);
+        if (result) {
+            refreshSubscribers();
+        }
+        return result;
+    }
+
+    private void refreshSubscribers() {
+        dispatchStrategy.refresh(getSubscribers().toArray(new MessageHandler[0]));
+    }
 
     @Override
     protected boolean sendInternal(Message<?> message, long timeout) {
-        if (message == null || CollectionUtils.isEmpty(getSubscribers())) {
+        if (message == null) {
             return false;
         }
-        Iterator<MessageHandler> iter = getSubscribers().iterator();
-        int index = 0, targetIndex = random.nextInt(getSubscribers().size());
-        while(iter.hasNext()) {
-            MessageHandler handler = iter.next();
-            if(index == targetIndex) {
-                handler.handleMessage(message);
-                return true;
-            }
-            index ++;
-        }
-        return false;
+        return dispatchStrategy.dispatch(message);
     }
 
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.PollableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 4 个生产者、4 个消费者，对比 {@link MyPollableChannel} (ArrayBlockingQueue) 和 {@link RingBufferPollableChannel} 的吞吐量。
+ * 发送的是同一个 Message 对象，结果中不包含创建消息的开销。
+ * <p>
+ * busySpin 需要至少 8 个空闲 CPU，CPU 不够时结果没有参考意义。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class PollableChannelBenchmark {
+
+    private static final int PRODUCERS = 4;
+
+    private static final int CONSUMERS = 4;
+
+    private static final int CAPACITY = 1024;
+
+    private static final int BATCH_SIZE = 64;
+
+    private static final Message<String> MESSAGE = MessageBuilder.withPayload("payload").build();
+
+    private static final Message<String> POISON = MessageBuilder.withPayload("poison").build();
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        for (int round = 0; round < 3; round++) {
+            // 第一轮是预热
+            System.out.println(round == 0 ? "warm up" : "round " + round);
+            run("ArrayBlockingQueue", new MyPollableChannel(CAPACITY), messages, false);
+            run("RingBuffer busySpin", new RingBufferPollableChannel(CAPACITY, WaitStrategy.busySpin()), messages,
+                false);
+            run("RingBuffer yielding", new RingBufferPollableChannel(CAPACITY, WaitStrategy.yielding()), messages,
+                false);
+            run("RingBuffer parking", new RingBufferPollableChannel(CAPACITY, WaitStrategy.parking()), messages,
+                false);
+            run("RingBuffer parking batch", new RingBufferPollableChannel(CAPACITY, WaitStrategy.parking()),
+                messages, true);
+        }
+    }
+
+    private static void run(String name, PollableChannel channel, int messages, boolean batch)
+        throws InterruptedException {
+        CountDownLatch producersDone = new CountDownLatch(PRODUCERS);
+        CountDownLatch consumersDone = new CountDownLatch(CONSUMERS);
+        AtomicLong received = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < CONSUMERS; i++) {
+            threads.add(new Thread(() -> {
+                long count = 0;
+                while (true) {
+                    if (batch) {
+                        int poison = 0;
+                        for (Message<?> message : ((RingBufferPollableChannel) channel).receiveBatch(BATCH_SIZE, -1)) {
+                            if (message == POISON) {
+                                poison++;
+                            } else {
+                                count++;
+                            }
+                        }
+                        if (poison > 0) {
+                            // 毒丸之后不会再有正常消息，一次多取到的毒丸放回去留给其他消费者
+                            for (int j = 1; j < poison; j++) {
+                                channel.send(POISON);
+                            }
+                            break;
+                        }
+                    } else {
+                        if (channel.receive(-1) == POISON) {
+                            break;
+                        }
+                        count++;
+                    }
+                }
+                received.addAndGet(count);
+                consumersDone.countDown();
+            }, "consumer-" + i));
+        }
+        int perProducer = messages / PRODUCERS;
+        for (int i = 0; i < PRODUCERS; i++) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < perProducer; j++) {
+                    channel.send(MESSAGE);
+                }
+                producersDone.countDown();
+            }, "producer-" + i));
+        }
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        producersDone.await();
+        // 生产者都结束后再发送毒丸，每个消费者收到一个后退出
+        for (int i = 0; i < CONSUMERS; i++) {
+            channel.send(POISON);
+        }
+        consumersDone.await();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-26s %,12d msg/s (received %d)%n", name,
+            (long) (received.get() * 1e9 / elapsed), received.get());
+    }
+
+}
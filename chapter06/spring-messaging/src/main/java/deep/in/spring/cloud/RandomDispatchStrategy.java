@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * 随机选择一个订阅者，MySubscribableChannel 默认的策略。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RandomDispatchStrategy implements DispatchStrategy {
+
+    private volatile MessageHandler[] handlers = new MessageHandler[0];
+
+    @Override
+    public void refresh(MessageHandler[] handlers) {
+        this.handlers = handlers;
+    }
+
+    @Override
+    public boolean dispatch(Message<?> message) {
+        MessageHandler[] current = handlers;
+        if (current.length == 0) {
+            return false;
+        }
+        current[ThreadLocalRandom.current().nextInt(current.length)].handleMessage(message);
+        return true;
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.PollableChannel;
+import org.springframework.util.Assert;
+
+/**
+ * 基于环形数组的有界 PollableChannel，支持多生产者、多消费者，收发都不加锁。
+ * <p>
+ * 每个槽位有一个序号 (Dmitry Vyukov 的 bounded MPMC queue)：序号等于写指针时可以写入，等于读指针 + 1 时可以读取。
+ * 生产者和消费者只通过 CAS 各自的指针竞争，读写指针做了缓存行填充，避免伪共享。
+ * <p>
+ * 队列满时 send 按 {@link WaitStrategy} 等待空位，超过 timeout 返回 false；
+ * 等待过程中线程被中断时保留中断标记并返回 false / null。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RingBufferPollableChannel implements PollableChannel {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<Message<?>> buffer;
+
+    private final AtomicLongArray sequences;
+
+    private final Sequence head = new Sequence();
+
+    private final Sequence tail = new Sequence();
+
+    private final WaitStrategy waitStrategy;
+
+    public RingBufferPollableChannel(int capacity) {
+        this(capacity, WaitStrategy.parking());
+    }
+
+    /**
+     * @param capacity 向上取整为 2 的幂
+     */
+    public RingBufferPollableChannel(int capacity, WaitStrategy waitStrategy) {
+        Assert.isTrue(capacity >= 2 && capacity <= (1 << 30), "capacity must be between 2 and 2^30");
+        Assert.notNull(waitStrategy, "waitStrategy must not be null");
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * 一直等待直到收到消息
+     */
+    @Override
+    public Message<?> receive() {
+        return receive(-1);
+    }
+
+    /**
+     * timeout < 0 表示一直等待，timeout = 0 表示不等待
+     */
+    @Override
+    public Message<?> receive(long timeout) {
+        Message<?> message = poll();
+        if (message != null || timeout == 0) {
+            return message;
+        }
+        long deadline = deadline(timeout);
+        for (int counter = 0; ; counter++) {
+            if (Thread.currentThread().isInterrupted() || expired(deadline)) {
+                return null;
+            }
+            waitStrategy.idle(counter);
+            message = poll();
+            if (message != null) {
+                return message;
+            }
+        }
+    }
+
+    /**
+     * 在 timeout 内等待第一条消息，然后不再等待，一次取出最多 max 条已经到达的消息。没有消息时返回空列表。
+     */
+    public List<Message<?>> receiveBatch(int max, long timeout) {
+        Assert.isTrue(max > 0, "max must be greater than 0");
+        Message<?> first = receive(timeout);
+        if (first == null) {
+            return new ArrayList<>(0);
+        }
+        List<Message<?>> messages = new ArrayList<>(Math.min(max, 64));
+        messages.add(first);
+        drainTo(messages, max - 1);
+        return messages;
+    }
+
+    /**
+     * 不等待，取出最多 max 条消息放入 collection，返回取出的条数
+     */
+    public int drainTo(Collection<? super Message<?>> collection, int max) {
+        int count = 0;
+        Message<?> message;
+        while (count < max && (message = poll()) != null) {
+            collection.add(message);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * timeout < 0 表示一直等待空位，timeout = 0 表示队列满时立即返回 false
+     */
+    @Override
+    public boolean send(Message<?> message, long timeout) {
+        Assert.notNull(message, "message must not be null");
+        if (offer(message)) {
+            return true;
+        }
+        if (timeout == 0) {
+            return false;
+        }
+        long deadline = deadline(timeout);
+        for (int counter = 0; ; counter++) {
+            if (Thread.currentThread().isInterrupted() || expired(deadline)) {
+                return false;
+            }
+            waitStrategy.idle(counter);
+            if (offer(message)) {
+                return true;
+            }
+        }
+    }
+
+    public int size() {
+        // 先读 head，保证结果不会是负数
+        long h = head.get();
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(capacity, t - h));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private boolean offer(Message<?> message) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer.lazySet(index, message);
+                    // 发布: 消费者看到新序号时一定能看到消息
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 槽位上一轮的消息还没有被取走，队列已满
+                return false;
+            }
+            // diff > 0: 其他生产者已经占用了这个位置，重新读取 tail
+        }
+    }
+
+    private Message<?> poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) (position & mask);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    Message<?> message = buffer.get(index);
+                    buffer.lazySet(index, null);
+                    // 槽位留给下一轮的生产者
+                    sequences.lazySet(index, position + capacity);
+                    return message;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    private static long deadline(long timeout) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        // 超过 100 年的超时时间按一直等待处理，避免相加溢出
+        if (timeout < 0 || nanos > TimeUnit.DAYS.toNanos(365 * 100)) {
+            return Long.MAX_VALUE;
+        }
+        return System.nanoTime() + nanos;
+    }
+
+    private static boolean expired(long deadline) {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    static class LhsPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class Value extends LhsPadding {
+        protected volatile long value;
+    }
+
+    static class RhsPadding extends Value {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+    }
+
+    /**
+     * 前后各填充 56 字节的 long，与 Disruptor 的 Sequence 相同
+     */
+    static final class Sequence extends RhsPadding {
+
+        private static final AtomicLongFieldUpdater<Value> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        long get() {
+            return value;
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return UPDATER.compareAndSet(this, expect, update);
+        }
+
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+
+/**
+ * 按顺序轮流选择订阅者。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RoundRobinDispatchStrategy implements DispatchStrategy {
+
+    private final AtomicInteger index = new AtomicInteger();
+
+    private volatile MessageHandler[] handlers = new MessageHandler[0];
+
+    @Override
+    public void refresh(MessageHandler[] handlers) {
+        this.handlers = handlers;
+    }
+
+    @Override
+    public boolean dispatch(Message<?> message) {
+        MessageHandler[] current = handlers;
+        if (current.length == 0) {
+            return false;
+        }
+        // & Integer.MAX_VALUE: 计数器溢出后仍然是正数
+        current[(index.getAndIncrement() & Integer.MAX_VALUE) % current.length].handleMessage(message);
+        return true;
+    }
+
+}
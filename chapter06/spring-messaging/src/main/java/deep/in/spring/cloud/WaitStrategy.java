@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link RingBufferPollableChannel} 在队列满 (发送方) 或队列空 (接收方) 时的等待方式。
+ * <p>
+ * busySpin: 一直自旋，延迟最低，等待期间占满一个 CPU。
+ * yielding: 自旋一段时间后 Thread.yield()，CPU 空闲时接近 busySpin。
+ * parking: 自旋、yield 之后 LockSupport.parkNanos，等待时间逐渐加长到 maxParkNanos，空闲时几乎不占 CPU。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public interface WaitStrategy {
+
+    /**
+     * 执行一次等待
+     *
+     * @param counter 本次等待之前已经等待的次数，第一次为 0
+     */
+    void idle(int counter);
+
+    static WaitStrategy busySpin() {
+        return counter -> {
+        };
+    }
+
+    static WaitStrategy yielding() {
+        return counter -> {
+            if (counter >= 100) {
+                Thread.yield();
+            }
+        };
+    }
+
+    static WaitStrategy parking() {
+        return parking(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    static WaitStrategy parking(long maxParkNanos) {
+        return counter -> {
+            if (counter < 100) {
+                return;
+            }
+            if (counter < 200) {
+                Thread.yield();
+                return;
+            }
+            // 1us, 2us, 4us ... maxParkNanos
+            int shift = Math.min(counter - 200, 20);
+            LockSupport.parkNanos(Math.min(maxParkNanos, 1000L << shift));
+        };
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 同一个订阅者的消息按顺序串行处理、队列满时 dispatch 返回 false、refresh 保留已有的队列，
+ * 以及重新提交任务被 executor 拒绝时不会丢消息。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class ExecutorDispatchStrategyTest {
+
+    @Test
+    public void testOrderPerHandler() throws InterruptedException {
+        int messages = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, messages);
+            RecordingHandler handler = new RecordingHandler(messages);
+            strategy.refresh(new MessageHandler[] {handler});
+            for (int i = 0; i < messages; i++) {
+                Assert.assertTrue(strategy.dispatch(message(i)));
+            }
+            Assert.assertTrue(handler.await());
+
+            // executor 有 4 个线程，同一个订阅者仍然按发送顺序串行处理
+            Assert.assertEquals(1, handler.maxConcurrency.get());
+            for (int i = 0; i < messages; i++) {
+                Assert.assertEquals(i, (int) handler.payloads.get(i));
+            }
+            // pending 在 handleMessage 返回之后才减少
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (strategy.getPending(handler) != 0) {
+                Assert.assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(1L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentDispatch() throws Exception {
+        int threads = 4;
+        int messagesPerThread = 20000;
+        int total = threads * messagesPerThread;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ExecutorService senders = Executors.newFixedThreadPool(threads);
+        try {
+            ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, total);
+            CountDownLatch done = new CountDownLatch(total);
+            RecordingHandler handler1 = new RecordingHandler(done);
+            RecordingHandler handler2 = new RecordingHandler(done);
+            strategy.refresh(new MessageHandler[] {handler1, handler2});
+            for (int t = 0; t < threads; t++) {
+                senders.execute(() -> {
+                    for (int i = 0; i < messagesPerThread; i++) {
+                        strategy.dispatch(message(i));
+                    }
+                });
+            }
+            // scheduled 标记交接时不会有消息留在队列里没人处理
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(total, handler1.payloads.size() + handler2.payloads.size());
+            Assert.assertEquals(1, handler1.maxConcurrency.get());
+            Assert.assertEquals(1, handler2.maxConcurrency.get());
+            Assert.assertTrue(handler1.payloads.size() > 0 && handler2.payloads.size() > 0);
+        } finally {
+            senders.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBackPressure() {
+        ManualExecutor executor = new ManualExecutor();
+        ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, 2);
+        Assert.assertFalse(strategy.dispatch(message(0)));
+
+        RecordingHandler handler = new RecordingHandler(3);
+        strategy.refresh(new MessageHandler[] {handler});
+        Assert.assertTrue(strategy.dispatch(message(0)));
+        Assert.assertTrue(strategy.dispatch(message(1)));
+        // 队列满时返回 false，消息不会放入队列
+        Assert.assertFalse(strategy.dispatch(message(2)));
+        Assert.assertEquals(2, strategy.getPending(handler));
+        // 同一个订阅者只提交一次任务
+        Assert.assertEquals(1, executor.tasks.size());
+
+        executor.runAll();
+        Assert.assertEquals(0, strategy.getPending(handler));
+        Assert.assertTrue(strategy.dispatch(message(3)));
+        executor.runAll();
+        Assert.assertEquals(3, handler.payloads.size());
+        Assert.assertEquals(3, (int) handler.payloads.get(2));
+    }
+
+    @Test
+    public void testLeastPending() {
+        ManualExecutor executor = new ManualExecutor();
+        ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, 100);
+        RecordingHandler handler1 = new RecordingHandler(0);
+        RecordingHandler handler2 = new RecordingHandler(0);
+        strategy.refresh(new MessageHandler[] {handler1, handler2});
+        for (int i = 0; i < 10; i++) {
+            strategy.dispatch(message(i));
+        }
+        Assert.assertEquals(5, strategy.getPending(handler1));
+        Assert.assertEquals(5, strategy.getPending(handler2));
+    }
+
+    @Test
+    public void testRefreshKeepsMailboxes() {
+        ManualExecutor executor = new ManualExecutor();
+        ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, 100);
+        RecordingHandler handler1 = new RecordingHandler(0);
+        RecordingHandler handler2 = new RecordingHandler(0);
+        strategy.refresh(new MessageHandler[] {handler1});
+        strategy.dispatch(message(0));
+        strategy.dispatch(message(1));
+
+        // 已有订阅者的待处理消息数保留，新消息分给待处理消息更少的新订阅者
+        strategy.refresh(new MessageHandler[] {handler1, handler2});
+        Assert.assertEquals(2, strategy.getPending(handler1));
+        strategy.dispatch(message(2));
+        strategy.dispatch(message(3));
+        Assert.assertEquals(2, strategy.getPending(handler2));
+
+        // 取消订阅后剩余的消息继续处理完
+        strategy.refresh(new MessageHandler[] {handler2});
+        Assert.assertEquals(0, strategy.getPending(handler1));
+        executor.runAll();
+        Assert.assertEquals(2, handler1.payloads.size());
+        Assert.assertEquals(2, handler2.payloads.size());
+    }
+
+    @Test
+    public void testRescheduleRejected() {
+        ManualExecutor executor = new ManualExecutor();
+        ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, 1000);
+        RecordingHandler handler = new RecordingHandler(0);
+        strategy.refresh(new MessageHandler[] {handler});
+        for (int i = 0; i < 100; i++) {
+            strategy.dispatch(message(i));
+        }
+
+        // 一次最多处理 64 条，重新提交剩余消息时被拒绝，异常不会抛到 executor 的线程上
+        executor.reject = true;
+        executor.runAll();
+        Assert.assertEquals(64, handler.payloads.size());
+        Assert.assertEquals(36, strategy.getPending(handler));
+
+        // 下一次 dispatch 时重新提交，剩余的消息按顺序处理完
+        executor.reject = false;
+        Assert.assertTrue(strategy.dispatch(message(100)));
+        executor.runAll();
+        Assert.assertEquals(101, handler.payloads.size());
+        for (int i = 0; i <= 100; i++) {
+            Assert.assertEquals(i, (int) handler.payloads.get(i));
+        }
+    }
+
+    @Test
+    public void testDispatchRejected() {
+        ManualExecutor executor = new ManualExecutor();
+        executor.reject = true;
+        ExecutorDispatchStrategy strategy = new ExecutorDispatchStrategy(executor, 10);
+        RecordingHandler handler = new RecordingHandler(0);
+        strategy.refresh(new MessageHandler[] {handler});
+        try {
+            strategy.dispatch(message(0));
+            Assert.fail();
+        } catch (RejectedExecutionException e) {
+            // 提交失败时消息从队列中移除
+            Assert.assertEquals(0, strategy.getPending(handler));
+        }
+    }
+
+    private static Message<Integer> message(int payload) {
+        return MessageBuilder.withPayload(payload).build();
+    }
+
+    /**
+     * 任务先放在列表里，由测试线程执行
+     */
+    static class ManualExecutor implements Executor {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        volatile boolean reject;
+
+        @Override
+        public void execute(Runnable command) {
+            if (reject) {
+                throw new RejectedExecutionException("rejected");
+            }
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+    }
+
+    static class RecordingHandler implements MessageHandler {
+
+        final List<Integer> payloads = new ArrayList<>();
+
+        final AtomicInteger active = new AtomicInteger();
+
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+
+        final CountDownLatch done;
+
+        RecordingHandler(int expected) {
+            this(new CountDownLatch(expected));
+        }
+
+        RecordingHandler(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void handleMessage(Message<?> message) {
+            int concurrency = active.incrementAndGet();
+            maxConcurrency.accumulateAndGet(concurrency, Math::max);
+            try {
+                // 同一个订阅者串行处理，不需要同步
+                payloads.add((Integer) message.getPayload());
+            } finally {
+                active.decrementAndGet();
+                done.countDown();
+            }
+        }
+
+        boolean await() throws InterruptedException {
+            return done.await(30, TimeUnit.SECONDS);
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class LeastInFlightDispatchStrategyTest {
+
+    @Test
+    public void testSlowHandler() throws InterruptedException {
+        LeastInFlightDispatchStrategy strategy = new LeastInFlightDispatchStrategy();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger slowCount = new AtomicInteger();
+        AtomicInteger fastCount = new AtomicInteger();
+        MessageHandler slow = message -> {
+            slowCount.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        MessageHandler fast = message -> fastCount.incrementAndGet();
+        strategy.refresh(new MessageHandler[] {slow, fast});
+
+        // 后台线程一直发送，直到有一条消息卡在处理慢的订阅者上
+        Thread sender = new Thread(() -> {
+            while (entered.getCount() > 0) {
+                strategy.dispatch(MessageBuilder.withPayload(0).build());
+            }
+        });
+        sender.start();
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, strategy.getInFlight(slow));
+
+        int before = fastCount.get();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(strategy.dispatch(MessageBuilder.withPayload(i).build()));
+        }
+        // 处理中的消息数更少的订阅者收到所有新消息
+        Assert.assertEquals(before + 100, fastCount.get());
+        Assert.assertEquals(1, slowCount.get());
+
+        release.countDown();
+        sender.join(5000L);
+        Assert.assertEquals(0, strategy.getInFlight(slow));
+        Assert.assertEquals(0, strategy.getInFlight(fast));
+    }
+
+    @Test
+    public void testRefreshKeepsInFlight() throws InterruptedException {
+        LeastInFlightDispatchStrategy strategy = new LeastInFlightDispatchStrategy();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageHandler slow = message -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        strategy.refresh(new MessageHandler[] {slow});
+        Thread sender = new Thread(() -> strategy.dispatch(MessageBuilder.withPayload(0).build()));
+        sender.start();
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        MessageHandler other = message -> { };
+        strategy.refresh(new MessageHandler[] {slow, other});
+        Assert.assertEquals(1, strategy.getInFlight(slow));
+
+        release.countDown();
+        sender.join(5000L);
+        Assert.assertEquals(0, strategy.getInFlight(slow));
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 多生产者、多消费者下不丢消息、不重复消息，以及队列满/空时的超时和中断处理。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RingBufferPollableChannelTest {
+
+    private static final int THREADS = 4;
+
+    private static final int MESSAGES_PER_PRODUCER = 50000;
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(4, new RingBufferPollableChannel(3).getCapacity());
+        Assert.assertEquals(4, new RingBufferPollableChannel(4).getCapacity());
+        Assert.assertEquals(8, new RingBufferPollableChannel(5).getCapacity());
+    }
+
+    @Test
+    public void testFifoWrapAround() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+        for (int i = 0; i < 100; i += 2) {
+            Assert.assertTrue(channel.send(message(i), 0));
+            Assert.assertTrue(channel.send(message(i + 1), 0));
+            Assert.assertEquals(2, channel.size());
+            Assert.assertEquals(i, channel.receive(0).getPayload());
+            Assert.assertEquals(i + 1, channel.receive(0).getPayload());
+            Assert.assertEquals(0, channel.size());
+        }
+    }
+
+    @Test
+    public void testReceiveBatch() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(8);
+        for (int i = 0; i < 5; i++) {
+            channel.send(message(i), 0);
+        }
+        List<Message<?>> batch = channel.receiveBatch(3, 0);
+        Assert.assertEquals(3, batch.size());
+        Assert.assertEquals(0, batch.get(0).getPayload());
+        Assert.assertEquals(2, batch.get(2).getPayload());
+        Assert.assertEquals(2, channel.receiveBatch(3, 0).size());
+        Assert.assertTrue(channel.receiveBatch(3, 0).isEmpty());
+    }
+
+    @Test
+    public void testSendTimeoutWhenFull() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+        Assert.assertTrue(channel.send(message(0), 0));
+        Assert.assertTrue(channel.send(message(1), 0));
+
+        Assert.assertFalse(channel.send(message(2), 0));
+        long start = System.nanoTime();
+        Assert.assertFalse(channel.send(message(2), 50));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        // 队列满时失败的 send 不会覆盖已有的消息
+        Assert.assertEquals(2, channel.size());
+        Assert.assertEquals(0, channel.receive(0).getPayload());
+        Assert.assertEquals(1, channel.receive(0).getPayload());
+        Assert.assertNull(channel.receive(0));
+    }
+
+    @Test
+    public void testReceiveTimeoutWhenEmpty() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+        long start = System.nanoTime();
+        Assert.assertNull(channel.receive(50));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(channel.receiveBatch(4, 10).isEmpty());
+    }
+
+    @Test
+    public void testSendInterrupted() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+        channel.send(message(0), 0);
+        channel.send(message(1), 0);
+
+        Thread.currentThread().interrupt();
+        // 一直等待的 send 被中断时返回 false，并且保留中断标记
+        Assert.assertFalse(channel.send(message(2), -1));
+        Assert.assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testReceiveInterrupted() {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+
+        Thread.currentThread().interrupt();
+        Assert.assertNull(channel.receive());
+        Assert.assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testInterruptWhileWaiting() throws InterruptedException {
+        RingBufferPollableChannel channel = new RingBufferPollableChannel(2);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread consumer = new Thread(() -> {
+            Message<?> message = channel.receive();
+            interrupted.set(message == null && Thread.currentThread().isInterrupted());
+        });
+        consumer.start();
+        Thread.sleep(50L);
+        consumer.interrupt();
+        consumer.join(5000L);
+
+        Assert.assertFalse(consumer.isAlive());
+        Assert.assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testMultiProducerMultiConsumer() throws Exception {
+        for (WaitStrategy waitStrategy : new WaitStrategy[] {WaitStrategy.parking(), WaitStrategy.yielding()}) {
+            // 容量很小，生产者和消费者频繁绕圈
+            assertNoLossNoDuplicate(new RingBufferPollableChannel(4, waitStrategy));
+        }
+    }
+
+    private void assertNoLossNoDuplicate(RingBufferPollableChannel channel) throws Exception {
+        int total = THREADS * MESSAGES_PER_PRODUCER;
+        AtomicInteger received = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS * 2);
+        try {
+            List<Future<?>> producers = new ArrayList<>();
+            for (int p = 0; p < THREADS; p++) {
+                int producer = p;
+                producers.add(executor.submit(() -> {
+                    for (int i = 0; i < MESSAGES_PER_PRODUCER; i++) {
+                        Assert.assertTrue(channel.send(message(producer * MESSAGES_PER_PRODUCER + i), -1));
+                    }
+                    return null;
+                }));
+            }
+            List<Future<List<Integer>>> consumers = new ArrayList<>();
+            for (int c = 0; c < THREADS; c++) {
+                // 一半消费者逐条接收，一半批量接收
+                boolean batch = c % 2 == 0;
+                consumers.add(executor.submit((Callable<List<Integer>>) () -> {
+                    List<Integer> payloads = new ArrayList<>();
+                    while (received.get() < total) {
+                        if (batch) {
+                            for (Message<?> message : channel.receiveBatch(3, 10)) {
+                                payloads.add((Integer) message.getPayload());
+                                received.incrementAndGet();
+                            }
+                        } else {
+                            Message<?> message = channel.receive(10);
+                            if (message != null) {
+                                payloads.add((Integer) message.getPayload());
+                                received.incrementAndGet();
+                            }
+                        }
+                    }
+                    return payloads;
+                }));
+            }
+            for (Future<?> producer : producers) {
+                producer.get(60, TimeUnit.SECONDS);
+            }
+
+            BitSet seen = new BitSet(total);
+            int count = 0;
+            for (Future<List<Integer>> consumer : consumers) {
+                int[] last = new int[THREADS];
+                Arrays.fill(last, -1);
+                for (int payload : consumer.get(60, TimeUnit.SECONDS)) {
+                    Assert.assertFalse("duplicated " + payload, seen.get(payload));
+                    seen.set(payload);
+                    count++;
+                    // 同一个消费者收到的同一个生产者的消息保持发送顺序
+                    int producer = payload / MESSAGES_PER_PRODUCER;
+                    Assert.assertTrue(payload > last[producer]);
+                    last[producer] = payload;
+                }
+            }
+            Assert.assertEquals(total, count);
+            Assert.assertEquals(total, seen.cardinality());
+            Assert.assertEquals(0, channel.size());
+            Assert.assertNull(channel.receive(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Message<Integer> message(int payload) {
+        return MessageBuilder.withPayload(payload).build();
+    }
+
+}
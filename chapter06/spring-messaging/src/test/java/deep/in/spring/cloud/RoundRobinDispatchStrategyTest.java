@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class RoundRobinDispatchStrategyTest {
+
+    @Test
+    public void testRoundRobin() {
+        RoundRobinDispatchStrategy strategy = new RoundRobinDispatchStrategy();
+        Assert.assertFalse(strategy.dispatch(MessageBuilder.withPayload(0).build()));
+
+        ExecutorDispatchStrategyTest.RecordingHandler[] handlers = new ExecutorDispatchStrategyTest.RecordingHandler[3];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = new ExecutorDispatchStrategyTest.RecordingHandler(0);
+        }
+        strategy.refresh(handlers);
+        for (int i = 0; i < 30; i++) {
+            Assert.assertTrue(strategy.dispatch(MessageBuilder.withPayload(i).build()));
+        }
+        // 按顺序轮流分发
+        for (int i = 0; i < handlers.length; i++) {
+            Assert.assertEquals(10, handlers[i].payloads.size());
+            for (int payload : handlers[i].payloads) {
+                Assert.assertEquals(i, payload % handlers.length);
+            }
+        }
+
+        strategy.refresh(new MessageHandler[0]);
+        Assert.assertFalse(strategy.dispatch(MessageBuilder.withPayload(0).build()));
+    }
+
+}
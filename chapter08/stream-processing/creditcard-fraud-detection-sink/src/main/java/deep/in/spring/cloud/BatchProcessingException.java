@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 批量处理中部分记录失败时抛出，failures 的 key 是失败记录在批次中的下标，只有这些记录会被发送到死信队列。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class BatchProcessingException extends RuntimeException {
+
+    private final Map<Integer, Exception> failures;
+
+    public BatchProcessingException(Map<Integer, Exception> failures) {
+        super(failures.size() + " records failed in batch");
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public Map<Integer, Exception> getFailures() {
+        return failures;
+    }
+
+}
@@ -19,23 +19,35 @@ package deep.in.spring.cloud;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cloud.stream.annotation.EnableBinding;
 import org.springframework.cloud.stream.annotation.StreamListener;
 import org.springframework.cloud.stream.messaging.Sink;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.Message;
 
 /**
+ * 配置 creditcard.batch.enabled=true 后开启批量模式，由 {@link MicroBatchingConsumer} 攒批后调用 {@link #receiveBatch(List)}，
+ * 非法的记录 (user 或 cost 为空) 发送到死信队列。
+ *
  * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
  */
 @SpringBootApplication
-@EnableBinding(Sink.class)
-public class CreditCardSinkApplication {
+@EnableBinding({Sink.class, DeadLetterSource.class})
+public class CreditCardSinkApplication implements SmartInitializingSingleton {
 
     private final Logger logger = LoggerFactory.getLogger(CreditCardSinkApplication.class);
 
@@ -44,12 +56,55 @@ public class CreditCardSinkApplication {
 
     private BigDecimal warningMoney = new BigDecimal(2000);
 
+    @Autowired
+    private ObjectProvider<MicroBatchingConsumer<CreditCardRecord>> microBatchingConsumerProvider;
+
+    private MicroBatchingConsumer<CreditCardRecord> microBatchingConsumer;
+
     public static void main(String[] args) {
         SpringApplication.run(CreditCardSinkApplication.class, args);
     }
 
+    @Bean
+    @ConditionalOnProperty(name = "creditcard.batch.enabled", havingValue = "true")
+    public MicroBatchingConsumer<CreditCardRecord> microBatchingConsumer(DeadLetterSource deadLetterSource,
+        @Value("${creditcard.batch.max-size:100}") int maxSize,
+        @Value("${creditcard.batch.max-wait-millis:200}") long maxWaitMillis) {
+        return new MicroBatchingConsumer<>(this::receiveBatch, maxSize, maxWaitMillis, deadLetterSource.dlq());
+    }
+
+    // microBatchingConsumer 由当前配置类创建，不能直接注入，在 binding 启动之前获取
+    @Override
+    public void afterSingletonsInstantiated() {
+        microBatchingConsumer = microBatchingConsumerProvider.getIfAvailable();
+    }
+
     @StreamListener(Sink.INPUT)
-    public void receive(CreditCardRecord record) {
+    public void receive(Message<CreditCardRecord> message) {
+        if (microBatchingConsumer != null) {
+            microBatchingConsumer.accept(message);
+        } else {
+            process(message.getPayload());
+        }
+    }
+
+    // 批量模式下由 micro-batch 线程单线程调用
+    void receiveBatch(List<CreditCardRecord> records) {
+        Map<Integer, Exception> failures = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            CreditCardRecord record = records.get(i);
+            if (record.getUser() == null || record.getCost() == null) {
+                failures.put(i, new IllegalArgumentException("Invalid record: " + record));
+                continue;
+            }
+            process(record);
+        }
+        if (!failures.isEmpty()) {
+            throw new BatchProcessingException(failures);
+        }
+    }
+
+    private void process(CreditCardRecord record) {
         if (blackList.contains(record.getUser())) {
             logger.info(record.getUser() + " now is in black list");
             return;
@@ -66,4 +121,8 @@ public class CreditCardSinkApplication {
         lastCostInfo.put(record.getUser(), record.getCost());
     }
 
+    boolean isBlackListed(String user) {
+        return blackList.contains(user);
+    }
+
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.util.Assert;
+
+/**
+ * 把 @StreamListener 逐条收到的消息攒成批次，交给 {@code Consumer<List<T>>} 一次处理：
+ * 攒够 maxSize 条，或者批次中第一条消息到达后超过 maxWaitMillis，就处理一批。
+ * <p>
+ * 批次在单独的线程中按顺序处理，处理完成后再确认这一批消息 (Kafka 需要配置 autoCommitOffset=false，
+ * 消息头中才会有 {@link Acknowledgment})。未处理的批次超过 maxPendingBatches 时 accept 会阻塞，消费线程不会无限制地拉取消息。
+ * <p>
+ * 部分失败: batchConsumer 抛出 {@link BatchProcessingException} 时只把其中的失败记录发送到死信队列；
+ * 抛出其他异常时逐条重新处理这一批 (要求 batchConsumer 是幂等的)，仍然失败的记录发送到死信队列，其他记录正常确认。
+ * <p>
+ * 失败的记录发送到死信队列失败 (send 返回 false 或者抛出异常) 时，这条记录以及之后的所有消息都不再确认。
+ * Kafka 的确认是按 offset 累计提交的，确认后面的消息同样会跳过这条记录；不再确认时重启或者 rebalance 之后会从这条记录重新消费。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class MicroBatchingConsumer<T> implements DisposableBean {
+
+    public static final String EXCEPTION_CLASS_HEADER = "x-exception-fqcn";
+
+    public static final String EXCEPTION_MESSAGE_HEADER = "x-exception-message";
+
+    private static final Logger logger = LoggerFactory.getLogger(MicroBatchingConsumer.class);
+
+    private final Consumer<List<T>> batchConsumer;
+
+    private final int maxSize;
+
+    private final long maxWaitMillis;
+
+    private final MessageChannel deadLetterChannel;
+
+    private final Semaphore pendingBatches;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "micro-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 有记录既没有处理成功也没有进入死信队列，之后不再确认任何消息
+    private volatile boolean acknowledgeStopped;
+
+    private List<Message<T>> buffer;
+
+    private ScheduledFuture<?> timeout;
+
+    public MicroBatchingConsumer(Consumer<List<T>> batchConsumer, int maxSize, long maxWaitMillis,
+                                 MessageChannel deadLetterChannel) {
+        this(batchConsumer, maxSize, maxWaitMillis, deadLetterChannel, 2);
+    }
+
+    public MicroBatchingConsumer(Consumer<List<T>> batchConsumer, int maxSize, long maxWaitMillis,
+                                 MessageChannel deadLetterChannel, int maxPendingBatches) {
+        Assert.notNull(batchConsumer, "batchConsumer must not be null");
+        Assert.isTrue(maxSize > 0, "maxSize must be greater than 0");
+        Assert.isTrue(maxWaitMillis > 0, "maxWaitMillis must be greater than 0");
+        Assert.notNull(deadLetterChannel, "deadLetterChannel must not be null");
+        this.batchConsumer = batchConsumer;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.deadLetterChannel = deadLetterChannel;
+        this.pendingBatches = new Semaphore(maxPendingBatches);
+    }
+
+    public void accept(Message<T> message) {
+        List<Message<T>> full = null;
+        synchronized (this) {
+            if (buffer == null) {
+                buffer = new ArrayList<>(maxSize);
+                List<Message<T>> current = buffer;
+                timeout = executor.schedule(() -> flush(current), maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            buffer.add(message);
+            if (buffer.size() >= maxSize) {
+                full = buffer;
+                buffer = null;
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    // 时间到了处理当前批次，批次已经因为攒满被处理过时什么都不做
+    private void flush(List<Message<T>> expected) {
+        List<Message<T>> batch;
+        synchronized (this) {
+            if (buffer != expected) {
+                return;
+            }
+            batch = buffer;
+            buffer = null;
+            timeout = null;
+        }
+        // 已经在 executor 线程中，不占用 pendingBatches
+        process(batch);
+    }
+
+    private void submit(List<Message<T>> batch) {
+        try {
+            pendingBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pending batches", e);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(batch);
+                } finally {
+                    pendingBatches.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingBatches.release();
+            throw e;
+        }
+    }
+
+    private void process(List<Message<T>> batch) {
+        List<T> payloads = new ArrayList<>(batch.size());
+        for (Message<T> message : batch) {
+            payloads.add(message.getPayload());
+        }
+        Map<Integer, Exception> failures;
+        try {
+            batchConsumer.accept(Collections.unmodifiableList(payloads));
+            failures = Collections.emptyMap();
+        } catch (BatchProcessingException e) {
+            failures = e.getFailures();
+        } catch (Exception e) {
+            logger.warn("Batch of " + batch.size() + " records failed, retry one by one", e);
+            failures = processOneByOne(payloads);
+        }
+        boolean stopped = acknowledgeStopped;
+        int acknowledgeUntil = stopped ? 0 : batch.size();
+        for (Map.Entry<Integer, Exception> failure : new TreeMap<>(failures).entrySet()) {
+            int index = failure.getKey();
+            if (!sendToDeadLetter(batch.get(index), failure.getValue())) {
+                acknowledgeUntil = Math.min(acknowledgeUntil, index);
+            }
+        }
+        if (!stopped && acknowledgeUntil < batch.size()) {
+            acknowledgeStopped = true;
+            logger.error("Failed to route " + batch.get(acknowledgeUntil)
+                + " to dead letter channel, stop acknowledging so that it will be redelivered");
+        }
+        // 只确认无法进入死信队列的记录之前的消息
+        for (int i = 0; i < acknowledgeUntil; i++) {
+            acknowledge(batch.get(i));
+        }
+    }
+
+    private Map<Integer, Exception> processOneByOne(List<T> payloads) {
+        Map<Integer, Exception> failures = new LinkedHashMap<>();
+        for (int i = 0; i < payloads.size(); i++) {
+            try {
+                batchConsumer.accept(Collections.singletonList(payloads.get(i)));
+            } catch (Exception e) {
+                failures.put(i, e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 返回是否发送成功
+     */
+    private boolean sendToDeadLetter(Message<T> message, Exception exception) {
+        Message<T> deadLetter = MessageBuilder.fromMessage(message)
+            .setHeader(EXCEPTION_CLASS_HEADER, exception.getClass().getName())
+            .setHeader(EXCEPTION_MESSAGE_HEADER, String.valueOf(exception.getMessage()))
+            .build();
+        try {
+            if (deadLetterChannel.send(deadLetter)) {
+                return true;
+            }
+            logger.error("Dead letter channel rejected " + message);
+        } catch (Exception e) {
+            logger.error("Failed to send " + message + " to dead letter channel", e);
+        }
+        return false;
+    }
+
+    private void acknowledge(Message<T> message) {
+        Object acknowledgment = message.getHeaders().get(KafkaHeaders.ACKNOWLEDGMENT);
+        if (acknowledgment instanceof Acknowledgment) {
+            ((Acknowledgment) acknowledgment).acknowledge();
+        }
+    }
+
+    /**
+     * 处理完已经收到的消息后再关闭
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        List<Message<T>> batch;
+        synchronized (this) {
+            batch = buffer;
+            buffer = null;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+        }
+        if (batch != null) {
+            executor.execute(() -> process(batch));
+        }
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+}
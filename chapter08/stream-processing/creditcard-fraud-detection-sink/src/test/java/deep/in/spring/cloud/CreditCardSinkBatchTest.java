@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.cloud.stream.binder.test.InputDestination;
+import org.springframework.cloud.stream.binder.test.OutputDestination;
+import org.springframework.cloud.stream.binder.test.TestChannelBinderConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * 使用内存中的 test binder 验证批量模式: 正常记录按批处理，只有非法记录进入死信队列。
+ *
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class CreditCardSinkBatchTest {
+
+    @Test
+    public void testBatchModeRoutesOnlyInvalidRecordsToDeadLetter() {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(
+            TestChannelBinderConfiguration.getCompleteConfiguration(CreditCardSinkApplication.class))
+            .web(WebApplicationType.NONE)
+            .run("--spring.cloud.stream.default-binder=integration",
+                "--creditcard.batch.enabled=true",
+                "--creditcard.batch.max-size=3",
+                "--creditcard.batch.max-wait-millis=100")) {
+            InputDestination input = context.getBean(InputDestination.class);
+            OutputDestination output = context.getBean(OutputDestination.class);
+
+            input.send(record("{\"user\":\"jim\",\"cost\":1500,\"cardType\":\"CMB\"}"));
+            input.send(record("{\"cost\":100,\"cardType\":\"ICBC\"}"));
+            input.send(record("{\"user\":\"jim\",\"cost\":600,\"cardType\":\"ABC\"}"));
+
+            Message<byte[]> deadLetter = output.receive(5000);
+            Assert.assertNotNull(deadLetter);
+            Assert.assertTrue(new String(deadLetter.getPayload(), StandardCharsets.UTF_8).contains("ICBC"));
+            Assert.assertNotNull(deadLetter.getHeaders().get(MicroBatchingConsumer.EXCEPTION_MESSAGE_HEADER));
+            Assert.assertNull(output.receive(500));
+
+            // 死信在批次处理完之后发送，此时 jim 的两条记录已经处理
+            Assert.assertTrue(context.getBean(CreditCardSinkApplication.class).isBlackListed("jim"));
+        }
+    }
+
+    private static Message<byte[]> record(String json) {
+        return MessageBuilder.withPayload(json.getBytes(StandardCharsets.UTF_8)).build();
+    }
+
+}
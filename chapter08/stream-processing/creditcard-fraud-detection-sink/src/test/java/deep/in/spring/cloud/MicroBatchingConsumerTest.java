@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package deep.in.spring.cloud;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+/**
+ * @author <a href="mailto:fangjian0423@gmail.com">Jim</a>
+ */
+public class MicroBatchingConsumerTest {
+
+    private final BlockingQueue<List<String>> batches = new LinkedBlockingQueue<>();
+
+    private final List<Message<?>> deadLetters = new CopyOnWriteArrayList<>();
+
+    private final AtomicInteger acknowledged = new AtomicInteger();
+
+    private MicroBatchingConsumer<String> consumer;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (consumer != null) {
+            consumer.destroy();
+        }
+    }
+
+    @Test
+    public void testFlushWhenBatchIsFull() throws InterruptedException {
+        consumer = consumer(batches::add, 3, 10_000);
+        send("a", "b", "c", "d");
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), batches.poll(1, TimeUnit.SECONDS));
+        // d 还在等待攒批
+        Assert.assertNull(batches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testFlushAfterMaxWait() throws InterruptedException {
+        consumer = consumer(batches::add, 100, 50);
+        send("a", "b");
+        Assert.assertEquals(Arrays.asList("a", "b"), batches.poll(1, TimeUnit.SECONDS));
+        awaitAcknowledged(2);
+    }
+
+    @Test
+    public void testOnlyFailedRecordsGoToDeadLetter() throws InterruptedException {
+        consumer = consumer(records -> {
+            batches.add(records);
+            throw new BatchProcessingException(
+                Collections.singletonMap(1, new IllegalArgumentException("bad record")));
+        }, 3, 10_000);
+        send("a", "b", "c");
+        awaitAcknowledged(3);
+        Assert.assertEquals(1, batches.size());
+        Assert.assertEquals(1, deadLetters.size());
+        Assert.assertEquals("b", deadLetters.get(0).getPayload());
+        Assert.assertEquals("bad record",
+            deadLetters.get(0).getHeaders().get(MicroBatchingConsumer.EXCEPTION_MESSAGE_HEADER));
+    }
+
+    @Test
+    public void testRetryOneByOneOnUnexpectedException() throws InterruptedException {
+        consumer = consumer(records -> {
+            batches.add(records);
+            if (records.contains("poison")) {
+                throw new IllegalStateException("poison");
+            }
+        }, 3, 10_000);
+        send("a", "poison", "c");
+        awaitAcknowledged(3);
+        // 一次整批 + 三次逐条
+        Assert.assertEquals(4, batches.size());
+        Assert.assertEquals(1, deadLetters.size());
+        Assert.assertEquals("poison", deadLetters.get(0).getPayload());
+    }
+
+    @Test
+    public void testDestroyFlushesPendingRecords() throws InterruptedException {
+        consumer = consumer(batches::add, 100, 10_000);
+        send("a");
+        consumer.destroy();
+        consumer = null;
+        Assert.assertEquals(Arrays.asList("a"), batches.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDeadLetterRejected() throws InterruptedException {
+        consumer = consumer(failOn("b"), 3, 10_000, (message, timeout) -> {
+            deadLetters.add(message);
+            return false;
+        });
+        send("a", "b", "c");
+        awaitBatches(1);
+        // b 没有进入死信队列，b 和之后的消息都不确认，重启后从 b 重新消费
+        awaitAcknowledged(1);
+        Assert.assertEquals(1, deadLetters.size());
+
+        send("d", "e", "f");
+        awaitBatches(2);
+        Thread.sleep(100);
+        Assert.assertEquals(1, acknowledged.get());
+    }
+
+    @Test
+    public void testDeadLetterThrows() throws InterruptedException {
+        consumer = consumer(failOn("c"), 3, 10_000, (message, timeout) -> {
+            deadLetters.add(message);
+            throw new IllegalStateException("broker unavailable");
+        });
+        send("a", "b", "c");
+        awaitBatches(1);
+        awaitAcknowledged(2);
+        Assert.assertEquals(1, deadLetters.size());
+    }
+
+    private Consumer<List<String>> failOn(String payload) {
+        return records -> {
+            batches.add(records);
+            int index = records.indexOf(payload);
+            if (index >= 0) {
+                throw new BatchProcessingException(
+                    Collections.singletonMap(index, new IllegalArgumentException("bad record")));
+            }
+        };
+    }
+
+    private MicroBatchingConsumer<String> consumer(Consumer<List<String>> batchConsumer, int maxSize,
+                                                   long maxWaitMillis) {
+        return consumer(batchConsumer, maxSize, maxWaitMillis, (message, timeout) -> {
+            deadLetters.add(message);
+            return true;
+        });
+    }
+
+    private MicroBatchingConsumer<String> consumer(Consumer<List<String>> batchConsumer, int maxSize,
+                                                   long maxWaitMillis, MessageChannel deadLetterChannel) {
+        return new MicroBatchingConsumer<>(batchConsumer, maxSize, maxWaitMillis, deadLetterChannel);
+    }
+
+    private void awaitBatches(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (batches.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, batches.size());
+    }
+
+    private void send(String... payloads) {
+        for (String payload : payloads) {
+            consumer.accept(MessageBuilder.withPayload(payload)
+                .setHeader(KafkaHeaders.ACKNOWLEDGMENT, (Acknowledgment) acknowledged::incrementAndGet)
+                .build());
+        }
+    }
+
+    private void awaitAcknowledged(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (acknowledged.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(expected, acknowledged.get());
+    }
+
+}